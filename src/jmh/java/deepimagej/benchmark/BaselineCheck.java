@@ -0,0 +1,125 @@
+package deepimagej.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Compare the results of the benchmarks, in the CSV format of JMH, with a baseline. The check fails
+ * if a benchmark is slower than the baseline by more than the tolerance. Benchmarks without a baseline
+ * are only reported, so new benchmarks do not fail the build until their scores are recorded.
+ * The baseline is only replaced when it is asked explicitly, and is only meaningful on the machine
+ * where it was produced.
+ * 
+ * Usage: BaselineCheck results.csv baseline.csv tolerance [update]
+ * where tolerance is the relative change allowed, for example 0.15, and update is 'true' to save the
+ * results as the new baseline instead of comparing them
+ * 
+ * @author Carlos Garcia
+ */
+public class BaselineCheck {
+	
+	private static final String SCORE = "Score";
+	
+	private static final String MODE = "Mode";
+	
+	private static final String UNIT = "Unit";
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println("Usage: BaselineCheck results.csv baseline.csv tolerance [update]");
+			System.exit(2);
+		}
+		Path results = Paths.get(args[0]);
+		Path baseline = Paths.get(args[1]);
+		double tolerance = Double.parseDouble(args[2]);
+		if (args.length == 4 && args[3].equals("true")) {
+			Files.createDirectories(baseline.toAbsolutePath().getParent());
+			Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("The current results have been saved as the benchmark baseline: " + baseline);
+			return;
+		} else if (!Files.isRegularFile(baseline)) {
+			System.err.println("No benchmark baseline found at " + baseline + ", record it with -Djmh.update_baseline=true");
+			System.exit(2);
+		}
+		Map<String, Map<String, String>> current = read(results);
+		Map<String, Map<String, String>> base = read(baseline);
+		int regressions = 0;
+		int missing = 0;
+		for (Entry<String, Map<String, String>> ee : current.entrySet()) {
+			Map<String, String> old = base.get(ee.getKey());
+			if (old == null || !old.get(UNIT).equals(ee.getValue().get(UNIT))) {
+				missing ++;
+				System.out.println(String.format(Locale.ROOT, "%-80s %12s  (no baseline)", ee.getKey(), ee.getValue().get(SCORE)));
+				continue;
+			}
+			double now = Double.parseDouble(ee.getValue().get(SCORE));
+			double before = Double.parseDouble(old.get(SCORE));
+			double change = (now - before) / before;
+			// Throughput is better when higher, every other mode measures time
+			boolean worse = ee.getValue().get(MODE).equals("thrpt") ? change < -tolerance : change > tolerance;
+			if (worse)
+				regressions ++;
+			System.out.println(String.format(Locale.ROOT, "%-80s %12.3f %12.3f %+7.1f%% %s %s", ee.getKey(), before, now, 
+					change * 100, ee.getValue().get(UNIT), worse ? "REGRESSION" : ""));
+		}
+		if (missing > 0)
+			System.err.println("[WARNING] " + missing + " benchmarks have no baseline, record it with -Djmh.update_baseline=true");
+		if (regressions > 0)
+			System.err.println(regressions + " benchmarks are slower than the baseline by more than " + (tolerance * 100) + "%");
+		if (regressions > 0)
+			System.exit(1);
+	}
+	
+	/**
+	 * @return the columns of each benchmark, by the name of the benchmark and its parameters
+	 */
+	private static Map<String, Map<String, String>> read(Path file) throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		Map<String, Map<String, String>> rows = new LinkedHashMap<String, Map<String, String>>();
+		if (lines.isEmpty())
+			return rows;
+		List<String> header = split(lines.get(0));
+		for (String line : lines.subList(1, lines.size())) {
+			if (line.trim().isEmpty())
+				continue;
+			List<String> values = split(line);
+			Map<String, String> row = new LinkedHashMap<String, String>();
+			String key = "";
+			for (int i = 0; i < header.size() && i < values.size(); i ++) {
+				row.put(header.get(i), values.get(i));
+				if (header.get(i).equals("Benchmark") || header.get(i).startsWith("Param: "))
+					key += (key.equals("") ? "" : " ") + (header.get(i).startsWith("Param: ") 
+							? header.get(i).substring(7) + "=" + values.get(i) : values.get(i));
+			}
+			rows.put(key, row);
+		}
+		return rows;
+	}
+	
+	private static List<String> split(String line) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean quoted = false;
+		for (char cc : line.toCharArray()) {
+			if (cc == '"')
+				quoted = !quoted;
+			else if (cc == ',' && !quoted) {
+				values.add(sb.toString());
+				sb.setLength(0);
+			} else
+				sb.append(cc);
+		}
+		values.add(sb.toString());
+		return values;
+	}
+}
@@ -0,0 +1,170 @@
+package deepimagej.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import deepimagej.gui.ImageJGui;
+import deepimagej.tools.ImPlusRaiManager;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.CompositeConverter;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.utils.Constants;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+import net.imglib2.view.Views;
+
+/**
+ * Conversions between ImagePlus and tensors done for every image processed. The views created
+ * by the conversions are lazy, so each benchmark also reads every pixel of the result, as the
+ * engines do when they copy the tensors.
+ * 
+ * @author Carlos Garcia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConversionBenchmark {
+	
+	@Param({"512", "2048"})
+	public int size;
+	
+	@Param({"8-bit", "16-bit", "32-bit", "RGB"})
+	public String type;
+	
+	@Param({"bcyx", "byxc"})
+	public String axes;
+	
+	private ImagePlus imp;
+	
+	private ImagePlus composite;
+	
+	private RandomAccessibleInterval<FloatType> output;
+	
+	private ModelDescriptor descriptor;
+	
+	private Path rdfDir;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		imp = IJ.createImage("benchmark", type + " ramp", size, size, 1);
+		composite = type.equals("RGB") ? CompositeConverter.makeComposite(imp) : imp;
+		long[] dims = new long[axes.length()];
+		for (int i = 0; i < dims.length; i ++)
+			dims[i] = axes.charAt(i) == 'x' || axes.charAt(i) == 'y' ? size : (axes.charAt(i) == 'c' ? 3 : 1);
+		Img<FloatType> img = ArrayImgs.floats(dims);
+		float value = 0;
+		for (FloatType px : img)
+			px.set(value ++);
+		output = img;
+		
+		rdfDir = Files.createTempDirectory("deepimagej_benchmark");
+		String rdf;
+		try (InputStream is = ConversionBenchmark.class.getResourceAsStream("/benchmark_rdf.yaml")) {
+			rdf = new String(readAll(is), StandardCharsets.UTF_8).replace("${axes}", axes);
+		}
+		Files.write(rdfDir.resolve(Constants.RDF_FNAME), rdf.getBytes(StandardCharsets.UTF_8));
+		descriptor = ModelDescriptorFactory.readFromLocalFile(rdfDir.resolve(Constants.RDF_FNAME).toString());
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(rdfDir.resolve(Constants.RDF_FNAME));
+		Files.deleteIfExists(rdfDir);
+	}
+	
+	/**
+	 * ImagePlus into a RAI with the axes order of the tensor
+	 */
+	@Benchmark
+	public <T extends RealType<T> & NativeType<T>> Img<FloatType> imagePlusToRai() {
+		RandomAccessibleInterval<T> rai = ImPlusRaiManager.convert(composite, axes);
+		return copy(rai);
+	}
+	
+	/**
+	 * Conversion of the RAI of an ImagePlus to the axes order of the tensor
+	 */
+	@Benchmark
+	public <T extends RealType<T> & NativeType<T>> Img<FloatType> permute() {
+		RandomAccessibleInterval<T> rai = Cast.unchecked(output);
+		return copy(ImPlusRaiManager.permute(rai, axes, "bczyx"));
+	}
+	
+	/**
+	 * Conversion of a tensor to the ImageJ axes order
+	 */
+	@Benchmark
+	public <T extends RealType<T> & NativeType<T>> Img<FloatType> convertToAxesOrder() {
+		RandomAccessibleInterval<T> rai = Cast.unchecked(output);
+		return copy(ImPlusRaiManager.convertToAxesOrder(rai, axes, ImPlusRaiManager.IJ_AXES_ORDER));
+	}
+	
+	/**
+	 * Output tensor into an ImagePlus, reading the pixels of every plane
+	 */
+	@Benchmark
+	public void raiToImagePlus(Blackhole bh) {
+		ImagePlus im = ImPlusRaiManager.convert(output, axes);
+		ImageStack stack = im.getStack();
+		for (int i = 1; i <= stack.getSize(); i ++)
+			bh.consume(stack.getProcessor(i).getPixels());
+	}
+	
+	/**
+	 * ImagePlus into the input tensor of a model, including the conversion of RGB images
+	 */
+	@Benchmark
+	public <T extends RealType<T> & NativeType<T>> Img<FloatType> buildTensor() {
+		Map<String, Object> inputs = new HashMap<String, Object>();
+		inputs.put(descriptor.getInputTensors().get(0).getName(), imp);
+		List<Tensor<T>> tensors = new ImageJGui().convertToInputTensors(inputs, descriptor);
+		return copy(tensors.get(0).getData());
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> Img<FloatType> copy(RandomAccessibleInterval<T> rai) {
+		Img<FloatType> dest = ArrayImgs.floats(rai.dimensionsAsLongArray());
+		LoopBuilder.setImages(Views.zeroMin(rai), dest).forEachPixel((s, d) -> d.setReal(s.getRealDouble()));
+		return dest;
+	}
+	
+	private static byte[] readAll(InputStream is) throws IOException {
+		if (is == null)
+			throw new IOException("Missing resource: benchmark_rdf.yaml");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = is.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,57 @@
+package deepimagej.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import deepimagej.Table2Tensor;
+import ij.measure.ResultsTable;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Conversions between tensors and ImageJ tables
+ * 
+ * @author Carlos Garcia
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TableBenchmark {
+	
+	@Param({"100", "10000"})
+	public int rows;
+	
+	@Param({"4", "64"})
+	public int cols;
+	
+	private float[] flat;
+	
+	private ResultsTable table;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		flat = new float[rows * cols];
+		for (int i = 0; i < flat.length; i ++)
+			flat[i] = i;
+		table = Table2Tensor.flatArrayToTable(flat, new long[] {rows, cols}, "RC");
+	}
+	
+	@Benchmark
+	public ResultsTable flatArrayToTable() {
+		return Table2Tensor.flatArrayToTable(flat, new long[] {rows, cols}, "RC");
+	}
+	
+	@Benchmark
+	public Img<FloatType> tableToTensor() {
+		return Table2Tensor.tableToTensor(table, "RC");
+	}
+}
@@ -56,7 +56,6 @@ import java.awt.event.FocusListener;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -81,6 +80,7 @@ import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import deepimagej.Constants;
+import deepimagej.tools.LocalModelIndex;
 import ij.IJ;
 import ij.plugin.frame.PlugInFrame;
 
@@ -118,7 +118,8 @@ public class Create_Macro extends PlugInFrame {
     		+ "Choose if you would like to display the output results. If you opt to display them,<br>"
     		+ "and you're running the model on multiple images within a folder, you can select to<br>"
     		+ "show either every output ('all') or just a specific subset. To display only a subset,<br>"
-    		+ "specify the number of outputs you want to see; the remaining outputs will be hidden.<br>"
+    		+ "specify a number N to see the outputs of one of every N images; the remaining outputs<br>"
+    		+ "are only saved. "
     		+ "This feature can be useful for debugging when processing large batches of images.</html>";
     
     private static final String OUTPUT_INFO = ""
@@ -137,20 +138,13 @@ public class Create_Macro extends PlugInFrame {
     }
     
     private void createModelComboBox() {
-    	File modelsFolder = new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models");
-    	if (!modelsFolder.isDirectory()) {
-    		modelComboBox = new JComboBox<>(new String[]{NO_MODELS_STR});
-    		return;
-    	}
-		List<File> modelFiles = Arrays.stream(modelsFolder.listFiles())
-				.filter(ff -> ff.list() != null && Arrays.asList(ff.list()).contains(io.bioimage.modelrunner.utils.Constants.RDF_FNAME))
-				.collect(Collectors.toList());
-		if (modelFiles.size() == 0) {
+		List<LocalModelIndex.Entry> models = LocalModelIndex.getModels(deepimagej.Constants.FIJI_FOLDER + File.separator + "models");
+		if (models.size() == 0) {
     		modelComboBox = new JComboBox<>(new String[]{NO_MODELS_STR});
     		return;
 		}
-		String[] arr = new String[modelFiles.size()];
-		modelFiles.stream().map(f -> f.getName()).collect(Collectors.toList()).toArray(arr);
+		String[] arr = new String[models.size()];
+		models.stream().map(mm -> mm.getFolder()).collect(Collectors.toList()).toArray(arr);
 		modelComboBox = new JComboBox<>(arr);
 		modelComboBox.setSelectedIndex(0);
     }
@@ -443,7 +437,7 @@ public class Create_Macro extends PlugInFrame {
         if (!displayOutput)
         	nDisplayedStr = "" + 0;
         else if (this.periodTextField.getText().equals(""))
-        	nDisplayedStr = "null";
+        	nDisplayedStr = "all";
         else
         	nDisplayedStr = this.periodTextField.getText();
         if (!saveOutput)
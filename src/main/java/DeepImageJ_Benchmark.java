@@ -0,0 +1,145 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+
+import deepimagej.Benchmark;
+import ij.IJ;
+import ij.Macro;
+import ij.measure.ResultsTable;
+import ij.plugin.PlugIn;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.bioimageio.description.exceptions.ModelSpecsException;
+import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.utils.Constants;
+
+/**
+ * Command that measures the load time, latency, throughput and memory of a model.
+ * 
+ * Macro example:
+ * run("DeepImageJ Benchmark", "model_path=LiveCellSegmentationBou warmup=3 iterations=20 synthetic=false")
+ * 
+ * It can also be run without ImageJ, with the same options as arguments:
+ * java -cp ... DeepImageJ_Benchmark model_path=/path/to/model iterations=50
+ * 
+ * @author Carlos Garcia
+ */
+public class DeepImageJ_Benchmark implements PlugIn {
+	
+	final static String[] macroKeys = new String[] {"model_path", "warmup", "iterations", "synthetic"};
+	
+	private static final int DEFAULT_WARMUP = 3;
+	
+	private static final int DEFAULT_ITERATIONS = 20;
+	
+	static public void main(String args[]) {
+		Benchmark.Result result = benchmark(String.join(" ", args));
+		System.out.println(result);
+	}
+
+	@Override
+	public void run(String arg) {
+		String options = Macro.getOptions();
+		if (options == null) {
+			IJ.error("DeepImageJ Benchmark", "DeepImageJ Benchmark needs to be run from a macro, for example:" 
+					+ System.lineSeparator() + "run(\"DeepImageJ Benchmark\", \"model_path=/path/to/model iterations=20\")");
+			return;
+		}
+		Benchmark.Result result = benchmark(options);
+		System.out.println(result);
+		ResultsTable table = new ResultsTable();
+		table.incrementCounter();
+		table.addValue("Inputs", result.getInputs());
+		table.addValue("Iterations", result.getIterations());
+		table.addValue("Load (ms)", result.getLoadMs());
+		table.addValue("Mean (ms)", result.getMeanMs());
+		table.addValue("p50 (ms)", result.getLatencyMs(50));
+		table.addValue("p95 (ms)", result.getLatencyMs(95));
+		table.addValue("p99 (ms)", result.getLatencyMs(99));
+		table.addValue("Throughput (images/s)", result.getThroughput());
+		table.addValue("Peak heap (MB)", result.getPeakHeapMb());
+		if (!GraphicsEnvironment.isHeadless())
+			table.show("DeepImageJ Benchmark");
+	}
+	
+	private static Benchmark.Result benchmark(String options) {
+		String modelArg = Macro.getValue(options, macroKeys[0], null);
+		if (modelArg == null || modelArg.equals(""))
+			throw new IllegalArgumentException("DeepImageJ Benchmark requires the variable '" + macroKeys[0] + "'. "
+					+ "For more info, please visit: " + DeepImageJ_Run.MACRO_INFO);
+		int warmup = parseInt(options, macroKeys[1], DEFAULT_WARMUP);
+		int iterations = parseInt(options, macroKeys[2], DEFAULT_ITERATIONS);
+		boolean synthetic = Macro.getValue(options, macroKeys[3], "false").toLowerCase().equals("true");
+		try {
+			String modelFolder = DeepImageJ_Run.identifyModel(modelArg);
+			ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(modelFolder + File.separator + Constants.RDF_FNAME);
+			String enginesDir = deepimagej.Constants.FIJI_FOLDER + File.separator + "engines";
+			return Benchmark.run(descriptor, enginesDir, warmup, iterations, synthetic);
+		} catch (IOException | ModelSpecsException | LoadEngineException | LoadModelException | RunModelException e) {
+			throw new RuntimeException("Error benchmarking the model. Caused by: " + e.getMessage(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Benchmark interrupted: " + modelArg);
+		}
+	}
+	
+	private static int parseInt(String options, String key, int defaultValue) {
+		String value = Macro.getValue(options, key, null);
+		if (value == null || value.equals(""))
+			return defaultValue;
+		try {
+			int num = Integer.parseInt(value);
+			if (num < 0)
+				throw new IllegalArgumentException("The variable '" + key + "' cannot be negative: " + value);
+			return num;
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("The variable '" + key + "' needs to be an integer: " + value);
+		}
+	}
+}
@@ -1,381 +1,1222 @@
-/*
- * DeepImageJ
- * 
- * https://deepimagej.github.io/deepimagej/
- * 
- * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
- * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
- * Submitted 2021.
- * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
- * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
- * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
- * 
- * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
- *
- */
-
-/*
- * BSD 2-Clause License
- *
- * Copyright (c) 2019-2021, DeepImageJ
- * All rights reserved.
- *	
- * Redistribution and use in source and binary forms, with or without
- * modification, are permitted provided that the following conditions are met:
- *
- * 1. Redistributions of source code must retain the above copyright notice, this
- *    list of conditions and the following disclaimer.
- *
- * 2. Redistributions in binary form must reproduce the above copyright notice,
- *	  this list of conditions and the following disclaimer in the documentation
- *	  and/or other materials provided with the distribution.
- *	
- * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
- * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
- * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
- * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
- * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
- * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
- * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
- * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
- * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
- * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
- */
-
-import java.awt.Dimension;
-import java.awt.event.WindowAdapter;
-import java.awt.event.WindowEvent;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.function.Consumer;
-
-import javax.swing.SwingUtilities;
-
-import com.sun.jna.Platform;
-
-import deepimagej.Runner;
-import deepimagej.gui.ImageJGui;
-import deepimagej.tools.ImPlusRaiManager;
-import ij.IJ;
-import ij.ImageJ;
-import ij.ImagePlus;
-import ij.Macro;
-import ij.WindowManager;
-import ij.plugin.PlugIn;
-import ij.plugin.frame.Recorder;
-import io.bioimage.modelrunner.apposed.appose.Types;
-import io.bioimage.modelrunner.bioimageio.BioimageioRepo;
-import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
-import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
-import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
-import io.bioimage.modelrunner.bioimageio.description.exceptions.ModelSpecsException;
-import io.bioimage.modelrunner.exceptions.LoadEngineException;
-import io.bioimage.modelrunner.exceptions.LoadModelException;
-import io.bioimage.modelrunner.exceptions.RunModelException;
-import io.bioimage.modelrunner.gui.Gui;
-import io.bioimage.modelrunner.tensor.Tensor;
-import io.bioimage.modelrunner.utils.Constants;
-import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.type.NativeType;
-import net.imglib2.type.numeric.RealType;
-
-/**
- * 
- * @author Carlos Javier Garcia Lopez de Haro
- *
- */
-public class DeepImageJ_Run implements PlugIn {
-
-	private String modelArg;
-	private String modelFolder;
-	private String inputFolder;
-	private String outputFolder;
-	private String display;
-	
-	private ModelDescriptor model;
-	
-	/**
-	 * Keys required to run deepImageJ with a macro
-	 */
-	final static String[] macroKeys = new String[] {"model_path"};
-	/**
-	 * Optional keys to run deepImageJ with a macro or in headless mode
-	 */
-	final static String[] macroOptionalKeys = new String[] {"input_path", "output_folder", "display_output"};
-	
-	public final static String MACRO_INFO = "https://github.com/deepimagej/deepimagej-plugin/blob/main/README.md#macros";
-
-	final static String MACRO_RECORD_COMMENT = ""
-	        + System.lineSeparator()
-	        + "// The macro recording feature will capture the command 'run(\"DeepImageJ Run\");', but executing it will have no effect." + System.lineSeparator()
-	        + "// The recording will be performed once the button 'Run' is clicked." + System.lineSeparator()
-	        + "// For more information, visit:" + System.lineSeparator()
-	        + "// " + MACRO_INFO + System.lineSeparator();
-	
-	static public void main(String args[]) {
-		new ImageJ();
-		new DeepImageJ_Run().run("");
-	}
-	@Override
-	public void run(String arg) {
-	    boolean isMacro = IJ.isMacro();
-	    if (!isMacro) {
-	    	runGUI();
-	    } else if (isMacro && Macro.getOptions() != null) {
-	    	runMacro();
-	    }
-	}
-	
-	private void runGUI() {
-		if (Recorder.record)
-			Recorder.recordString(MACRO_RECORD_COMMENT);
-		File modelsDir = new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models");
-		if (!modelsDir.isDirectory() && !modelsDir.mkdir())
-			throw new RuntimeException("Unable to create 'models' folder inside ImageJ/Fiji directory. Please create it yourself.");
-		SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-            	ij.plugin.frame.PlugInFrame frame = new ij.plugin.frame.PlugInFrame("deepImageJ " + deepimagej.Constants.DIJ_VERSION);
-            	Gui gui = new Gui(new ImageJGui());
-                gui.setPreferredSize(new Dimension(600, 700));
-    	    	Runnable callback = () -> frame.dispose();
-    	    	gui.setCancelCallback(callback);
-                frame.add(gui);
-                frame.pack();
-                frame.setLocationRelativeTo(null);
-                frame.setVisible(true);
-                frame.addWindowListener(new WindowAdapter() {
-                    @Override
-                    public void windowClosed(WindowEvent e) {
-                    	gui.onClose();
-                    }
-                });
-                }
-           });
-	}
-	
-	public static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	List<RandomAccessibleInterval<R>> runModel(String model, List<RandomAccessibleInterval<T>> inputs, List<String> axesOrders) throws IOException, InterruptedException, LoadEngineException, RunModelException {
-		model = identifyModel(model);
-		ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(model + File.separator + Constants.RDF_FNAME);
-		
-		Runner runner = Runner.create(descriptor, deepimagej.Constants.FIJI_FOLDER + File.separator + "engines");
-		List<Tensor<T>> ins = createInputTensorList(descriptor, inputs, axesOrders);
-		List<Tensor<R>> outs = runner.run(ins);
-		List<RandomAccessibleInterval<R>> raiOuts = new ArrayList<RandomAccessibleInterval<R>>();
-		for (int i = 0; i < outs.size(); i ++) {
-			TensorSpec spec = descriptor.getOutputTensors().get(i);
-			RandomAccessibleInterval<R> outRai = outs.get(i).getData();
-			if (spec.isImage())
-				outRai = ImPlusRaiManager.convertToAxesOrder(outRai, spec.getAxesOrder(), ImPlusRaiManager.IJ_AXES_ORDER);
-			raiOuts.add(outRai);
-		}
-		return raiOuts;
-	}
-	
-	private static <T extends RealType<T> & NativeType<T>> List<Tensor<T>> createInputTensorList(ModelDescriptor descriptor, List<RandomAccessibleInterval<T>> inputs, List<String> axesOrders) {
-		if (inputs.size() != descriptor.getInputTensors().size())
-			throw new IllegalArgumentException(String.format("The number of inputs defined in the Bioimage.io rdf.yaml specs file is not the same as the number"
-					+ " of inputs provided: %s vs %s", descriptor.getInputTensors().size(), inputs.size()));
-		List<Tensor<T>> ins = new ArrayList<Tensor<T>>();
-		for (int i = 0; i < inputs.size(); i ++) {
-			RandomAccessibleInterval<T> rai = inputs.get(i);
-			TensorSpec spec = descriptor.getInputTensors().get(i);
-			String axesOrder = axesOrders.get(i).toLowerCase();
-			if (!axesOrder.contains("b") && axesOrder.contains("t") && !spec.getAxesOrder().contains("t"))
-				axesOrder = axesOrder.replace("t", "b");
-			else if (!axesOrder.contains("b") && axesOrder.contains("z") && !spec.getAxesOrder().contains("z"))
-				axesOrder = axesOrder.replace("z", "b");
-			if (spec.isImage())
-				rai = ImPlusRaiManager.convertToAxesOrder(rai, axesOrder, spec.getAxesOrder());
-			Tensor<T> tensor = Tensor.build(spec.getName(), spec.getAxesOrder(), rai);
-			ins.add(tensor);
-		}
-		return ins;
-	}
-	
-	/**
-	 * Macro example:
-	 * run("DeepImageJ Run", "modelPath=/path/to/model/LiveCellSegmentationBou 
-	 *  inputPath=/path/to/image/sample_input_0.tif 
-	 *  outputFolder=/path/to/ouput/folder
-	 *  displayOutput=null")
-	 */
-	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>>
-	void runMacro() {
-		parseCommand();
-		try {
-			modelFolder = identifyModel(modelArg);
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
-			return;
-		}
-
-
-		if (this.inputFolder != null && !(new File(this.inputFolder).exists()))
-			throw new IllegalArgumentException("The provided input folder does not exist: " + this.inputFolder);
-		if (this.outputFolder != null && !(new File(this.outputFolder).isDirectory()) && !(new File(outputFolder).mkdirs()))
-			throw new IllegalArgumentException("The provided output folder does not exist and cannot be created: " + this.inputFolder);
-
-		ImageJGui adapter = new ImageJGui();
-
-		try {
-			loadDescriptor();
-		} catch (ModelSpecsException | IOException e) {
-			e.printStackTrace();
-			return;
-		}
-		try (Runner runner = Runner.create(model, deepimagej.Constants.FIJI_FOLDER + File.separator + "engines")) {
-			runner.load(true);
-			if (this.inputFolder != null) {
-				executeOnPath(runner, adapter);
-			} else {
-				executeOnImagePlus(runner, adapter);
-			}
-		} catch (IOException | LoadModelException | RunModelException | LoadEngineException e) {
-			throw new RuntimeException(Types.stackTrace(e));
-		};
-	}
-	
-	private void loadDescriptor() throws FileNotFoundException, ModelSpecsException, IOException {
-		model = ModelDescriptorFactory.readFromLocalFile(modelFolder + File.separator + Constants.RDF_FNAME);
-		if (model.getInputTensors().size() > 1)
-			throw new IllegalArgumentException("Selected model requires more than one input, currently only models with 1 input"
-					+ " are supported.");
-	}
-	
-	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	void executeOnPath(Runner runner, ImageJGui adapter) throws FileNotFoundException, RunModelException, IOException {
-		File ff = new File(this.inputFolder);
-		if (ff.isDirectory())
-			this.executeOnFolder(model, runner, adapter);
-		else
-			this.executeOnFile(model, runner, adapter);
-	}
-	
-	private static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	List<ImagePlus> executeOnFile(File ff, ModelDescriptor model, Runner runner, ImageJGui adapter) 
-			throws FileNotFoundException, RunModelException, IOException {
-		List<ImagePlus> outList = new ArrayList<ImagePlus>();
-		ImagePlus imp = IJ.openImage(ff.getAbsolutePath());
-		Map<String, Object> map = new HashMap<String, Object>();
-		map.put(model.getInputTensors().get(0).getName(), imp);
-		List<Tensor<T>> inputList = adapter.convertToInputTensors(map, model);
-		List<Tensor<R>> res = runner.run(inputList);
-		for (Tensor<R> rr : res) {
-			ImagePlus im = ImPlusRaiManager.convert(rr.getData(), rr.getAxesOrderString());
-			im.setTitle(imp.getShortTitle() + "_" + rr.getName());
-			outList.add(im);
-		}
-		return outList;
-	}
-	
-	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	void executeOnFile(ModelDescriptor model, Runner runner, ImageJGui adapter) throws FileNotFoundException, RunModelException, IOException {
-		List<ImagePlus> outs = executeOnFile(new File(this.inputFolder), model, runner, adapter);
-		for (ImagePlus im : outs) {
-			if (this.outputFolder != null) {
-				IJ.saveAsTiff(im, this.outputFolder + File.separator + im.getTitle());
-			}
-			if (display != null && this.display.equals("all")) {
-				SwingUtilities.invokeLater(() -> im.show());
-			}
-		}
-	}
-	
-	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	void executeOnFolder(ModelDescriptor model, Runner runner, ImageJGui adapter) throws FileNotFoundException, RunModelException, IOException {
-		for (File ff : new File(this.inputFolder).listFiles()) {
-			List<ImagePlus> outs = executeOnFile(ff, model, runner, adapter);
-			
-			for (ImagePlus im : outs) {
-				if (this.outputFolder != null) {
-					IJ.saveAsTiff(im, this.outputFolder + File.separator + im.getTitle());
-				} 
-				if (display != null && this.display.equals("all")) {
-					SwingUtilities.invokeLater(() -> im.show());
-				}
-			}
-		}
-		
-	}
-	
-	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
-	void executeOnImagePlus(Runner runner, ImageJGui adapter) throws FileNotFoundException, RunModelException, IOException {
-		ImagePlus imp = WindowManager.getCurrentImage();
-		Map<String, Object> inputMap = new HashMap<String, Object>();
-		inputMap.put(model.getInputTensors().get(0).getName(), imp);
-		List<Tensor<T>> inputList = adapter.convertToInputTensors(inputMap, model);
-		List<Tensor<R>> res = runner.run(inputList);
-		for (Tensor<R> rr : res) {
-			ImagePlus im = ImPlusRaiManager.convert(rr.getData(), rr.getAxesOrderString());
-			im.setTitle(imp.getShortTitle() + "_" + rr.getName());
-			im.getProcessor().resetMinAndMax();
-			if (display == null || display.equals("all"))
-				SwingUtilities.invokeLater(() -> im.show());
-			if (this.outputFolder != null) {
-				IJ.saveAsTiff(im, this.outputFolder + File.separator + im.getTitle());
-			}
-		}
-	}
-
-	
-	private void parseCommand() {
-		String macroArg = Macro.getOptions();
-		if (Platform.isWindows())
-			System.err.println("[WARNING] On Windows, you must use double "
-					+ "backslashes ('\\\\') in file and folder paths. "
-					+ "For example: C:\\\\path\\\\to\\\\modelFolder");
-
-		// macroArg = "modelPath=NucleiSegmentationBoundaryModel";
-		// macroArg = "modelPath=NucleiSegmentationBoundaryModel outputFolder=null";
-		// macroArg = "modelPath=[StarDist H&E Nuclei Segmentation] inputPath=null outputFolder=null";
-
-		modelArg = parseArg(macroArg, macroKeys[0], true);
-		inputFolder = parseArg(macroArg, macroOptionalKeys[0], false);
-		outputFolder = parseArg(macroArg, macroOptionalKeys[1], false);
-		display = parseArg(macroArg, macroOptionalKeys[2], false);
-	}
-	
-	private static String identifyModel(String modelArg) throws IOException, InterruptedException {
-
-		if ((new File(modelArg).isAbsolute()))
-			return modelArg;
-		else if (new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models", modelArg).isDirectory())
-			return new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models", modelArg).getAbsolutePath();
-		else {
-			List<ModelDescriptor> localModels = ModelDescriptorFactory.getModelsAtLocalRepo(deepimagej.Constants.FIJI_FOLDER + File.separator + "models");
-			ModelDescriptor modelDes = localModels.stream().filter(mm -> mm.getNickname().equals(modelArg)).findFirst().orElse(null);
-			if (modelDes != null) {
-				return modelDes.getModelPath();
-			}
-			System.err.println("Looking for the model in the Bioimage.io repo: " + modelArg);
-			Entry<String, ModelDescriptor> entry = BioimageioRepo.connect().listAllModels(false).entrySet().stream()
-					.filter(ee -> ee.getValue().getNickname().equals(modelArg)).findFirst().orElse(null);
-			if (entry == null)
-				throw new IllegalArgumentException("Model '" + modelArg + "' not found either locally or on the Bioimage.io repo.");
-			Consumer<Double> cons = (d) -> {
-				System.out.println(String.format("Downloading %s: %.2f%%", modelArg, d * 100));
-			};
-			return BioimageioRepo.downloadModel(entry.getValue(), deepimagej.Constants.FIJI_FOLDER + File.separator + "models", cons);
-		}
-	}
-	
-	private static String parseArg(String macroArg, String arg, boolean required) {
-		String value = Macro.getValue(macroArg, arg, null);
-		if (value != null && value.equals(""))
-			value = null;
-		if (value != null && value.equals("null"))
-			value = null;
-		if (value == null && required)
-			throw new IllegalArgumentException("DeepImageJ Run macro requires to the variable '" + arg + "'. "
-					+ "For more info, please visit: " + DeepImageJ_Run.MACRO_INFO);
-		return value;
-	}
-
-}
\ No newline at end of file
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.awt.Dimension;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+import com.sun.jna.Platform;
+
+import deepimagej.BatchPipeline;
+import deepimagej.BatchStacker;
+import deepimagej.BufferPool;
+import deepimagej.MemoryBudget;
+import deepimagej.ModelSession;
+import deepimagej.Runner;
+import deepimagej.RunLog;
+import deepimagej.RunnerCache;
+import deepimagej.TiledRunner;
+import deepimagej.gui.ImageJGui;
+import deepimagej.io.CommitQueue;
+import deepimagej.io.OutputNarrowing;
+import deepimagej.io.OutputWriter;
+import deepimagej.tools.InputWalker;
+import deepimagej.tools.CatalogCache;
+import deepimagej.tools.LocalModelIndex;
+import deepimagej.tools.ProcessedManifest;
+import deepimagej.tools.WorkClaims;
+import deepimagej.tools.ImPlusRaiManager;
+import ij.IJ;
+import ij.ImageJ;
+import ij.ImagePlus;
+import ij.Macro;
+import ij.WindowManager;
+import ij.plugin.PlugIn;
+import ij.plugin.frame.Recorder;
+import io.bioimage.modelrunner.apposed.appose.Types;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.bioimageio.description.exceptions.ModelSpecsException;
+import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.gui.Gui;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.utils.Constants;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * 
+ * @author Carlos Javier Garcia Lopez de Haro
+ *
+ */
+public class DeepImageJ_Run implements PlugIn {
+
+	private String modelArg;
+	private String modelFolder;
+	private String inputFolder;
+	private String outputFolder;
+	private String display;
+	/**
+	 * Every how many results one is displayed, 0 to display none
+	 */
+	private long displayPeriod = 0;
+	private final AtomicLong results = new AtomicLong();
+	private int workers = 1;
+	private boolean keepLoaded = false;
+	private long tileSize = 0;
+	private int batchSize = 1;
+	private boolean resume = false;
+	private int depth = 1;
+	private String include;
+	private String exclude;
+	private OutputWriter writer;
+	private OutputNarrowing narrowing;
+	private long streamWindow = 0;
+	private Boolean virtualInput;
+	private String runLog;
+	private RunLog log;
+	private int shardIndex = 0;
+	private int shardCount = 1;
+	private boolean headless = false;
+	private String claimFolder;
+	private long claimLease = WorkClaims.DEFAULT_LEASE;
+	private MemoryBudget budget;
+	/**
+	 * Maximum size in bytes of the outputs waiting to be saved
+	 */
+	private long writeQueue = DEFAULT_WRITE_QUEUE;
+	private CommitQueue commits;
+	private BufferPool pool;
+	
+	private ModelDescriptor model;
+	
+	/**
+	 * Keys required to run deepImageJ with a macro
+	 */
+	final static String[] macroKeys = new String[] {"model_path"};
+	/**
+	 * Optional keys to run deepImageJ with a macro or in headless mode
+	 */
+	final static String[] macroOptionalKeys = new String[] {"input_path", "output_folder", "display_output", "workers", "keep_loaded", "flush_cache", "tile_size", "batch_size", "resume", "recursive_depth", "include", "exclude", "output_format", "virtual_input", "run_log", "shard", "claim_folder", "claim_lease", "memory_budget", "output_dtype", "compression", "stream_window", "write_queue"};
+	
+	private final static String RUN_LOG_NAME = ".deepimagej_run_log.jsonl";
+	
+	private final static long DEFAULT_WRITE_QUEUE = 256 * 1024 * 1024;
+	
+	public final static String MACRO_INFO = "https://github.com/deepimagej/deepimagej-plugin/blob/main/README.md#macros";
+
+	final static String MACRO_RECORD_COMMENT = ""
+	        + System.lineSeparator()
+	        + "// The macro recording feature will capture the command 'run(\"DeepImageJ Run\");', but executing it will have no effect." + System.lineSeparator()
+	        + "// The recording will be performed once the button 'Run' is clicked." + System.lineSeparator()
+	        + "// For more information, visit:" + System.lineSeparator()
+	        + "// " + MACRO_INFO + System.lineSeparator();
+	
+	final static String HEADLESS_USAGE = ""
+			+ "Usage: java -cp <classpath> DeepImageJ_Run --model <model> --input <file or folder> --output <folder> "
+			+ "[--shard <i>/<n>] [--<option> <value>]..." + System.lineSeparator()
+			+ "Runs the model without ImageJ windows. The options are the same as the options of the macro, "
+			+ "for example '--batch_size 8' or '--resume true'." + System.lineSeparator()
+			+ "With '--shard i/n' only the files of the shard i (from 0 to n-1) out of n are processed, so the same "
+			+ "folder can be split among n processes." + System.lineSeparator()
+			+ "For more information, visit: " + MACRO_INFO;
+	
+	/**
+	 * Without arguments, start ImageJ and the plugin. With arguments, run the model headless with the 
+	 * options given, see {@link #HEADLESS_USAGE}, and exit with status 0 if it finishes correctly
+	 * @param args
+	 * 	command line options
+	 */
+	static public void main(String args[]) {
+		if (args.length == 0) {
+			new ImageJ();
+			new DeepImageJ_Run().run("");
+			return;
+		}
+		System.setProperty("java.awt.headless", "true");
+		int status = 1;
+		try {
+			DeepImageJ_Run run = new DeepImageJ_Run();
+			run.headless = true;
+			status = run.runMacro(toMacroOptions(args)) ? 0 : 1;
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println(HEADLESS_USAGE);
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		}
+		System.exit(status);
+	}
+	
+	/**
+	 * Convert the command line options into the options of the macro
+	 * @param args
+	 * 	options such as '--model path' or '--model=path'
+	 * @return the options in the format of the macro
+	 */
+	static String toMacroOptions(String[] args) {
+		String options = "";
+		for (int i = 0; i < args.length; i ++) {
+			if (!args[i].startsWith("--"))
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			String key = args[i].substring(2);
+			String value;
+			if (key.contains("=")) {
+				value = key.substring(key.indexOf("=") + 1);
+				key = key.substring(0, key.indexOf("="));
+			} else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+				value = args[++ i];
+			} else {
+				value = "true";
+			}
+			key = key.replace("-", "_");
+			if (key.equals("model"))
+				key = macroKeys[0];
+			else if (key.equals("input"))
+				key = macroOptionalKeys[0];
+			else if (key.equals("output"))
+				key = macroOptionalKeys[1];
+			if (key.equals(macroOptionalKeys[2]))
+				throw new IllegalArgumentException("The outputs cannot be displayed in a headless run.");
+			if (!Arrays.asList(macroKeys).contains(key) && !Arrays.asList(macroOptionalKeys).contains(key))
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			options += key + "=[" + value + "] ";
+		}
+		return options.trim();
+	}
+	@Override
+	public void run(String arg) {
+	    boolean isMacro = IJ.isMacro();
+	    if (!isMacro) {
+	    	runGUI();
+	    } else if (isMacro && Macro.getOptions() != null) {
+	    	runMacro(Macro.getOptions());
+	    }
+	}
+	
+	private void runGUI() {
+		if (Recorder.record)
+			Recorder.recordString(MACRO_RECORD_COMMENT);
+		File modelsDir = new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models");
+		if (!modelsDir.isDirectory() && !modelsDir.mkdir())
+			throw new RuntimeException("Unable to create 'models' folder inside ImageJ/Fiji directory. Please create it yourself.");
+		SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+            	ij.plugin.frame.PlugInFrame frame = new ij.plugin.frame.PlugInFrame("deepImageJ " + deepimagej.Constants.DIJ_VERSION);
+            	Gui gui = new Gui(new ImageJGui());
+                gui.setPreferredSize(new Dimension(600, 700));
+    	    	Runnable callback = () -> frame.dispose();
+    	    	gui.setCancelCallback(callback);
+                frame.add(gui);
+                frame.pack();
+                frame.setLocationRelativeTo(null);
+                frame.setVisible(true);
+                frame.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosed(WindowEvent e) {
+                    	gui.onClose();
+                    }
+                });
+                }
+           });
+	}
+	
+	/**
+	 * Run a model once on the given inputs. The model is loaded and closed in every call, to run
+	 * the same model several times use {@link #openSession(String)} instead. The outputs are copied
+	 * before the model is closed, so they stay valid once the call returns.
+	 * @param model
+	 * 	path, folder name or nickname of the model
+	 * @param inputs
+	 * 	one image per input of the model
+	 * @param axesOrders
+	 * 	axes order of each of the inputs
+	 * @return the outputs of the model, images are returned in the ImageJ axes order
+	 */
+	public static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	List<RandomAccessibleInterval<R>> runModel(String model, List<RandomAccessibleInterval<T>> inputs, List<String> axesOrders) throws IOException, InterruptedException, LoadEngineException, RunModelException {
+		try (ModelSession session = openSession(model)) {
+			return ModelSession.copy(session.run(inputs, axesOrders));
+		} catch (LoadModelException e) {
+			throw new RuntimeException(Types.stackTrace(e));
+		}
+	}
+	
+	/**
+	 * Load a model so it can be run as many times as needed. The session needs to be closed
+	 * once the model is not needed anymore.
+	 * @param model
+	 * 	path, folder name or nickname of the model
+	 * @return the session with the model loaded
+	 */
+	public static ModelSession openSession(String model) throws IOException, InterruptedException, LoadEngineException, LoadModelException {
+		return ModelSession.open(identifyModel(model));
+	}
+	
+	/**
+	 * Macro example:
+	 * run("DeepImageJ Run", "modelPath=/path/to/model/LiveCellSegmentationBou 
+	 *  inputPath=/path/to/image/sample_input_0.tif 
+	 *  outputFolder=/path/to/ouput/folder
+	 *  display_output=all
+	 *  workers=4
+	 *  keep_loaded=true
+	 *  tile_size=512
+	 *  batch_size=8
+	 *  resume=true
+	 *  recursive_depth=3
+	 *  include=*.tif
+	 *  exclude=*_mask.tif
+	 *  output_format=zarr
+	 *  virtual_input=true
+	 *  run_log=/path/to/log.jsonl
+	 *  shard=0/4
+	 *  claim_folder=/shared/claims
+	 *  claim_lease=600
+	 *  memory_budget=4096
+	 *  output_dtype=auto
+	 *  compression=deflate
+	 *  stream_window=1
+	 *  write_queue=256")
+	 *  
+	 * The input can be an image or a folder of images, whose outputs are saved in the output folder
+	 * by a separate thread while the model keeps running. The options are described in the README.
+	 * 
+	 * @param macroArg
+	 * 	options of the macro
+	 * @return false if the model could not be found or read
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>>
+	boolean runMacro(String macroArg) {
+		if (flushCache(macroArg))
+			return true;
+		parseCommand(macroArg);
+		try {
+			modelFolder = identifyModel(modelArg);
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+
+		if (this.inputFolder != null && !(new File(this.inputFolder).exists()))
+			throw new IllegalArgumentException("The provided input folder does not exist: " + this.inputFolder);
+		if (this.outputFolder != null && !(new File(this.outputFolder).isDirectory()) && !(new File(outputFolder).mkdirs()))
+			throw new IllegalArgumentException("The provided output folder does not exist and cannot be created: " + this.inputFolder);
+		if (headless && this.inputFolder == null)
+			throw new IllegalArgumentException("A headless run requires the variable '" + macroOptionalKeys[0] + "'.");
+		if (headless) {
+			display = "none";
+			displayPeriod = 0;
+		}
+
+		ImageJGui adapter = new ImageJGui();
+
+		try {
+			loadDescriptor();
+		} catch (ModelSpecsException | IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		boolean isFolder = this.inputFolder != null && new File(this.inputFolder).isDirectory();
+		if (!isFolder && workers > 1)
+			System.err.println("[WARNING] The 'workers' option is only used when processing a folder, running with 1 worker.");
+		List<Runner> runners = new ArrayList<Runner>();
+		List<RunnerCache.Lease> leases = new ArrayList<RunnerCache.Lease>();
+		log = RunLog.open("DeepImageJ Run", runLog);
+		commits = new CommitQueue(writeQueue);
+		// The buffers kept for reuse are the outputs that have just been saved, as many as the write queue holds
+		pool = new BufferPool(writeQueue);
+		try {
+			String enginesDir = deepimagej.Constants.FIJI_FOLDER + File.separator + "engines";
+			for (int i = 0; i < (isFolder ? workers : 1); i ++) {
+				if (keepLoaded) {
+					RunnerCache.Lease lease = RunnerCache.acquire(model, enginesDir, i);
+					leases.add(lease);
+					runners.add(lease.getRunner());
+					continue;
+				}
+				Runner runner = Runner.create(model, enginesDir);
+				runners.add(runner);
+				runner.load(true);
+			}
+			if (this.inputFolder != null) {
+				executeOnPath(runners, adapter);
+			} else {
+				executeOnImagePlus(runners.get(0), adapter);
+			}
+			commits.close();
+		} catch (IOException | LoadModelException | RunModelException | LoadEngineException e) {
+			throw new RuntimeException(Types.stackTrace(e));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while saving the outputs.");
+		} finally {
+			commits.cancel();
+			log.close();
+			if (keepLoaded)
+				leases.stream().forEach(RunnerCache.Lease::close);
+			else
+				closeRunners(runners);
+		}
+		return true;
+	}
+	
+	/**
+	 * Close the models kept loaded by previous calls if the macro asks for it
+	 * @return whether there is nothing else to do apart from flushing
+	 */
+	private static boolean flushCache(String macroArg) {
+		String flush = parseArg(macroArg, macroOptionalKeys[5], false);
+		if (flush == null || !flush.toLowerCase().equals("true"))
+			return false;
+		RunnerCache.flush();
+		return parseArg(macroArg, macroKeys[0], false) == null;
+	}
+	
+	private static void closeRunners(List<Runner> runners) {
+		for (Runner runner : runners) {
+			try {
+				runner.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void loadDescriptor() throws FileNotFoundException, ModelSpecsException, IOException {
+		if (keepLoaded)
+			model = RunnerCache.getDescriptor(modelFolder);
+		else
+			model = ModelDescriptorFactory.readFromLocalFile(modelFolder + File.separator + Constants.RDF_FNAME);
+		if (model.getInputTensors().size() > 1)
+			throw new IllegalArgumentException("Selected model requires more than one input, currently only models with 1 input"
+					+ " are supported.");
+	}
+	
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void executeOnPath(List<Runner> runners, ImageJGui adapter) throws FileNotFoundException, RunModelException, IOException, InterruptedException {
+		File ff = new File(this.inputFolder);
+		if (ff.isDirectory())
+			this.executeOnFolder(model, runners, adapter);
+		else
+			this.executeOnFile(model, runners.get(0), adapter);
+	}
+	
+	/**
+	 * First stage of the execution on a file: read the image and convert it into the input tensors
+	 * @param root
+	 * 	input folder the file was found in, null if the input is the file itself. The outputs of the
+	 * 	files in subfolders are saved in the same subfolders of the output folder, so files with the
+	 * 	same name in different subfolders do not overwrite each other
+	 * @param claims
+	 * 	claims of the inputs of the folder, if any. The claim of a file that is not an image is released
+	 * @return the job or null if the file is not an image, in which case its record is finished as failed
+	 */
+	private static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	BatchJob<T, R> decode(File ff, String root, ModelDescriptor model, ImageJGui adapter, Boolean virtualInput, 
+			RunLog log, WorkClaims claims) {
+		RunLog.Record record = log.start(ff.getAbsolutePath());
+		long start = System.nanoTime();
+		boolean virtual = virtualInput != null ? virtualInput : ff.length() > getFreeMemory();
+		ImagePlus imp = virtual ? IJ.openVirtual(ff.getAbsolutePath()) : null;
+		if (imp == null)
+			imp = IJ.openImage(ff.getAbsolutePath());
+		if (imp == null) {
+			System.err.println("[WARNING] Skipping file that cannot be opened as an image: " + ff.getAbsolutePath());
+			record.stage("decode", start);
+			record.fail("The file cannot be opened as an image");
+			record.finish();
+			if (claims != null)
+				releaseClaim(claims, ff);
+			return null;
+		}
+		record.stage("decode", start);
+		record.read(ff.length());
+		start = System.nanoTime();
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put(model.getInputTensors().get(0).getName(), imp);
+		List<Tensor<T>> inputList = adapter.convertToInputTensors(map, model);
+		record.stage("convert", start);
+		BatchJob<T, R> job = new BatchJob<T, R>(Arrays.asList(ff), Arrays.asList(getTitle(ff, root, imp)), null, inputList);
+		job.virtual = imp.getStack().isVirtual();
+		job.record = record;
+		return job;
+	}
+	
+	private static void releaseClaim(WorkClaims claims, File ff) {
+		try {
+			claims.release(ff);
+		} catch (IOException ex) {
+			System.err.println("[WARNING] Unable to release the claim of " + ff.getAbsolutePath() + ": " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * @return the name of the image, preceded by the subfolders of the input folder that contain it
+	 */
+	private static String getTitle(File ff, String root, ImagePlus imp) {
+		if (root == null)
+			return imp.getShortTitle();
+		Path parent = new File(root).toPath().toAbsolutePath().normalize()
+				.relativize(ff.toPath().toAbsolutePath().normalize()).getParent();
+		return parent == null ? imp.getShortTitle() : parent.resolve(imp.getShortTitle()).toString();
+	}
+	
+	/**
+	 * Create the subfolders of the output folder where an output is saved
+	 */
+	private void createOutputFolder(String name) throws IOException {
+		File parent = new File(outputFolder, name).getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Unable to create the output folder: " + parent.getAbsolutePath());
+	}
+	
+	private static long getFreeMemory() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+	}
+	
+	/**
+	 * Second stage of the execution on a file: run the model on the input tensors
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void infer(BatchJob<T, R> job, Runner runner) throws RunModelException, IOException, InterruptedException {
+		try {
+			if (isStreamed(job.inputs, job.virtual, displayPeriod == 1)) {
+				runStreaming(runner, job.inputs, job.titles.get(0), job.record);
+				job.outputs = new ArrayList<Tensor<R>>();
+				return;
+			}
+			long start = System.nanoTime();
+			job.outputs = job.virtual ? runByFrames(runner, job.inputs) : runTensors(runner, job.inputs);
+			job.record.stage("infer", start);
+		} finally {
+			// The inputs stacked in buffers of the pool are not needed once the model has run
+			for (Tensor<T> tt : job.inputs)
+				pool.release(tt.getData());
+			job.inputs = null;
+		}
+	}
+	
+	/**
+	 * @return whether the outputs of the next image are displayed, one of every {@link #displayPeriod} images
+	 */
+	private boolean displayNext() {
+		return displayPeriod > 0 && results.getAndIncrement() % displayPeriod == 0;
+	}
+	
+	/**
+	 * @return whether the outputs of the input are produced and saved window by window along the batch axis
+	 */
+	private <T extends RealType<T> & NativeType<T>> boolean isStreamed(List<Tensor<T>> inputs, boolean virtual, boolean shown) {
+		if (outputFolder == null || shown || inputs.size() > 1 || (streamWindow <= 0 && !virtual) || !writer.appendsParts())
+			return false;
+		return inputs.get(0).getAxesOrderString().indexOf("b") != -1;
+	}
+	
+	/**
+	 * Run the model on windows of the batch axis of the input and save the outputs of each window as soon
+	 * as they are produced, so the memory used does not depend on the size of the batch axis. The parts
+	 * are appended by the writer thread, in the order they are produced
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void runStreaming(Runner runner, List<Tensor<T>> inputs, String title, RunLog.Record record) 
+			throws RunModelException, IOException, InterruptedException {
+		Tensor<T> input = inputs.get(0);
+		long size = input.getData().dimension(input.getAxesOrderString().indexOf("b"));
+		long window = streamWindow > 0 ? streamWindow : 1;
+		Map<String, OutputWriter.Appender<R>> appenders = new LinkedHashMap<String, OutputWriter.Appender<R>>();
+		// Buffers of the parts that the appenders keep until they are finished
+		Map<String, List<RandomAccessibleInterval<R>>> retained = new HashMap<String, List<RandomAccessibleInterval<R>>>();
+		// Buffers whose heap is still reserved in the memory budget, see #runTensors
+		List<RandomAccessibleInterval<R>> held = Collections.synchronizedList(new ArrayList<RandomAccessibleInterval<R>>());
+		try {
+			for (long i = 0; i < size; i += window) {
+				long start = System.nanoTime();
+				List<Tensor<R>> outs = runTensors(runner, Arrays.asList(BatchStacker.slice(input, i, Math.min(window, size - i))));
+				record.stage("infer", start);
+				for (Tensor<R> rr : outs)
+					held.add(rr.getData());
+				for (Tensor<R> rr : outs) {
+					OutputWriter.Appender<R> appender = appenders.get(rr.getName());
+					if (appender == null) {
+						createOutputFolder(title);
+						appender = writer.open(outputFolder, title + "_" + rr.getName(), rr.getAxesOrderString());
+						appenders.put(rr.getName(), appender);
+					}
+					RandomAccessibleInterval<R> data = narrowing.getPolicy(rr.getName()).equals(OutputNarrowing.AUTO) ?
+							rr.getData() : narrowing.apply(rr.getName(), rr.getData());
+					OutputWriter.Appender<R> part = appender;
+					boolean keep = part.retainsParts();
+					if (keep)
+						retained.computeIfAbsent(rr.getName(), k -> new ArrayList<RandomAccessibleInterval<R>>()).add(rr.getData());
+					commits.submit(CommitQueue.sizeOf(rr.getData()), () -> {
+						long began = System.nanoTime();
+						long written = part.append(data);
+						record.stage("write", began);
+						return written;
+					}, bytes -> {
+						record.written(bytes);
+						if (!keep)
+							releaseHeld(held, rr.getData());
+					});
+				}
+			}
+			for (Entry<String, OutputWriter.Appender<R>> ee : appenders.entrySet()) {
+				String name = title + "_" + ee.getKey();
+				long submitted = System.nanoTime();
+				commits.submit(0, () -> {
+					long written = ee.getValue().finish();
+					writer.sync(outputFolder, name);
+					return written;
+				}, bytes -> {
+					record.written(bytes);
+					record.stage("commit", submitted);
+					for (RandomAccessibleInterval<R> buffer : retained.getOrDefault(ee.getKey(), new ArrayList<RandomAccessibleInterval<R>>()))
+						releaseHeld(held, buffer);
+				});
+			}
+			commits.flush();
+		} finally {
+			// The appenders cannot be closed while the writer thread uses them
+			commits.awaitIdle();
+			for (OutputWriter.Appender<R> appender : appenders.values())
+				appender.close();
+			// Parts whose write failed, or that were retained by an appender that was not finished
+			for (RandomAccessibleInterval<R> buffer : new ArrayList<RandomAccessibleInterval<R>>(held))
+				releaseHeld(held, buffer);
+		}
+	}
+	
+	/**
+	 * Return to the memory budget and to the pool a buffer of {@link #runStreaming}, once
+	 */
+	private <R extends RealType<R> & NativeType<R>> void releaseHeld(List<RandomAccessibleInterval<R>> held, RandomAccessibleInterval<R> buffer) {
+		if (held.remove(buffer)) {
+			budget.releaseHeap(CommitQueue.sizeOf(buffer));
+			pool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Run the model once for each element of the batch axis of the input, so only the data of that
+	 * element needs to be read from a virtual stack. The outputs of every element are kept in memory and
+	 * concatenated, so this is only used when the outputs are displayed or not saved, see {@link #runStreaming}
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	List<Tensor<R>> runByFrames(Runner runner, List<Tensor<T>> inputs) throws RunModelException {
+		Tensor<T> input = inputs.get(0);
+		int bInd = input.getAxesOrderString().indexOf("b");
+		if (inputs.size() > 1 || bInd == -1 || input.getData().dimension(bInd) == 1)
+			return runTensors(runner, inputs);
+		List<List<Tensor<R>>> results = new ArrayList<List<Tensor<R>>>();
+		for (long i = 0; i < input.getData().dimension(bInd); i ++)
+			results.add(runTensors(runner, Arrays.asList(BatchStacker.slice(input, i, 1))));
+		return BatchStacker.concatenate(results);
+	}
+	
+	/**
+	 * Run the model within the memory budget. The heap of the outputs stays reserved once the model has
+	 * run, and is returned with {@link #releaseOutputs} when the outputs are saved or discarded
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	List<Tensor<R>> runTensors(Runner runner, List<Tensor<T>> inputs) throws RunModelException {
+		long tile = tileSize;
+		MemoryBudget.Estimate estimate = tile > 0 ? MemoryBudget.estimateTiled(model, inputs.get(0), tile) : MemoryBudget.estimate(model, inputs);
+		if (!budget.fits(estimate) && tile <= 0 && TiledRunner.supports(model)) {
+			tile = MemoryBudget.fitTileSize(model, inputs.get(0), budget);
+			if (tile > 0)
+				estimate = MemoryBudget.estimateTiled(model, inputs.get(0), tile);
+		}
+		if (!budget.fits(estimate))
+			throw new IllegalArgumentException(String.format("Running the model on '%s' needs about %s, more than the memory "
+					+ "budget of %s MB of heap and %s MB for the engine. Use a smaller '%s' or a bigger '%s'.", inputs.get(0).getName(), 
+					estimate, budget.getHeapCapacity() / (1024 * 1024), budget.getEngineCapacity() / (1024 * 1024), 
+					macroOptionalKeys[6], macroOptionalKeys[18]));
+		try {
+			budget.acquire(estimate);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for memory to run the model.");
+		}
+		List<Tensor<R>> outs = null;
+		try {
+			outs = tile > 0 ? TiledRunner.run(runner, model, inputs.get(0), tile, pool) : runner.run(inputs);
+			return outs;
+		} finally {
+			budget.keep(estimate, outs == null ? 0 : sizeOf(outs));
+		}
+	}
+	
+	/**
+	 * @return a callback that returns to the memory budget the heap held by the outputs, see {@link #runTensors},
+	 * 	before running the action
+	 */
+	private <R extends RealType<R> & NativeType<R>> 
+	CommitQueue.Callback releaseOutputs(List<Tensor<R>> outputs, CommitQueue.Callback done) {
+		long bytes = sizeOf(outputs);
+		return written -> {
+			budget.releaseHeap(bytes);
+			done.committed(written);
+		};
+	}
+	
+	private static <R extends RealType<R> & NativeType<R>> long sizeOf(List<Tensor<R>> tensors) {
+		long bytes = 0;
+		for (Tensor<R> tt : tensors)
+			bytes += CommitQueue.sizeOf(tt.getData());
+		return bytes;
+	}
+	
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void executeOnFile(ModelDescriptor model, Runner runner, ImageJGui adapter) 
+			throws FileNotFoundException, RunModelException, IOException, InterruptedException {
+		File ff = new File(this.inputFolder);
+		log.setTotal(1);
+		BatchJob<T, R> job = decode(ff, null, model, adapter, virtualInput, log, null);
+		if (job == null)
+			throw new IllegalArgumentException("Unable to open the image: " + ff.getAbsolutePath());
+		infer(job, runner);
+		commit(job, bytes -> job.record.finish());
+	}
+	
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void executeOnFolder(ModelDescriptor model, List<Runner> runners, ImageJGui adapter) 
+			throws FileNotFoundException, RunModelException, IOException {
+		List<BatchPipeline.Stage<BatchJob<T, R>>> inference = new ArrayList<BatchPipeline.Stage<BatchJob<T, R>>>();
+		for (Runner runner : runners)
+			inference.add(job -> infer(job, runner));
+		InputWalker walker = createWalker();
+		// The manifest is written by a single execution, with claims the done markers record the processed files
+		try (ProcessedManifest manifest = resume && claimFolder == null ? ProcessedManifest.open(outputFolder, modelFolder) : null;
+				WorkClaims claims = claimFolder != null ? WorkClaims.open(claimFolder, inputFolder, claimLease) : null;
+				Stream<File> inputs = walker.walk()) {
+			// With claims, the files left to other processes are not known
+			if (claims == null)
+				countInputs(manifest);
+			Iterator<File> files = inputs.filter(ff -> manifest == null || !manifest.isDone(ff))
+					.filter(ff -> claims == null || claims.tryClaim(ff)).iterator();
+			BatchPipeline<BatchJob<T, R>> pipeline = new BatchPipeline<BatchJob<T, R>>(
+					batchSize > 1 ? createBatchDecoder(model, adapter, claims) : ff -> decode(ff, inputFolder, model, adapter, virtualInput, log, claims),
+					inference,
+					job -> commit(job, bytes -> {
+						if (manifest != null) {
+							for (File ff : job.files)
+								manifest.markDone(ff);
+						}
+						if (claims != null) {
+							for (File ff : job.files)
+								claims.markDone(ff);
+						}
+						job.record.finish();
+					}));
+			try {
+				pipeline.run(files);
+				commits.flush();
+			} finally {
+				// The manifest and the claims cannot be closed while the writer thread records the files
+				commits.awaitIdle();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Execution on folder interrupted: " + this.inputFolder);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RunModelException)
+				throw (RunModelException) e.getCause();
+			else if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			else if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(Types.stackTrace(e.getCause()));
+		}
+	}
+	
+	private InputWalker createWalker() {
+		return new InputWalker(inputFolder).setMaxDepth(depth)
+				.setInclude(include).setExclude(exclude).setSkipFolder(outputFolder).setShard(shardIndex, shardCount);
+	}
+	
+	/**
+	 * Count the files of the folder that this execution processes in the background, so the files are 
+	 * processed while the folder is explored, and set the count as the total of the run log
+	 */
+	private void countInputs(ProcessedManifest manifest) {
+		Thread counter = new Thread(() -> {
+			try (Stream<File> inputs = createWalker().walk()) {
+				log.setTotal(inputs.filter(ff -> manifest == null || !manifest.isDone(ff)).count());
+			} catch (IOException | UncheckedIOException ex) {
+				System.err.println("[WARNING] Unable to count the input files: " + ex.getMessage());
+			}
+		}, "deepimagej-count");
+		counter.setDaemon(true);
+		counter.start();
+	}
+	
+	/**
+	 * Decoder that groups the images with the same shape and data type until the batch is complete
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	BatchPipeline.Decoder<BatchJob<T, R>> createBatchDecoder(ModelDescriptor model, ImageJGui adapter, WorkClaims claims) {
+		// At most a few batches of images wait for images of the same shape, within half of the heap budget
+		BatchStacker<T> stacker = new BatchStacker<T>(batchSize, 4 * batchSize, budget.getHeapCapacity() / 2);
+		Map<File, RunLog.Record> records = new HashMap<File, RunLog.Record>();
+		return new BatchPipeline.Decoder<BatchJob<T, R>>() {
+
+			@Override
+			public BatchJob<T, R> decode(File file) {
+				BatchJob<T, R> job = DeepImageJ_Run.decode(file, inputFolder, model, adapter, virtualInput, log, claims);
+				if (job == null || job.virtual || streamWindow > 0)
+					return job;
+				records.put(file, job.record);
+				BatchStacker.Group<T> group = stacker.add(file, job.titles.get(0), job.inputs);
+				return group == null ? null : createJob(group);
+			}
+			
+			@Override
+			public List<BatchJob<T, R>> flush() {
+				List<BatchJob<T, R>> jobs = new ArrayList<BatchJob<T, R>>();
+				for (BatchStacker.Group<T> group : stacker.flush())
+					jobs.add(createJob(group));
+				return jobs;
+			}
+			
+			private BatchJob<T, R> createJob(BatchStacker.Group<T> group) {
+				List<RunLog.Record> groupRecords = new ArrayList<RunLog.Record>();
+				for (File ff : group.getFiles())
+					groupRecords.add(records.remove(ff));
+				RunLog.Record record = log.merge(groupRecords);
+				long start = System.nanoTime();
+				BatchJob<T, R> job = new BatchJob<T, R>(group.getFiles(), group.getTitles(), group.getSizes(), group.stack(pool));
+				record.stage("stack", start);
+				job.record = record;
+				return job;
+			}
+		};
+	}
+	
+	/**
+	 * Last stage of the execution on a file: display the outputs of each image of the job and queue them
+	 * to be saved
+	 * @param done
+	 * 	action run by the writer thread once all the outputs of the job are saved
+	 */
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void commit(BatchJob<T, R> job, CommitQueue.Callback done) throws IOException, InterruptedException {
+		boolean[] shown = new boolean[job.titles.size()];
+		boolean kept = false;
+		for (int i = 0; i < shown.length; i ++) {
+			shown[i] = job.outputs.size() > 0 && displayNext();
+			kept = kept || shown[i];
+		}
+		done = releaseOutputs(job.outputs, done);
+		// Displayed outputs are wrapped without copying them, so their buffers cannot be reused
+		if (!kept)
+			done = recycle(job.outputs, done);
+		else
+			detach(job.outputs);
+		if (this.outputFolder == null || job.outputs.size() == 0)
+			done.committed(0);
+		else
+			done = CommitQueue.countDown(job.titles.size() * job.outputs.size(), done);
+		long offset = 0;
+		for (int i = 0; i < job.titles.size(); i ++) {
+			for (Tensor<R> rr : job.outputs) {
+				if (job.sizes != null)
+					rr = BatchStacker.slice(rr, offset, job.sizes.get(i));
+				String title = job.titles.get(i) + "_" + rr.getName();
+				if (this.outputFolder != null)
+					save(title, rr, job.record, done);
+				if (shown[i]) {
+					long start = System.nanoTime();
+					ImagePlus im = ImPlusRaiManager.convert(rr.getData(), rr.getAxesOrderString());
+					im.setTitle(title);
+					SwingUtilities.invokeLater(() -> im.show());
+					job.record.stage("wrap", start);
+				}
+			}
+			offset += job.sizes == null ? 0 : job.sizes.get(i);
+		}
+	}
+	
+	/**
+	 * @return a callback that gives the buffers of the outputs back to the pool before running the action
+	 */
+	private <R extends RealType<R> & NativeType<R>> 
+	CommitQueue.Callback recycle(List<Tensor<R>> outputs, CommitQueue.Callback done) {
+		return bytes -> {
+			for (Tensor<R> rr : outputs)
+				pool.release(rr.getData());
+			done.committed(bytes);
+		};
+	}
+	
+	/**
+	 * Stop tracking in the pool the buffers of outputs that are displayed, so they are only kept by their images
+	 */
+	private <R extends RealType<R> & NativeType<R>> void detach(List<Tensor<R>> outputs) {
+		for (Tensor<R> rr : outputs)
+			pool.detach(rr.getData());
+	}
+	
+	/**
+	 * Queue an output to be saved and synchronized to disk. The time from the submission until the output
+	 * is on disk is recorded as the stage "commit"
+	 */
+	private <R extends RealType<R> & NativeType<R>> 
+	void save(String title, Tensor<R> rr, RunLog.Record record, CommitQueue.Callback done) throws IOException, InterruptedException {
+		RandomAccessibleInterval<R> data = narrowing.apply(rr.getName(), rr.getData());
+		String axes = rr.getAxesOrderString();
+		long submitted = System.nanoTime();
+		commits.submit(CommitQueue.sizeOf(rr.getData()), () -> {
+			long start = System.nanoTime();
+			createOutputFolder(title);
+			long written = writer.write(this.outputFolder, title, data, axes);
+			record.stage("write", start);
+			writer.sync(this.outputFolder, title);
+			return written;
+		}, bytes -> {
+			record.written(bytes);
+			record.stage("commit", submitted);
+			done.committed(bytes);
+		});
+	}
+	
+	private <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	void executeOnImagePlus(Runner runner, ImageJGui adapter) 
+			throws FileNotFoundException, RunModelException, IOException, InterruptedException {
+		ImagePlus imp = WindowManager.getCurrentImage();
+		log.setTotal(1);
+		RunLog.Record record = log.start(imp.getTitle());
+		long start = System.nanoTime();
+		Map<String, Object> inputMap = new HashMap<String, Object>();
+		inputMap.put(model.getInputTensors().get(0).getName(), imp);
+		List<Tensor<T>> inputList = adapter.convertToInputTensors(inputMap, model);
+		record.stage("convert", start);
+		boolean shown = display == null || displayNext();
+		if (isStreamed(inputList, imp.getStack().isVirtual(), shown)) {
+			runStreaming(runner, inputList, imp.getShortTitle(), record);
+			record.finish();
+			return;
+		}
+		start = System.nanoTime();
+		List<Tensor<R>> res = imp.getStack().isVirtual() ? runByFrames(runner, inputList) : runTensors(runner, inputList);
+		record.stage("infer", start);
+		CommitQueue.Callback done = releaseOutputs(res, bytes -> record.finish());
+		if (!shown)
+			done = recycle(res, done);
+		else
+			detach(res);
+		if (this.outputFolder == null || res.size() == 0)
+			done.committed(0);
+		else
+			done = CommitQueue.countDown(res.size(), done);
+		for (Tensor<R> rr : res) {
+			String title = imp.getShortTitle() + "_" + rr.getName();
+			if (shown) {
+				start = System.nanoTime();
+				ImagePlus im = ImPlusRaiManager.convert(rr.getData(), rr.getAxesOrderString());
+				im.setTitle(title);
+				im.getProcessor().resetMinAndMax();
+				SwingUtilities.invokeLater(() -> im.show());
+				record.stage("wrap", start);
+			}
+			if (this.outputFolder != null)
+				save(title, rr, record, done);
+		}
+	}
+
+	
+	private void parseCommand(String macroArg) {
+		if (Platform.isWindows() && !headless)
+			System.err.println("[WARNING] On Windows, you must use double "
+					+ "backslashes ('\\\\') in file and folder paths. "
+					+ "For example: C:\\\\path\\\\to\\\\modelFolder");
+
+		// macroArg = "modelPath=NucleiSegmentationBoundaryModel";
+		// macroArg = "modelPath=NucleiSegmentationBoundaryModel outputFolder=null";
+		// macroArg = "modelPath=[StarDist H&E Nuclei Segmentation] inputPath=null outputFolder=null";
+
+		modelArg = parseArg(macroArg, macroKeys[0], true);
+		inputFolder = parseArg(macroArg, macroOptionalKeys[0], false);
+		outputFolder = parseArg(macroArg, macroOptionalKeys[1], false);
+		display = parseArg(macroArg, macroOptionalKeys[2], false);
+		if (display != null && display.toLowerCase().equals("all")) {
+			displayPeriod = 1;
+		} else if (display != null) {
+			try {
+				displayPeriod = Long.parseLong(display.trim());
+			} catch (NumberFormatException ex) {
+				displayPeriod = 0;
+			}
+			if (displayPeriod < 0)
+				throw new IllegalArgumentException("The number of '" + macroOptionalKeys[2] + "' cannot be negative: " + display);
+		}
+		String workersStr = parseArg(macroArg, macroOptionalKeys[3], false);
+		if (workersStr != null) {
+			try {
+				workers = Integer.parseInt(workersStr);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The number of workers needs to be an integer: " + workersStr);
+			}
+			if (workers < 1)
+				throw new IllegalArgumentException("The number of workers needs to be at least 1: " + workersStr);
+		}
+		String keepLoadedStr = parseArg(macroArg, macroOptionalKeys[4], false);
+		keepLoaded = keepLoadedStr != null && keepLoadedStr.toLowerCase().equals("true");
+		String tileSizeStr = parseArg(macroArg, macroOptionalKeys[6], false);
+		if (tileSizeStr != null) {
+			try {
+				tileSize = Long.parseLong(tileSizeStr);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The tile size needs to be an integer: " + tileSizeStr);
+			}
+		}
+		String batchSizeStr = parseArg(macroArg, macroOptionalKeys[7], false);
+		if (batchSizeStr != null) {
+			try {
+				batchSize = Integer.parseInt(batchSizeStr);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The batch size needs to be an integer: " + batchSizeStr);
+			}
+			if (batchSize < 1)
+				throw new IllegalArgumentException("The batch size needs to be at least 1: " + batchSizeStr);
+		}
+		String resumeStr = parseArg(macroArg, macroOptionalKeys[8], false);
+		resume = resumeStr != null && resumeStr.toLowerCase().equals("true");
+		if (resume && outputFolder == null)
+			throw new IllegalArgumentException("Resuming an execution requires the variable '" + macroOptionalKeys[1] + "', "
+					+ "the processed images are recorded in the output folder.");
+		String depthStr = parseArg(macroArg, macroOptionalKeys[9], false);
+		if (depthStr != null) {
+			try {
+				depth = Integer.parseInt(depthStr);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The recursive depth needs to be an integer: " + depthStr);
+			}
+			if (depth < 1)
+				throw new IllegalArgumentException("The recursive depth needs to be at least 1: " + depthStr);
+		}
+		include = parseArg(macroArg, macroOptionalKeys[10], false);
+		exclude = parseArg(macroArg, macroOptionalKeys[11], false);
+		String format = parseArg(macroArg, macroOptionalKeys[12], false);
+		if (format != null && !Arrays.asList(OutputWriter.FORMATS).contains(format.toLowerCase()))
+			throw new IllegalArgumentException("Unsupported output format: " + format + ", the supported formats are: "
+					+ Arrays.toString(OutputWriter.FORMATS));
+		String compression = parseArg(macroArg, macroOptionalKeys[20], false);
+		writer = OutputWriter.create(format == null ? null : format.toLowerCase(), compression == null ? null : compression.toLowerCase());
+		narrowing = OutputNarrowing.parse(parseArg(macroArg, macroOptionalKeys[19], false));
+		String windowStr = parseArg(macroArg, macroOptionalKeys[21], false);
+		if (windowStr != null) {
+			try {
+				streamWindow = Long.parseLong(windowStr);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The stream window needs to be an integer: " + windowStr);
+			}
+			if (streamWindow < 1)
+				throw new IllegalArgumentException("The stream window needs to be at least 1: " + windowStr);
+			if (outputFolder == null)
+				throw new IllegalArgumentException("Streaming the outputs requires the variable '" + macroOptionalKeys[1] + "'.");
+			if (!writer.appendsParts())
+				throw new IllegalArgumentException("The outputs of the format '" + format + "' cannot be saved window by window, "
+						+ "remove the variable '" + macroOptionalKeys[21] + "'.");
+		}
+		String queueStr = parseArg(macroArg, macroOptionalKeys[22], false);
+		if (queueStr != null) {
+			try {
+				writeQueue = (long) (Double.parseDouble(queueStr) * 1024 * 1024);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The write queue needs to be a number of MB: " + queueStr);
+			}
+			if (writeQueue < 0)
+				throw new IllegalArgumentException("The write queue cannot be negative: " + queueStr);
+		}
+		String virtualStr = parseArg(macroArg, macroOptionalKeys[13], false);
+		virtualInput = virtualStr == null ? null : virtualStr.toLowerCase().equals("true");
+		runLog = parseArg(macroArg, macroOptionalKeys[14], false);
+		if (runLog == null && outputFolder != null)
+			runLog = outputFolder + File.separator + RUN_LOG_NAME;
+		else if (runLog == null)
+			runLog = System.getProperty(RunLog.LOG_PROP);
+		String shardStr = parseArg(macroArg, macroOptionalKeys[15], false);
+		if (shardStr != null) {
+			String[] parts = shardStr.split("/");
+			try {
+				shardIndex = Integer.parseInt(parts[0].trim());
+				shardCount = Integer.parseInt(parts[1].trim());
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+				throw new IllegalArgumentException("The shard needs to have the format 'i/n': " + shardStr);
+			}
+			if (parts.length != 2 || shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount)
+				throw new IllegalArgumentException("The shard needs to have the format 'i/n' with 0 <= i < n: " + shardStr);
+		}
+		String budgetStr = parseArg(macroArg, macroOptionalKeys[18], false);
+		if (budgetStr == null) {
+			budget = MemoryBudget.createDefault();
+		} else {
+			try {
+				String[] parts = budgetStr.split(",");
+				long heap = (long) (Double.parseDouble(parts[0].trim()) * 1024 * 1024);
+				long engine = parts.length > 1 ? (long) (Double.parseDouble(parts[1].trim()) * 1024 * 1024) : heap;
+				if (parts.length > 2)
+					throw new NumberFormatException();
+				budget = new MemoryBudget(heap, engine);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The memory budget needs to be a number of MB, or the MB of heap and the MB"
+						+ " for the engine separated by a comma: " + budgetStr);
+			}
+		}
+		claimFolder = parseArg(macroArg, macroOptionalKeys[16], false);
+		if (claimFolder != null && claimFolder.toLowerCase().equals("true") && outputFolder == null)
+			throw new IllegalArgumentException("The default claim folder is in the output folder, it requires the variable '"
+					+ macroOptionalKeys[1] + "'.");
+		else if (claimFolder != null && claimFolder.toLowerCase().equals("true"))
+			claimFolder = outputFolder + File.separator + WorkClaims.FOLDER_NAME;
+		String leaseStr = parseArg(macroArg, macroOptionalKeys[17], false);
+		if (leaseStr != null) {
+			try {
+				claimLease = (long) (Double.parseDouble(leaseStr) * 1000);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("The claim lease needs to be a number of seconds: " + leaseStr);
+			}
+			if (claimLease <= 0)
+				throw new IllegalArgumentException("The claim lease needs to be positive: " + leaseStr);
+		}
+	}
+	
+	static String identifyModel(String modelArg) throws IOException, InterruptedException {
+
+		if ((new File(modelArg).isAbsolute()))
+			return modelArg;
+		else if (new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models", modelArg).isDirectory())
+			return new File(deepimagej.Constants.FIJI_FOLDER + File.separator + "models", modelArg).getAbsolutePath();
+		else {
+			LocalModelIndex.Entry localModel = LocalModelIndex.findByNickname(deepimagej.Constants.FIJI_FOLDER + File.separator + "models", modelArg);
+			if (localModel != null) {
+				return localModel.getPath();
+			}
+			System.err.println("Looking for the model in the Bioimage.io repo: " + modelArg);
+			String rdfSource = CatalogCache.getDefault().findSource(modelArg);
+			if (rdfSource == null)
+				throw new IllegalArgumentException("Model '" + modelArg + "' not found either locally or on the Bioimage.io repo.");
+			Consumer<Double> cons = (d) -> {
+				System.out.println(String.format("Downloading %s: %.2f%%", modelArg, d * 100));
+			};
+			try {
+				return CatalogCache.download(rdfSource, deepimagej.Constants.FIJI_FOLDER + File.separator + "models", cons);
+			} catch (IOException | RuntimeException ex) {
+				throw new IOException("Unable to download the model '" + modelArg + "' from " + rdfSource + ": " + ex.getMessage(), ex);
+			}
+		}
+	}
+	
+	private static String parseArg(String macroArg, String arg, boolean required) {
+		String value = Macro.getValue(macroArg, arg, null);
+		if (value != null && value.equals(""))
+			value = null;
+		if (value != null && value.equals("null"))
+			value = null;
+		if (value == null && required)
+			throw new IllegalArgumentException("DeepImageJ Run macro requires to the variable '" + arg + "'. "
+					+ "For more info, please visit: " + DeepImageJ_Run.MACRO_INFO);
+		return value;
+	}
+
+	/**
+	 * Data of a single image while it goes through the stages of the execution
+	 */
+	private static class BatchJob<T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> {
+		
+		private final List<File> files;
+		
+		private final List<String> titles;
+		
+		/**
+		 * Size of each image along the batch axis when several images are stacked, null otherwise
+		 */
+		private final List<Long> sizes;
+		
+		private List<Tensor<T>> inputs;
+		
+		private List<Tensor<R>> outputs;
+		
+		/**
+		 * Whether the input is a virtual stack, read from disk as it is used
+		 */
+		private boolean virtual = false;
+		
+		private RunLog.Record record;
+		
+		private BatchJob(List<File> files, List<String> titles, List<Long> sizes, List<Tensor<T>> inputs) {
+			this.files = files;
+			this.titles = titles;
+			this.sizes = sizes;
+			this.inputs = inputs;
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Three stage pipeline used to process a batch of images. Images are decoded on one
+ * thread, run through the model on the calling thread and committed to disk on a third
+ * one. The stages are connected by bounded queues, so while image N is being run,
+ * image N+1 is decoded and the outputs of image N-1 are written.
+ * If several inference stages are provided (one per loaded model), each of them runs on its
+ * own thread and takes the next decoded image as soon as it is free, so faster workers
+ * end up processing more images.
+ * 
+ * @author Carlos Garcia
+ *
+ * @param <J>
+ * 	object that travels through the stages, holding the data of a single image
+ */
+public class BatchPipeline<J> {
+	
+	private final Decoder<J> decoder;
+	
+	private final List<Stage<J>> inference;
+	
+	private final Stage<J> writer;
+	
+	private final int capacity;
+	
+	private volatile Throwable failure;
+	
+	private static final Object END = new Object();
+	
+	/**
+	 * Default number of images that can be waiting between two stages
+	 */
+	public static final int DEFAULT_CAPACITY = 2;
+	
+	public interface Decoder<J> {
+		/**
+		 * Read the file and create the job that will go through the pipeline
+		 * @param file
+		 * 	the file to be read
+		 * @return the job or null if the file has to be skipped
+		 * @throws Exception if there is any error reading the file
+		 */
+		J decode(File file) throws Exception;
+		
+		/**
+		 * Called once every file has been decoded, for decoders that keep jobs
+		 * waiting for more files
+		 * @return the jobs that are still waiting
+		 * @throws Exception if there is any error creating the jobs
+		 */
+		default List<J> flush() throws Exception {
+			return Collections.emptyList();
+		}
+	}
+	
+	public interface Stage<J> {
+		void process(J job) throws Exception;
+	}
+	
+	public BatchPipeline(Decoder<J> decoder, Stage<J> inference, Stage<J> writer) {
+		this(decoder, Collections.singletonList(inference), writer, DEFAULT_CAPACITY);
+	}
+	
+	public BatchPipeline(Decoder<J> decoder, List<Stage<J>> inference, Stage<J> writer) {
+		this(decoder, inference, writer, DEFAULT_CAPACITY);
+	}
+	
+	public BatchPipeline(Decoder<J> decoder, List<Stage<J>> inference, Stage<J> writer, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity of the queues between stages needs to be at least 1.");
+		if (inference.size() == 0)
+			throw new IllegalArgumentException("At least one inference stage is needed.");
+		this.decoder = decoder;
+		this.inference = inference;
+		this.writer = writer;
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Process every file provided by the iterator. The method returns once every
+	 * job has been committed by the writer stage.
+	 * @param files
+	 * 	iterator over the files that need to be processed
+	 * @throws ExecutionException if any of the stages fails, the cause is the original exception
+	 * @throws InterruptedException if the thread is interrupted while waiting for the stages
+	 */
+	public void run(Iterator<File> files) throws ExecutionException, InterruptedException {
+		failure = null;
+		int queueSize = Math.max(capacity, inference.size());
+		BlockingQueue<Object> decoded = new ArrayBlockingQueue<Object>(queueSize);
+		BlockingQueue<Object> processed = new ArrayBlockingQueue<Object>(queueSize);
+		
+		Thread decodeThread = new Thread(() -> {
+			try {
+				while (failure == null && files.hasNext()) {
+					J job = decoder.decode(files.next());
+					if (job != null)
+						decoded.put(job);
+				}
+				if (failure == null) {
+					for (J job : decoder.flush())
+						decoded.put(job);
+				}
+			} catch (Throwable ex) {
+				fail(ex);
+			} finally {
+				if (failure != null)
+					decoded.clear();
+				putQuietly(decoded, END);
+			}
+		}, "deepimagej-decode");
+		Thread writeThread = new Thread(() -> consume(processed, writer, null), "deepimagej-write");
+		decodeThread.setDaemon(true);
+		writeThread.setDaemon(true);
+		decodeThread.start();
+		writeThread.start();
+		
+		try {
+			if (inference.size() == 1)
+				consume(decoded, inference.get(0), processed);
+			else
+				runWorkers(decoded, processed);
+		} finally {
+			putQuietly(processed, END);
+			if (failure != null)
+				decodeThread.interrupt();
+		}
+		try {
+			writeThread.join();
+			decodeThread.join();
+		} catch (InterruptedException ex) {
+			decodeThread.interrupt();
+			writeThread.interrupt();
+			throw ex;
+		}
+		if (failure != null)
+			throw new ExecutionException(failure);
+	}
+	
+	private void runWorkers(BlockingQueue<Object> decoded, BlockingQueue<Object> processed) throws InterruptedException {
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < inference.size(); i ++) {
+			Stage<J> stage = inference.get(i);
+			Thread worker = new Thread(() -> consume(decoded, stage, processed), "deepimagej-inference-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			workers.add(worker);
+		}
+		try {
+			for (Thread worker : workers)
+				worker.join();
+		} catch (InterruptedException ex) {
+			workers.stream().forEach(Thread::interrupt);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Take jobs from the queue until the end mark arrives. The end mark is put back
+	 * so the rest of consumers sharing the queue also stop. Once a stage has failed, the
+	 * remaining jobs are only drained so the stages upstream do not block.
+	 */
+	@SuppressWarnings("unchecked")
+	private void consume(BlockingQueue<Object> queue, Stage<J> stage, BlockingQueue<Object> next) {
+		while (true) {
+			Object item;
+			try {
+				item = queue.take();
+			} catch (InterruptedException ex) {
+				fail(ex);
+				return;
+			}
+			if (item == END) {
+				putQuietly(queue, END);
+				return;
+			}
+			if (failure != null)
+				continue;
+			try {
+				stage.process((J) item);
+				if (next != null)
+					next.put(item);
+			} catch (Throwable ex) {
+				fail(ex);
+			}
+		}
+	}
+	
+	private synchronized void fail(Throwable ex) {
+		if (failure == null)
+			failure = ex;
+	}
+	
+	private static void putQuietly(BlockingQueue<Object> queue, Object item) {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
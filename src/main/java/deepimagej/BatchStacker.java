@@ -0,0 +1,299 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import deepimagej.io.CommitQueue;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Groups the input tensors of several images with the same shape and data type and stacks
+ * them along the batch axis ('b'), so the model can process all of them in a single call.
+ * The outputs of the model are then split back per image with {@link #slice(Tensor, long, long)}.
+ * 
+ * Images of shapes that seldom repeat would wait until the end of the run, so the number of images 
+ * and the bytes waiting in all the groups can be limited: once a limit is passed, the biggest group
+ * is released before it is complete.
+ * 
+ * @author Carlos Garcia
+ *
+ * @param <T>
+ * 	data type of the input tensors
+ */
+public class BatchStacker<T extends RealType<T> & NativeType<T>> {
+	
+	private final int batchSize;
+	
+	private final int maxImages;
+	
+	private final long maxBytes;
+	
+	private final Map<String, Group<T>> pending = new LinkedHashMap<String, Group<T>>();
+	
+	private int pendingImages = 0;
+	
+	private long pendingBytes = 0;
+	
+	/**
+	 * Images that have been stacked together
+	 */
+	public static class Group<T extends RealType<T> & NativeType<T>> {
+		
+		private final List<File> files = new ArrayList<File>();
+		
+		private final List<String> titles = new ArrayList<String>();
+		
+		private final List<Long> sizes = new ArrayList<Long>();
+		
+		private final List<List<Tensor<T>>> inputs = new ArrayList<List<Tensor<T>>>();
+		
+		private long bytes = 0;
+		
+		/**
+		 * @return the file of each of the images of the group
+		 */
+		public List<File> getFiles() {
+			return files;
+		}
+		
+		/**
+		 * @return the name of each of the images of the group
+		 */
+		public List<String> getTitles() {
+			return titles;
+		}
+		
+		/**
+		 * @return the size along the batch axis of each of the images of the group
+		 */
+		public List<Long> getSizes() {
+			return sizes;
+		}
+		
+		/**
+		 * @return the input tensors of the images of the group concatenated along the batch axis
+		 */
+		public List<Tensor<T>> stack() {
+			return concatenate(inputs);
+		}
+		
+		/**
+		 * Copy the input tensors of the images of the group into buffers of a pool, so the engine reads
+		 * contiguous images instead of views of every image. The buffers are given back to the pool once
+		 * the model has run. A group with a single image is not copied
+		 * @param pool
+		 * 	pool the buffers are taken from
+		 * @return the input tensors of the images of the group concatenated along the batch axis
+		 */
+		public List<Tensor<T>> stack(BufferPool pool) {
+			List<Tensor<T>> stacked = stack();
+			if (inputs.size() == 1)
+				return stacked;
+			List<Tensor<T>> copies = new ArrayList<Tensor<T>>();
+			for (Tensor<T> tt : stacked) {
+				RandomAccessibleInterval<T> view = Views.zeroMin(tt.getData());
+				Img<T> buffer = pool.acquire(Util.getTypeFromInterval(view).createVariable(), view.dimensionsAsLongArray());
+				LoopBuilder.setImages(view, buffer).forEachPixel((s, d) -> d.set(s));
+				copies.add(pool.tensor(tt.getName(), tt.getAxesOrderString(), buffer));
+			}
+			return copies;
+		}
+	}
+	
+	/**
+	 * @param batchSize
+	 * 	number of images of a complete group
+	 */
+	public BatchStacker(int batchSize) {
+		this(batchSize, Integer.MAX_VALUE, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @param batchSize
+	 * 	number of images of a complete group
+	 * @param maxImages
+	 * 	maximum number of images waiting in all the groups
+	 * @param maxBytes
+	 * 	maximum bytes of the inputs waiting in all the groups
+	 */
+	public BatchStacker(int batchSize, int maxImages, long maxBytes) {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size needs to be at least 1: " + batchSize);
+		this.batchSize = batchSize;
+		this.maxImages = maxImages;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Add the input tensors of an image. 
+	 * @param file
+	 * 	file the image was read from
+	 * @param title
+	 * 	name of the image
+	 * @param inputs
+	 * 	input tensors of the image, all of them need to have the batch axis
+	 * @return the group the image has been added to if it is complete, the biggest group if the images 
+	 * 	waiting pass the limits, null otherwise
+	 */
+	public Group<T> add(File file, String title, List<Tensor<T>> inputs) {
+		String key = getKey(inputs);
+		Group<T> group = pending.get(key);
+		if (group == null) {
+			group = new Group<T>();
+			pending.put(key, group);
+		}
+		Tensor<T> first = inputs.get(0);
+		long bytes = 0;
+		for (Tensor<T> tt : inputs)
+			bytes += CommitQueue.sizeOf(tt.getData());
+		group.files.add(file);
+		group.titles.add(title);
+		group.sizes.add(first.getData().dimension(first.getAxesOrderString().indexOf("b")));
+		group.inputs.add(inputs);
+		group.bytes += bytes;
+		pendingImages ++;
+		pendingBytes += bytes;
+		if (group.titles.size() >= batchSize)
+			return remove(key);
+		else if (pendingImages <= maxImages && pendingBytes <= maxBytes)
+			return null;
+		// The biggest group holds at least the new image, so releasing it brings the pending images
+		// back under the limits
+		String biggest = key;
+		for (Map.Entry<String, Group<T>> ee : pending.entrySet()) {
+			if (ee.getValue().bytes > pending.get(biggest).bytes)
+				biggest = ee.getKey();
+		}
+		return remove(biggest);
+	}
+	
+	private Group<T> remove(String key) {
+		Group<T> group = pending.remove(key);
+		pendingImages -= group.titles.size();
+		pendingBytes -= group.bytes;
+		return group;
+	}
+	
+	/**
+	 * @return the groups that are not complete yet, once there are no more images
+	 */
+	public List<Group<T>> flush() {
+		List<Group<T>> groups = new ArrayList<Group<T>>(pending.values());
+		pending.clear();
+		pendingImages = 0;
+		pendingBytes = 0;
+		return groups;
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> String getKey(List<Tensor<T>> inputs) {
+		String key = "";
+		for (Tensor<T> tt : inputs) {
+			int bInd = tt.getAxesOrderString().indexOf("b");
+			if (bInd == -1)
+				throw new IllegalArgumentException("Images can only be batched for models with a batch axis ('b'), "
+						+ "tensor '" + tt.getName() + "' does not have it.");
+			long[] dims = tt.getData().dimensionsAsLongArray();
+			dims[bInd] = -1;
+			key += tt.getName() + Arrays.toString(dims) + Util.getTypeFromInterval(tt.getData()).getClass().getName() + ";";
+		}
+		return key;
+	}
+	
+	/**
+	 * Concatenate along the batch axis the tensors of several calls to a model
+	 * @param parts
+	 * 	list of tensors of each of the calls, all of them with the same tensors in the same order
+	 * @return the concatenated tensors
+	 */
+	public static <T extends RealType<T> & NativeType<T>> List<Tensor<T>> concatenate(List<List<Tensor<T>>> parts) {
+		List<Tensor<T>> stacked = new ArrayList<Tensor<T>>();
+		for (int i = 0; i < parts.get(0).size(); i ++) {
+			Tensor<T> first = parts.get(0).get(i);
+			int bInd = first.getAxesOrderString().indexOf("b");
+			List<RandomAccessibleInterval<T>> rais = new ArrayList<RandomAccessibleInterval<T>>();
+			for (List<Tensor<T>> part : parts)
+				rais.add(part.get(i).getData());
+			RandomAccessibleInterval<T> rai = parts.size() == 1 ? rais.get(0) : Views.concatenate(bInd, rais);
+			stacked.add(Tensor.build(first.getName(), first.getAxesOrderString(), rai));
+		}
+		return stacked;
+	}
+	
+	/**
+	 * Extract the part of an output tensor that corresponds to one of the images of a group
+	 * @param tensor
+	 * 	output tensor of the model for the whole group
+	 * @param start
+	 * 	position of the first element of the image along the batch axis
+	 * @param size
+	 * 	size of the image along the batch axis
+	 * @return the tensor with the output for the image
+	 */
+	public static <R extends RealType<R> & NativeType<R>> Tensor<R> slice(Tensor<R> tensor, long start, long size) {
+		int bInd = tensor.getAxesOrderString().indexOf("b");
+		if (bInd == -1)
+			throw new IllegalArgumentException("Output tensor '" + tensor.getName() + "' does not have a batch axis ('b'), "
+					+ "so the results of the batch cannot be separated per image.");
+		RandomAccessibleInterval<R> rai = tensor.getData();
+		long[] min = rai.minAsLongArray();
+		long[] max = rai.maxAsLongArray();
+		min[bInd] += start;
+		max[bInd] = min[bInd] + size - 1;
+		return Tensor.build(tensor.getName(), tensor.getAxesOrderString(), Views.zeroMin(Views.interval(rai, min, max)));
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import deepimagej.tools.ImPlusRaiManager;
+import deepimagej.tools.TensorSpecTools;
+import ij.IJ;
+import ij.ImagePlus;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.numpy.DecodeNumpy;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Cast;
+
+/**
+ * Measure the time a model needs to load and to run. The model is run on its own sample inputs
+ * or, if it does not have them, on random inputs with a shape accepted by its specs.
+ * 
+ * @author Carlos Garcia
+ */
+public class Benchmark {
+	
+	/**
+	 * Size used for the spatial axes of random inputs, if the model accepts it
+	 */
+	private static final long SYNTHETIC_XY = 256;
+	
+	private static final long SYNTHETIC_Z = 16;
+	
+	private static final double MB = 1024 * 1024;
+	
+	/**
+	 * Result of a benchmark, all the times in milliseconds
+	 */
+	public static class Result {
+		
+		private final String model;
+		
+		private final String inputs;
+		
+		private final long batch;
+		
+		private final double loadMs;
+		
+		private final double[] latencies;
+		
+		private final double peakHeapMb;
+		
+		private Result(String model, String inputs, long batch, double loadMs, double[] latencies, double peakHeapMb) {
+			this.model = model;
+			this.inputs = inputs;
+			this.batch = batch;
+			this.loadMs = loadMs;
+			this.latencies = latencies.clone();
+			Arrays.sort(this.latencies);
+			this.peakHeapMb = peakHeapMb;
+		}
+		
+		/**
+		 * @return "sample" if the model was run on its sample inputs or "synthetic" if it was run on random inputs
+		 */
+		public String getInputs() {
+			return inputs;
+		}
+		
+		public double getLoadMs() {
+			return loadMs;
+		}
+		
+		/**
+		 * @param percentile
+		 * 	percentile between 0 and 100
+		 * @return the latency of a call to the model at that percentile, using the nearest rank
+		 */
+		public double getLatencyMs(double percentile) {
+			int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+			return latencies[Math.min(Math.max(rank, 1), latencies.length) - 1];
+		}
+		
+		public double getMeanMs() {
+			return Arrays.stream(latencies).average().orElse(Double.NaN);
+		}
+		
+		/**
+		 * @return number of images (elements of the batch axis) processed per second
+		 */
+		public double getThroughput() {
+			return batch * 1000 / getMeanMs();
+		}
+		
+		public double getPeakHeapMb() {
+			return peakHeapMb;
+		}
+		
+		public int getIterations() {
+			return latencies.length;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "Benchmark of %s (%s inputs, batch %d, %d iterations)%n"
+					+ "  load: %.1f ms%n"
+					+ "  latency: mean %.2f ms, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms%n"
+					+ "  throughput: %.2f images/s%n"
+					+ "  peak heap: %.1f MB", 
+					model, inputs, batch, latencies.length, loadMs, getMeanMs(), 
+					getLatencyMs(50), getLatencyMs(95), getLatencyMs(99), getThroughput(), peakHeapMb);
+		}
+	}
+	
+	/**
+	 * Load a model and run it several times
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param enginesDir
+	 * 	folder with the engines
+	 * @param warmup
+	 * 	number of runs that are not measured, done before the measured ones
+	 * @param iterations
+	 * 	number of measured runs
+	 * @param synthetic
+	 * 	whether to use random inputs even if the model has sample inputs
+	 * @return the result of the benchmark
+	 */
+	public static <T extends RealType<T> & NativeType<T>> 
+	Result run(ModelDescriptor descriptor, String enginesDir, int warmup, int iterations, boolean synthetic) 
+			throws IOException, LoadEngineException, LoadModelException, RunModelException {
+		if (iterations < 1)
+			throw new IllegalArgumentException("The number of iterations needs to be at least 1: " + iterations);
+		resetPeaks();
+		Runner runner = Runner.create(descriptor, enginesDir);
+		try {
+			long start = System.nanoTime();
+			runner.load(true);
+			double loadMs = (System.nanoTime() - start) / 1e6;
+			
+			String inputType = "sample";
+			List<Tensor<T>> inputs = null;
+			if (!synthetic) {
+				try {
+					inputs = readSampleInputs(runner.getTestInputs());
+				} catch (RuntimeException ex) {
+					System.err.println("[WARNING] Unable to read the sample inputs, using random inputs: " + ex.getMessage());
+				}
+			}
+			if (inputs == null) {
+				inputType = "synthetic";
+				inputs = createSyntheticInputs(descriptor);
+			}
+			for (int i = 0; i < warmup; i ++)
+				runner.run(inputs);
+			double[] latencies = new double[iterations];
+			for (int i = 0; i < iterations; i ++) {
+				start = System.nanoTime();
+				runner.run(inputs);
+				latencies[i] = (System.nanoTime() - start) / 1e6;
+			}
+			Tensor<T> first = inputs.get(0);
+			int bInd = first.getAxesOrderString().indexOf("b");
+			long batch = bInd == -1 ? 1 : first.getData().dimension(bInd);
+			return new Result(descriptor.getName(), inputType, batch, loadMs, latencies, getPeakHeap() / MB);
+		} finally {
+			try {
+				runner.close();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> 
+	List<Tensor<T>> readSampleInputs(LinkedHashMap<TensorSpec, String> files) {
+		List<Tensor<T>> inputs = new ArrayList<Tensor<T>>();
+		for (Entry<TensorSpec, String> ee : files.entrySet()) {
+			RandomAccessibleInterval<T> rai;
+			if (ee.getValue().endsWith(".npy")) {
+				try {
+					rai = DecodeNumpy.loadNpy(ee.getValue());
+				} catch (IOException e) {
+					throw new RuntimeException("Unexpected error reading .npy file: " + ee.getValue());
+				}
+			} else {
+				ImagePlus imp = IJ.openImage(ee.getValue());
+				if (imp == null)
+					throw new RuntimeException("Unable to open the sample input: " + ee.getValue());
+				rai = ImPlusRaiManager.convert(imp, ee.getKey().getAxesOrder());
+			}
+			inputs.add(Tensor.build(ee.getKey().getName(), ee.getKey().getAxesOrder(), rai));
+		}
+		return inputs;
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> 
+	List<Tensor<T>> createSyntheticInputs(ModelDescriptor descriptor) {
+		List<Tensor<T>> inputs = new ArrayList<Tensor<T>>();
+		Random random = new Random(42);
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			String axes = spec.getAxesOrder().toLowerCase();
+			int[] min = TensorSpecTools.getMin(spec);
+			int[] step = TensorSpecTools.getStep(spec);
+			long[] shape = new long[axes.length()];
+			for (int i = 0; i < shape.length; i ++) {
+				long wanted = axes.charAt(i) == 'x' || axes.charAt(i) == 'y' ? SYNTHETIC_XY 
+						: (axes.charAt(i) == 'z' ? SYNTHETIC_Z : 1);
+				shape[i] = Math.max(1, TensorSpecTools.validSize(min[i], step[i], wanted));
+			}
+			ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(shape);
+			float[] data = img.update(null).getCurrentStorageArray();
+			for (int i = 0; i < data.length; i ++)
+				data[i] = (float) random.nextGaussian();
+			RandomAccessibleInterval<T> rai = Cast.unchecked(img);
+			inputs.add(Tensor.build(spec.getName(), spec.getAxesOrder(), rai));
+		}
+		return inputs;
+	}
+	
+	private static void resetPeaks() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+		}
+	}
+	
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+
+/**
+ * Images that are reused between the images of an execution, so processing many images of the same
+ * shape does not allocate new buffers for each of them. The buffers are grouped by data type and
+ * shape. A buffer taken with {@link #acquire} is given back with {@link #release} once its content is
+ * not needed anymore, and only buffers that are not displayed or kept anywhere else can be given back.
+ * 
+ * The pool keeps at most its capacity in bytes of buffers that are not in use, the rest are left
+ * to the garbage collector.
+ * 
+ * Only the images allocated by the plugin come from the pool, which are the output images of the
+ * tiled runs and the inputs of the images stacked in a batch. The outputs of a model run in one call
+ * are allocated by the engine. The tensor built around a buffer with {@link #tensor} is kept with it,
+ * so a reused buffer does not need a new tensor either.
+ * 
+ * @author Carlos Garcia
+ */
+public class BufferPool {
+	
+	private final long capacity;
+	
+	private long idleBytes;
+	
+	private final Map<String, Deque<Img<?>>> idle = new HashMap<String, Deque<Img<?>>>();
+	
+	/**
+	 * Buffers created by the pool that are in use
+	 */
+	private final Set<Object> leased = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+	
+	/**
+	 * Tensor built around each buffer of the pool
+	 */
+	private final Map<Object, Tensor<?>> shells = new IdentityHashMap<Object, Tensor<?>>();
+	
+	/**
+	 * @param capacity
+	 * 	maximum number of bytes of the buffers kept while they are not in use
+	 */
+	public BufferPool(long capacity) {
+		this.capacity = capacity;
+	}
+	
+	/**
+	 * Take a buffer, reusing one that has been released if there is any with the same data type and shape
+	 * @param <T>
+	 * 	data type of the buffer
+	 * @param type
+	 * 	data type of the buffer
+	 * @param dims
+	 * 	shape of the buffer
+	 * @return the buffer, its content is undefined
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends RealType<T> & NativeType<T>> Img<T> acquire(T type, long[] dims) {
+		Deque<Img<?>> free = idle.get(getKey(type, dims));
+		Img<T> img;
+		if (free != null && !free.isEmpty()) {
+			img = (Img<T>) free.pop();
+			idleBytes -= getBytes(img, type);
+		} else {
+			img = Util.getSuitableImgFactory(new FinalDimensions(dims), type.createVariable()).create(dims);
+		}
+		leased.add(img);
+		return img;
+	}
+	
+	/**
+	 * Give back a buffer. Images that were not taken from the pool are ignored, so the outputs of a model
+	 * can be released whether they were allocated by the pool or not
+	 * @param rai
+	 * 	buffer that is not used anymore
+	 */
+	public synchronized <T extends RealType<T> & NativeType<T>> void release(RandomAccessibleInterval<T> rai) {
+		if (!leased.remove(rai))
+			return;
+		Img<T> img = (Img<T>) rai;
+		T type = img.firstElement();
+		long bytes = getBytes(img, type);
+		if (idleBytes + bytes > capacity) {
+			shells.remove(img);
+			return;
+		}
+		idle.computeIfAbsent(getKey(type, img.dimensionsAsLongArray()), k -> new ArrayDeque<Img<?>>()).push(img);
+		idleBytes += bytes;
+	}
+	
+	/**
+	 * Stop tracking a buffer that is kept after its use, for example an output that is displayed, so
+	 * the pool does not keep it reachable. The buffer is never reused
+	 * @param rai
+	 * 	buffer taken from the pool, other images are ignored
+	 */
+	public synchronized void detach(RandomAccessibleInterval<?> rai) {
+		leased.remove(rai);
+		shells.remove(rai);
+	}
+	
+	/**
+	 * @param name
+	 * 	name of the tensor
+	 * @param axes
+	 * 	axes order of the tensor
+	 * @param buffer
+	 * 	buffer taken from the pool
+	 * @return the tensor built the last time the buffer was used, if it has the same name and axes,
+	 * 	or a new tensor around the buffer
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends RealType<T> & NativeType<T>> Tensor<T> tensor(String name, String axes, Img<T> buffer) {
+		Tensor<T> tensor = (Tensor<T>) shells.get(buffer);
+		if (tensor == null || !tensor.getName().equals(name) || !tensor.getAxesOrderString().equals(axes)) {
+			tensor = Tensor.build(name, axes, buffer);
+			if (leased.contains(buffer))
+				shells.put(buffer, tensor);
+		}
+		return tensor;
+	}
+	
+	/**
+	 * Drop all the buffers that are not in use
+	 */
+	public synchronized void clear() {
+		for (Deque<Img<?>> free : idle.values()) {
+			for (Img<?> img : free)
+				shells.remove(img);
+		}
+		idle.clear();
+		idleBytes = 0;
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> String getKey(T type, long[] dims) {
+		return type.getClass().getName() + Arrays.toString(dims);
+	}
+	
+	private static <T extends RealType<T> & NativeType<T>> long getBytes(Img<?> img, T type) {
+		return Intervals.numElements(img) * Math.max(1, type.getBitsPerPixel() / 8);
+	}
+}
@@ -0,0 +1,399 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import deepimagej.tools.TensorSpecTools;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Estimate of the memory needed to run a model on some inputs, and budget of memory shared by all
+ * the workers of an execution. Before running the model, each job reserves its estimate from the
+ * budget, and waits while the jobs that are running do not leave enough memory free. The budget
+ * has two separate parts: the Java heap, that holds the input and output tensors, and the memory of
+ * the engine, outside of the heap and possibly in another process.
+ * 
+ * The estimate is computed from the specs of the model and the actual size of the inputs: the inputs
+ * and the outputs, with the data types of the specs, are counted in the heap (the Java tensors) and in
+ * the engine (its copy), and the intermediate results of the model are counted in the engine as a factor 
+ * times the biggest of the inputs and the outputs. The factor is 4 by default and can be set with the 
+ * system property {@value #FACTOR_PROP}.
+ * 
+ * The memory of the engine is released once the model has run, while the outputs can keep their part of
+ * the heap until they are saved, see {@link #keep(Estimate, long)}.
+ * 
+ * @author Carlos Garcia
+ */
+public class MemoryBudget {
+	
+	public static final String FACTOR_PROP = "deepimagej.memory.intermediate_factor";
+	
+	private static final double DEFAULT_FACTOR = 4;
+	
+	/**
+	 * Fraction of the maximum heap, and of the physical memory outside of the heap, used as budget 
+	 * when no budget is given
+	 */
+	private static final double DEFAULT_FRACTION = 0.75;
+	
+	private final long heapCapacity;
+	
+	private final long engineCapacity;
+	
+	private long heapAvailable;
+	
+	private long engineAvailable;
+	
+	/**
+	 * Memory of a job in the heap and in the engine
+	 */
+	public static class Estimate {
+		
+		private final long heap;
+		
+		private final long engine;
+		
+		public Estimate(long heap, long engine) {
+			this.heap = heap;
+			this.engine = engine;
+		}
+		
+		public long getHeap() {
+			return heap;
+		}
+		
+		public long getEngine() {
+			return engine;
+		}
+		
+		@Override
+		public String toString() {
+			return toMB(heap) + " MB of heap and " + toMB(engine) + " MB for the engine";
+		}
+	}
+	
+	/**
+	 * @param capacity
+	 * 	number of bytes that the jobs can use at the same time in the heap, and also in the engine
+	 */
+	public MemoryBudget(long capacity) {
+		this(capacity, capacity);
+	}
+	
+	/**
+	 * @param heapCapacity
+	 * 	number of bytes of the heap that the jobs can use at the same time
+	 * @param engineCapacity
+	 * 	number of bytes that the engine can use at the same time
+	 */
+	public MemoryBudget(long heapCapacity, long engineCapacity) {
+		if (heapCapacity <= 0 || engineCapacity <= 0)
+			throw new IllegalArgumentException("The memory budget needs to be positive: " + heapCapacity + ", " + engineCapacity);
+		this.heapCapacity = heapCapacity;
+		this.engineCapacity = engineCapacity;
+		this.heapAvailable = heapCapacity;
+		this.engineAvailable = engineCapacity;
+	}
+	
+	/**
+	 * @return a budget of the 75% of the maximum heap of the JVM, and of the 75% of the physical memory 
+	 * 	that the heap cannot take for the engine. If the physical memory is not known, the engine gets 
+	 * 	the same budget as the heap
+	 */
+	public static MemoryBudget createDefault() {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		long heap = (long) (maxHeap * DEFAULT_FRACTION);
+		long physical = getPhysicalMemory();
+		long engine = physical > maxHeap ? (long) ((physical - maxHeap) * DEFAULT_FRACTION) : heap;
+		return new MemoryBudget(heap, engine);
+	}
+	
+	private static long getPhysicalMemory() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+		return -1;
+	}
+	
+	/**
+	 * @return number of bytes of the heap that the jobs can use at the same time
+	 */
+	public long getHeapCapacity() {
+		return heapCapacity;
+	}
+	
+	/**
+	 * @return number of bytes that the engine can use at the same time
+	 */
+	public long getEngineCapacity() {
+		return engineCapacity;
+	}
+	
+	/**
+	 * @return whether a job with the estimate can ever run within the budget
+	 */
+	public boolean fits(Estimate estimate) {
+		return estimate.heap <= heapCapacity && estimate.engine <= engineCapacity;
+	}
+	
+	/**
+	 * Reserve memory for a job, waiting until the rest of the jobs leave enough memory free
+	 * @param estimate
+	 * 	estimated memory of the job
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized void acquire(Estimate estimate) throws InterruptedException {
+		if (!fits(estimate))
+			throw new IllegalArgumentException(String.format("The job needs about %s, more than the memory budget of %s.",
+					estimate, new Estimate(heapCapacity, engineCapacity)));
+		while (heapAvailable < estimate.heap || engineAvailable < estimate.engine)
+			wait();
+		heapAvailable -= estimate.heap;
+		engineAvailable -= estimate.engine;
+	}
+	
+	/**
+	 * Return the memory reserved by a job that has finished
+	 * @param estimate
+	 * 	memory reserved by the job
+	 */
+	public synchronized void release(Estimate estimate) {
+		heapAvailable += estimate.heap;
+		engineAvailable += estimate.engine;
+		notifyAll();
+	}
+	
+	/**
+	 * Return the memory reserved by a job that has run except the heap held by its outputs, which is 
+	 * returned with {@link #releaseHeap(long)} once the outputs are not needed anymore. The outputs can
+	 * hold more heap than the estimate, in which case the difference is taken without waiting
+	 * @param estimate
+	 * 	memory reserved by the job
+	 * @param outputBytes
+	 * 	bytes of the outputs
+	 */
+	public synchronized void keep(Estimate estimate, long outputBytes) {
+		heapAvailable += estimate.heap - outputBytes;
+		engineAvailable += estimate.engine;
+		notifyAll();
+	}
+	
+	/**
+	 * Return the heap held by outputs, see {@link #keep(Estimate, long)}
+	 * @param bytes
+	 * 	bytes of the outputs
+	 */
+	public synchronized void releaseHeap(long bytes) {
+		heapAvailable += bytes;
+		notifyAll();
+	}
+	
+	/**
+	 * Estimate the memory needed to run the model on the inputs at once
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param inputs
+	 * 	input tensors
+	 * @return the estimated memory
+	 */
+	public static <T extends RealType<T> & NativeType<T>>
+	Estimate estimate(ModelDescriptor descriptor, List<Tensor<T>> inputs) {
+		Map<String, String> axes = new HashMap<String, String>();
+		Map<String, long[]> dims = new HashMap<String, long[]>();
+		for (Tensor<T> tt : inputs) {
+			axes.put(tt.getName(), tt.getAxesOrderString());
+			dims.put(tt.getName(), tt.getData().dimensionsAsLongArray());
+		}
+		return estimate(descriptor, axes, dims);
+	}
+	
+	/**
+	 * Estimate the memory needed to run the model tile by tile with {@link TiledRunner}: the memory 
+	 * needed to process one tile plus the outputs for the whole input, in the heap
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param input
+	 * 	input tensor
+	 * @param tileSize
+	 * 	wanted size of the tiles along the spatial axes, without the halo
+	 * @return the estimated memory
+	 */
+	public static <T extends RealType<T> & NativeType<T>>
+	Estimate estimateTiled(ModelDescriptor descriptor, Tensor<T> input, long tileSize) {
+		Map<String, String> axes = new HashMap<String, String>();
+		axes.put(input.getName(), input.getAxesOrderString());
+		Map<String, long[]> dims = new HashMap<String, long[]>();
+		long[] imDims = input.getData().dimensionsAsLongArray();
+		dims.put(input.getName(), imDims);
+		Map<String, long[]> tileDims = new HashMap<String, long[]>();
+		tileDims.put(input.getName(), TiledRunner.getTileShape(descriptor, imDims, tileSize));
+		Estimate tile = estimate(descriptor, axes, tileDims);
+		return new Estimate(tile.heap + getOutputBytes(descriptor, axes, dims), tile.engine);
+	}
+	
+	/**
+	 * Find the biggest tile size, halving the size of the input, whose estimate fits in the budget
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param input
+	 * 	input tensor
+	 * @param budget
+	 * 	memory available
+	 * @return the tile size, or -1 if not even the smallest tile fits
+	 */
+	public static <T extends RealType<T> & NativeType<T>>
+	long fitTileSize(ModelDescriptor descriptor, Tensor<T> input, MemoryBudget budget) {
+		String axes = input.getAxesOrderString();
+		long tileSize = 1;
+		for (int i = 0; i < axes.length(); i ++) {
+			if ("xyz".indexOf(axes.charAt(i)) != -1)
+				tileSize = Math.max(tileSize, input.getData().dimension(i));
+		}
+		for (; tileSize >= 1; tileSize /= 2) {
+			if (budget.fits(estimateTiled(descriptor, input, tileSize)))
+				return tileSize;
+		}
+		return -1;
+	}
+	
+	private static Estimate estimate(ModelDescriptor descriptor, Map<String, String> axes, Map<String, long[]> dims) {
+		long inBytes = 0;
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (dims.containsKey(spec.getName()))
+				inBytes += getSize(dims.get(spec.getName())) * getBytes(spec.getDataType());
+		}
+		long outBytes = getOutputBytes(descriptor, axes, dims);
+		return new Estimate(inBytes + outBytes, inBytes + outBytes + (long) (getFactor() * Math.max(inBytes, outBytes)));
+	}
+	
+	private static long getOutputBytes(ModelDescriptor descriptor, Map<String, String> axes, Map<String, long[]> dims) {
+		String first = descriptor.getInputTensors().get(0).getName();
+		long bytes = 0;
+		for (TensorSpec spec : descriptor.getOutputTensors())
+			bytes += getSize(getOutputShape(spec, first, axes, dims)) * getBytes(spec.getDataType());
+		return bytes;
+	}
+	
+	/**
+	 * Shape of an output for the given inputs. Axes that refer to an input are computed with the scale 
+	 * and offset of the specs, axes with a fixed size take that size, and the rest take the size of the
+	 * same axis of the first input
+	 */
+	static long[] getOutputShape(TensorSpec spec, String first, Map<String, String> axes, Map<String, long[]> dims) {
+		String outAxes = spec.getAxesOrder();
+		String[] refTensor = TensorSpecTools.getReferenceTensor(spec);
+		String[] refAxis = TensorSpecTools.getReferenceAxis(spec);
+		double[] scale = TensorSpecTools.getScale(spec);
+		int[] offset = TensorSpecTools.getOffset(spec);
+		int[] min = TensorSpecTools.getMin(spec);
+		int[] step = TensorSpecTools.getStep(spec);
+		long[] shape = new long[outAxes.length()];
+		for (int i = 0; i < shape.length; i ++) {
+			String ref = refTensor[i] != null ? refTensor[i] : first;
+			String axis = refAxis[i] != null ? refAxis[i] : "" + outAxes.charAt(i);
+			int ind = axes.containsKey(ref) ? axes.get(ref).indexOf(axis) : -1;
+			if (refTensor[i] != null && ind != -1)
+				shape[i] = (long) Math.ceil(dims.get(ref)[ind] * (scale[i] > 0 ? scale[i] : 1)) + 2 * offset[i];
+			else if (min[i] > 0 && step[i] == 0)
+				shape[i] = min[i];
+			else if (ind != -1)
+				shape[i] = dims.get(ref)[ind];
+			else
+				shape[i] = Math.max(1, min[i]);
+		}
+		return shape;
+	}
+	
+	/**
+	 * @return number of bytes of each element of a data type of the specs, 4 if the type is not known
+	 */
+	private static int getBytes(String dataType) {
+		if (dataType == null)
+			return 4;
+		switch (dataType.toLowerCase()) {
+		case "int8":
+		case "uint8":
+		case "bool":
+			return 1;
+		case "int16":
+		case "uint16":
+		case "float16":
+			return 2;
+		case "int64":
+		case "uint64":
+		case "float64":
+			return 8;
+		default:
+			return 4;
+		}
+	}
+	
+	private static long getSize(long[] dims) {
+		long size = 1;
+		for (long dd : dims)
+			size *= Math.max(1, dd);
+		return size;
+	}
+	
+	private static double getFactor() {
+		try {
+			return Double.parseDouble(System.getProperty(FACTOR_PROP, "" + DEFAULT_FACTOR));
+		} catch (NumberFormatException ex) {
+			return DEFAULT_FACTOR;
+		}
+	}
+	
+	static long toMB(long bytes) {
+		return bytes / (1024 * 1024);
+	}
+}
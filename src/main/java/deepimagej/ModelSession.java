@@ -0,0 +1,273 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import deepimagej.tools.ImPlusRaiManager;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+import io.bioimage.modelrunner.utils.Constants;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Model that is loaded once and can then be run as many times as needed from Java or
+ * from scripts. The session needs to be closed once it is not needed anymore to 
+ * release the resources of the engine.
+ * 
+ * <pre>
+ * try (ModelSession session = ModelSession.open("/path/to/model")) {
+ *     for (RandomAccessibleInterval im : images)
+ *         outputs = session.run(Arrays.asList(im), Arrays.asList("xyc"));
+ * }
+ * </pre>
+ * 
+ * @author Carlos Garcia
+ */
+public class ModelSession implements AutoCloseable {
+	
+	private final ModelDescriptor descriptor;
+	
+	private final Runner runner;
+	
+	private boolean closed = false;
+	
+	private ModelSession(ModelDescriptor descriptor, Runner runner) {
+		this.descriptor = descriptor;
+		this.runner = runner;
+	}
+	
+	/**
+	 * Load the model at the given folder using the engines installed in the Fiji/ImageJ folder
+	 * @param modelFolder
+	 * 	folder containing the rdf.yaml of the model
+	 * @return the session with the model loaded
+	 */
+	public static ModelSession open(String modelFolder) throws IOException, LoadEngineException, LoadModelException {
+		return open(modelFolder, deepimagej.Constants.FIJI_FOLDER + File.separator + "engines");
+	}
+	
+	/**
+	 * Load the model at the given folder
+	 * @param modelFolder
+	 * 	folder containing the rdf.yaml of the model
+	 * @param enginesDir
+	 * 	folder where the engines are installed
+	 * @return the session with the model loaded
+	 */
+	public static ModelSession open(String modelFolder, String enginesDir) throws IOException, LoadEngineException, LoadModelException {
+		ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(modelFolder + File.separator + Constants.RDF_FNAME);
+		Runner runner = Runner.create(descriptor, enginesDir);
+		try {
+			runner.load(true);
+		} catch (LoadModelException | RuntimeException ex) {
+			closeQuietly(runner);
+			throw ex;
+		}
+		return new ModelSession(descriptor, runner);
+	}
+	
+	public ModelDescriptor getDescriptor() {
+		return descriptor;
+	}
+	
+	/**
+	 * Run the model on one set of inputs
+	 * @param inputs
+	 * 	one image per input of the model, in the same order as in the rdf.yaml
+	 * @param axesOrders
+	 * 	axes order of each of the images
+	 * @return the outputs of the model, images are returned in the ImageJ axes order. Depending on the
+	 * 	engine, the outputs can be backed by memory of the engine that is released when the session is
+	 * 	closed, use {@link #copy(List)} to keep them after closing it
+	 */
+	public synchronized <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	List<RandomAccessibleInterval<R>> run(List<RandomAccessibleInterval<T>> inputs, List<String> axesOrders) throws RunModelException {
+		if (closed)
+			throw new IllegalStateException("The session has already been closed.");
+		List<Tensor<T>> ins = createInputTensorList(descriptor, inputs, axesOrders);
+		List<Tensor<R>> outs = runner.run(ins);
+		List<RandomAccessibleInterval<R>> raiOuts = new ArrayList<RandomAccessibleInterval<R>>();
+		for (int i = 0; i < outs.size(); i ++)
+			raiOuts.add(toImageJ(outs.get(i).getData(), descriptor.getOutputTensors().get(i)));
+		return raiOuts;
+	}
+	
+	/**
+	 * Run the model on several sets of inputs. If every input and output of the model has a batch axis, 
+	 * the sets whose inputs have the same shape and data type are stacked along the batch axis, as
+	 * {@link BatchStacker} does, and run in a single call. Otherwise the sets are run one after the other
+	 * @param batch
+	 * 	list of sets of inputs, each of them with one image per input of the model
+	 * @param axesOrders
+	 * 	axes order of the images of every set
+	 * @return the outputs of each of the sets of inputs, in the same order
+	 */
+	public synchronized <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>> 
+	List<List<RandomAccessibleInterval<R>>> runBatch(List<List<RandomAccessibleInterval<T>>> batch, List<String> axesOrders) throws RunModelException {
+		if (closed)
+			throw new IllegalStateException("The session has already been closed.");
+		List<List<RandomAccessibleInterval<R>>> outs = new ArrayList<List<RandomAccessibleInterval<R>>>();
+		if (!isBatchable()) {
+			for (List<RandomAccessibleInterval<T>> inputs : batch)
+				outs.add(run(inputs, axesOrders));
+			return outs;
+		}
+		// The sets are identified by their position, used as the title of the image in the stacker
+		BatchStacker<T> stacker = new BatchStacker<T>(Math.max(1, batch.size()));
+		List<BatchStacker.Group<T>> groups = new ArrayList<BatchStacker.Group<T>>();
+		for (int i = 0; i < batch.size(); i ++) {
+			BatchStacker.Group<T> group = stacker.add(null, String.valueOf(i), createInputTensorList(descriptor, batch.get(i), axesOrders));
+			if (group != null)
+				groups.add(group);
+			outs.add(null);
+		}
+		groups.addAll(stacker.flush());
+		for (BatchStacker.Group<T> group : groups) {
+			List<Tensor<R>> groupOuts = runner.run(group.stack());
+			long offset = 0;
+			for (int i = 0; i < group.getTitles().size(); i ++) {
+				List<RandomAccessibleInterval<R>> raiOuts = new ArrayList<RandomAccessibleInterval<R>>();
+				for (int j = 0; j < groupOuts.size(); j ++) {
+					Tensor<R> out = BatchStacker.slice(groupOuts.get(j), offset, group.getSizes().get(i));
+					raiOuts.add(toImageJ(out.getData(), descriptor.getOutputTensors().get(j)));
+				}
+				outs.set(Integer.parseInt(group.getTitles().get(i)), raiOuts);
+				offset += group.getSizes().get(i);
+			}
+		}
+		return outs;
+	}
+	
+	/**
+	 * @return whether all the inputs and outputs of the model have a batch axis
+	 */
+	private boolean isBatchable() {
+		for (TensorSpec spec : descriptor.getInputTensors()) {
+			if (!spec.getAxesOrder().contains("b"))
+				return false;
+		}
+		for (TensorSpec spec : descriptor.getOutputTensors()) {
+			if (!spec.getAxesOrder().contains("b"))
+				return false;
+		}
+		return true;
+	}
+	
+	private static <R extends RealType<R> & NativeType<R>> 
+	RandomAccessibleInterval<R> toImageJ(RandomAccessibleInterval<R> rai, TensorSpec spec) {
+		if (spec.isImage())
+			return ImPlusRaiManager.convertToAxesOrder(rai, spec.getAxesOrder(), ImPlusRaiManager.IJ_AXES_ORDER);
+		return rai;
+	}
+	
+	/**
+	 * Copy images into new images in memory, so they do not depend on the session
+	 * @param rais
+	 * 	images, for example the outputs of {@link #run(List, List)}
+	 * @return the copies
+	 */
+	public static <R extends RealType<R> & NativeType<R>> 
+	List<RandomAccessibleInterval<R>> copy(List<RandomAccessibleInterval<R>> rais) {
+		List<RandomAccessibleInterval<R>> copies = new ArrayList<RandomAccessibleInterval<R>>();
+		for (RandomAccessibleInterval<R> rai : rais) {
+			RandomAccessibleInterval<R> view = Views.zeroMin(rai);
+			RandomAccessibleInterval<R> img = Util.getSuitableImgFactory(view, Util.getTypeFromInterval(view)).create(view);
+			LoopBuilder.setImages(view, img).forEachPixel((s, d) -> d.set(s));
+			copies.add(img);
+		}
+		return copies;
+	}
+	
+	static <T extends RealType<T> & NativeType<T>> List<Tensor<T>> createInputTensorList(ModelDescriptor descriptor, List<RandomAccessibleInterval<T>> inputs, List<String> axesOrders) {
+		if (inputs.size() != descriptor.getInputTensors().size())
+			throw new IllegalArgumentException(String.format("The number of inputs defined in the Bioimage.io rdf.yaml specs file is not the same as the number"
+					+ " of inputs provided: %s vs %s", descriptor.getInputTensors().size(), inputs.size()));
+		List<Tensor<T>> ins = new ArrayList<Tensor<T>>();
+		for (int i = 0; i < inputs.size(); i ++) {
+			RandomAccessibleInterval<T> rai = inputs.get(i);
+			TensorSpec spec = descriptor.getInputTensors().get(i);
+			String axesOrder = axesOrders.get(i).toLowerCase();
+			if (!axesOrder.contains("b") && axesOrder.contains("t") && !spec.getAxesOrder().contains("t"))
+				axesOrder = axesOrder.replace("t", "b");
+			else if (!axesOrder.contains("b") && axesOrder.contains("z") && !spec.getAxesOrder().contains("z"))
+				axesOrder = axesOrder.replace("z", "b");
+			if (spec.isImage())
+				rai = ImPlusRaiManager.convertToAxesOrder(rai, axesOrder, spec.getAxesOrder());
+			Tensor<T> tensor = Tensor.build(spec.getName(), spec.getAxesOrder(), rai);
+			ins.add(tensor);
+		}
+		return ins;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		closeQuietly(runner);
+	}
+	
+	private static void closeQuietly(Runner runner) {
+		try {
+			runner.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Log of the time spent in each of the stages of the processing of each image of a run, 
+ * the bytes read and written and the heap used. Each image is written as a line in JSON format
+ * to the log file, if there is one, and a summary with the throughput is written and printed
+ * when the run ends.
+ * 
+ * The records of the images can be created and finished from different threads.
+ * 
+ * @author Carlos Garcia
+ */
+public class RunLog implements AutoCloseable {
+	
+	/**
+	 * System property with the file where the log is written for the runs that do not set one
+	 */
+	public static final String LOG_PROP = "deepimagej.run_log";
+	
+	/**
+	 * Value of the log file that disables the log file
+	 */
+	public static final String NONE = "none";
+	
+	/**
+	 * Minimum time between two progress messages
+	 */
+	private static final long PROGRESS_INTERVAL_NS = 5_000_000_000L;
+	
+	private static final double MB = 1024 * 1024;
+	
+	private final String name;
+	
+	private final BufferedWriter writer;
+	
+	private final long start = System.nanoTime();
+	
+	private final Map<String, Long> stageNanos = new LinkedHashMap<String, Long>();
+	
+	private long total = -1;
+	
+	private long done = 0;
+	
+	private long bytesRead = 0;
+	
+	private long bytesWritten = 0;
+	
+	private long failed = 0;
+	
+	private long heapPeak = 0;
+	
+	private long lastProgress = start;
+	
+	/**
+	 * Times and sizes of one image, or of a group of images processed together
+	 */
+	public class Record {
+		
+		private final String item;
+		
+		private final long count;
+		
+		private final long created = System.nanoTime();
+		
+		private final Map<String, Long> stages = new LinkedHashMap<String, Long>();
+		
+		private long read = 0;
+		
+		private long written = 0;
+		
+		private long heap = 0;
+		
+		private String error;
+		
+		private Record(String item, long count) {
+			this.item = item;
+			this.count = count;
+		}
+		
+		/**
+		 * Add the time since the given instant to a stage and sample the heap used
+		 * @param stage
+		 * 	name of the stage
+		 * @param startNanos
+		 * 	instant at which the stage started, from {@link System#nanoTime()}
+		 */
+		public synchronized void stage(String stage, long startNanos) {
+			stages.merge(stage, System.nanoTime() - startNanos, Long::sum);
+			Runtime rt = Runtime.getRuntime();
+			heap = Math.max(heap, rt.totalMemory() - rt.freeMemory());
+		}
+		
+		public synchronized void read(long bytes) {
+			read += bytes;
+		}
+		
+		public synchronized void written(long bytes) {
+			written += bytes;
+		}
+		
+		/**
+		 * Record that the image could not be processed
+		 * @param reason
+		 * 	description of the failure
+		 */
+		public synchronized void fail(String reason) {
+			error = reason;
+		}
+		
+		/**
+		 * Write the record to the log, once every stage of the image is done
+		 */
+		public void finish() {
+			RunLog.this.finish(this);
+		}
+	}
+	
+	private RunLog(String name, BufferedWriter writer) {
+		this.name = name;
+		this.writer = writer;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+		}
+	}
+	
+	/**
+	 * Start the log of a run
+	 * @param name
+	 * 	name of the run, used in the messages
+	 * @param file
+	 * 	file where the records are appended, if null or {@value #NONE} the log is only summarized at the end
+	 * @return the log
+	 */
+	public static RunLog open(String name, String file) {
+		BufferedWriter writer = null;
+		if (file != null && !file.equalsIgnoreCase(NONE)) {
+			try {
+				writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8, 
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException ex) {
+				System.err.println("[WARNING] Unable to write the run log to " + file + ": " + ex.getMessage());
+			}
+		}
+		return new RunLog(name, writer);
+	}
+	
+	/**
+	 * Set the number of images of the run, if it is known, to estimate the time left
+	 * @param total
+	 * 	number of images
+	 */
+	public synchronized void setTotal(long total) {
+		this.total = total;
+	}
+	
+	/**
+	 * Start the record of an image
+	 * @param item
+	 * 	name of the image
+	 * @return the record
+	 */
+	public Record start(String item) {
+		return new Record(item, 1);
+	}
+	
+	/**
+	 * Join the records of images that are processed together from now on
+	 * @param records
+	 * 	the records of the images
+	 * @return the record of the group
+	 */
+	public Record merge(List<Record> records) {
+		String item = "";
+		long count = 0;
+		for (Record rr : records)
+			item += (item.equals("") ? "" : ";") + rr.item;
+		for (Record rr : records)
+			count += rr.count;
+		Record merged = new Record(item, count);
+		for (Record rr : records) {
+			synchronized (rr) {
+				rr.stages.entrySet().stream().forEach(ee -> merged.stages.merge(ee.getKey(), ee.getValue(), Long::sum));
+				merged.read += rr.read;
+				merged.written += rr.written;
+				merged.heap = Math.max(merged.heap, rr.heap);
+				merged.error = merged.error == null ? rr.error : merged.error;
+			}
+		}
+		return merged;
+	}
+	
+	private synchronized void finish(Record record) {
+		long now = System.nanoTime();
+		synchronized (record) {
+			done += record.count;
+			failed += record.error == null ? 0 : record.count;
+			bytesRead += record.read;
+			bytesWritten += record.written;
+			heapPeak = Math.max(heapPeak, record.heap);
+			record.stages.entrySet().stream().forEach(ee -> stageNanos.merge(ee.getKey(), ee.getValue(), Long::sum));
+			write("{\"item\": \"" + escape(record.item) + "\""
+					+ ", \"images\": " + record.count
+					+ ", \"total_ms\": " + toMillis(now - record.created)
+					+ ", \"stages_ms\": " + toJson(record.stages, 1)
+					+ ", \"bytes_read\": " + record.read
+					+ ", \"bytes_written\": " + record.written
+					+ ", \"heap_mb\": " + String.format(Locale.ROOT, "%.1f", record.heap / MB)
+					+ (record.error == null ? "" : ", \"error\": \"" + escape(record.error) + "\"") + "}");
+		}
+		if (now - lastProgress < PROGRESS_INTERVAL_NS)
+			return;
+		lastProgress = now;
+		double rate = done / ((now - start) / 1e9);
+		String msg = String.format(Locale.ROOT, "%s: %d%s images processed, %.2f images/s", name, done, total > 0 ? "/" + total : "", rate);
+		if (total > 0 && rate > 0)
+			msg += ", ETA " + formatSeconds((long) ((total - done) / rate));
+		System.out.println(msg);
+	}
+	
+	/**
+	 * Write and print the summary of the run
+	 */
+	@Override
+	public synchronized void close() {
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		long poolPeak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null)
+				poolPeak += pool.getPeakUsage().getUsed();
+		}
+		heapPeak = Math.max(heapPeak, poolPeak);
+		write("{\"summary\": \"" + escape(name) + "\""
+				+ ", \"images\": " + done
+				+ ", \"failed\": " + failed
+				+ ", \"elapsed_s\": " + String.format(Locale.ROOT, "%.3f", elapsed)
+				+ ", \"images_per_s\": " + String.format(Locale.ROOT, "%.3f", done / elapsed)
+				+ ", \"mb_read_per_s\": " + String.format(Locale.ROOT, "%.3f", bytesRead / MB / elapsed)
+				+ ", \"mb_written_per_s\": " + String.format(Locale.ROOT, "%.3f", bytesWritten / MB / elapsed)
+				+ ", \"stages_mean_ms\": " + toJson(stageNanos, Math.max(done, 1))
+				+ ", \"heap_peak_mb\": " + String.format(Locale.ROOT, "%.1f", heapPeak / MB) + "}");
+		String msg = String.format(Locale.ROOT, "%s: %d images in %s (%.2f images/s), read %.1f MB, written %.1f MB, heap peak %.1f MB", 
+				name, done, formatSeconds((long) elapsed), done / elapsed, bytesRead / MB, bytesWritten / MB, heapPeak / MB);
+		if (failed > 0)
+			msg += String.format(Locale.ROOT, ", %d failed", failed);
+		for (Entry<String, Long> ee : stageNanos.entrySet())
+			msg += System.lineSeparator() + String.format(Locale.ROOT, "  %s: %.1f ms per image", ee.getKey(), ee.getValue() / 1e6 / Math.max(done, 1));
+		System.out.println(msg);
+		if (writer == null)
+			return;
+		try {
+			writer.close();
+		} catch (IOException ex) {
+			System.err.println("[WARNING] Unable to close the run log: " + ex.getMessage());
+		}
+	}
+	
+	private void write(String line) {
+		if (writer == null)
+			return;
+		try {
+			writer.write(line);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException ex) {
+			System.err.println("[WARNING] Unable to write the run log: " + ex.getMessage());
+		}
+	}
+	
+	private static String toJson(Map<String, Long> nanos, long divisor) {
+		String json = "{";
+		for (Entry<String, Long> ee : nanos.entrySet())
+			json += (json.length() == 1 ? "" : ", ") + "\"" + escape(ee.getKey()) + "\": " + toMillis(ee.getValue() / divisor);
+		return json + "}";
+	}
+	
+	private static String toMillis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+	
+	private static String formatSeconds(long seconds) {
+		return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+	}
+	
+	private static String escape(String str) {
+		StringBuilder sb = new StringBuilder();
+		for (char cc : str.toCharArray()) {
+			if (cc == '"' || cc == '\\')
+				sb.append('\\').append(cc);
+			else if (cc < 0x20)
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int) cc));
+			else
+				sb.append(cc);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.bioimageio.description.exceptions.ModelSpecsException;
+import io.bioimage.modelrunner.exceptions.LoadEngineException;
+import io.bioimage.modelrunner.exceptions.LoadModelException;
+import io.bioimage.modelrunner.utils.Constants;
+
+/**
+ * JVM-wide cache of loaded models. It allows consecutive macro calls on the same model
+ * to skip reading the rdf.yaml, starting the engine and loading the weights.
+ * Entries are evicted when the cache is full (least recently used first), when they have
+ * not been used for a while or when the cache is flushed explicitly. A model that is being
+ * used is never closed, it is closed once it is released.
+ * 
+ * The maximum number of models kept and the idle timeout (in seconds) can be set with the 
+ * system properties {@value #MAX_ENTRIES_PROP} and {@value #IDLE_TIMEOUT_PROP}. The copies of
+ * a model loaded for several workers count as one model.
+ * 
+ * @author Carlos Garcia
+ */
+public class RunnerCache {
+	
+	public static final String MAX_ENTRIES_PROP = "deepimagej.cache.max_models";
+	
+	public static final String IDLE_TIMEOUT_PROP = "deepimagej.cache.idle_timeout";
+	
+	private static final int MAX_ENTRIES = Integer.getInteger(MAX_ENTRIES_PROP, 2);
+	
+	private static final long IDLE_TIMEOUT_MS = Long.getLong(IDLE_TIMEOUT_PROP, 600) * 1000;
+	
+	private static final LinkedHashMap<String, Lease> CACHE = new LinkedHashMap<String, Lease>(16, 0.75f, true);
+	
+	private static final Map<String, ModelDescriptor> DESCRIPTORS = new HashMap<String, ModelDescriptor>();
+	
+	private static final Map<String, Long> DESCRIPTOR_TIMES = new HashMap<String, Long>();
+	
+	private static ScheduledExecutorService CLEANER;
+	
+	/**
+	 * A model taken from the cache. Closing the lease gives the model back to the cache,
+	 * it does not close the model unless it has been evicted meanwhile.
+	 */
+	public static class Lease implements AutoCloseable {
+		
+		private final ModelDescriptor descriptor;
+		
+		private final Runner runner;
+		
+		/**
+		 * Key of the model, shared by all its copies
+		 */
+		private final String model;
+		
+		private boolean inUse = false;
+		
+		private boolean evicted = false;
+		
+		private long lastUsed = System.currentTimeMillis();
+		
+		private Lease(ModelDescriptor descriptor, Runner runner, String model) {
+			this.descriptor = descriptor;
+			this.runner = runner;
+			this.model = model;
+		}
+		
+		public ModelDescriptor getDescriptor() {
+			return descriptor;
+		}
+		
+		public Runner getRunner() {
+			return runner;
+		}
+
+		@Override
+		public void close() {
+			release(this);
+		}
+	}
+	
+	/**
+	 * Get the descriptor of a model, the rdf.yaml file is only read again if it has been modified
+	 * @param modelFolder
+	 * 	folder of the model
+	 * @return the descriptor of the model
+	 */
+	public static ModelDescriptor getDescriptor(String modelFolder) throws ModelSpecsException, IOException {
+		File rdf = new File(modelFolder, Constants.RDF_FNAME);
+		String key = rdf.getAbsolutePath();
+		synchronized (CACHE) {
+			Long time = DESCRIPTOR_TIMES.get(key);
+			if (time != null && time == rdf.lastModified())
+				return DESCRIPTORS.get(key);
+		}
+		long time = rdf.lastModified();
+		ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(rdf.getAbsolutePath());
+		synchronized (CACHE) {
+			DESCRIPTORS.put(key, descriptor);
+			DESCRIPTOR_TIMES.put(key, time);
+		}
+		return descriptor;
+	}
+	
+	/**
+	 * Get a loaded model from the cache, loading it if it is not there yet
+	 * @param descriptor
+	 * 	descriptor of the model, obtained with {@link #getDescriptor(String)}
+	 * @param enginesDir
+	 * 	folder where the engines are installed
+	 * @param slot
+	 * 	index of the instance of the model, used when several copies of the same model are loaded
+	 * @return the lease of the model, which needs to be closed once the model is not needed anymore
+	 */
+	public static Lease acquire(ModelDescriptor descriptor, String enginesDir, int slot) 
+			throws IOException, LoadEngineException, LoadModelException {
+		String model = new File(descriptor.getModelPath()).getAbsolutePath() + File.pathSeparator + enginesDir;
+		String key = model + File.pathSeparator + slot;
+		Lease stale = null;
+		synchronized (CACHE) {
+			Lease lease = CACHE.get(key);
+			if (lease != null && lease.descriptor != descriptor) {
+				CACHE.remove(key);
+				lease.evicted = true;
+				stale = lease.inUse ? null : lease;
+			} else if (lease != null && !lease.inUse) {
+				lease.inUse = true;
+				return lease;
+			}
+		}
+		if (stale != null)
+			closeQuietly(stale);
+		Runner runner = Runner.create(descriptor, enginesDir);
+		Lease lease = new Lease(descriptor, runner, model);
+		lease.inUse = true;
+		try {
+			runner.load(true);
+		} catch (LoadModelException | RuntimeException ex) {
+			closeQuietly(lease);
+			throw ex;
+		}
+		List<Lease> evicted = new ArrayList<Lease>();
+		synchronized (CACHE) {
+			if (!CACHE.containsKey(key))
+				CACHE.put(key, lease);
+			else
+				lease.evicted = true;
+			evicted.addAll(evict(false));
+			startCleaner();
+		}
+		evicted.stream().forEach(RunnerCache::closeQuietly);
+		return lease;
+	}
+	
+	/**
+	 * Close every model in the cache. Models that are being used are closed once they are released.
+	 */
+	public static void flush() {
+		List<Lease> evicted;
+		synchronized (CACHE) {
+			evicted = evict(true);
+			DESCRIPTORS.clear();
+			DESCRIPTOR_TIMES.clear();
+		}
+		evicted.stream().forEach(RunnerCache::closeQuietly);
+	}
+	
+	private static void release(Lease lease) {
+		boolean close;
+		synchronized (CACHE) {
+			lease.inUse = false;
+			lease.lastUsed = System.currentTimeMillis();
+			close = lease.evicted;
+		}
+		if (close)
+			closeQuietly(lease);
+	}
+	
+	/**
+	 * Remove the entries that are idle for too long or that do not fit in the cache.
+	 * Needs to be called holding the lock of the cache.
+	 * @return the entries removed that can be closed now
+	 */
+	private static List<Lease> evict(boolean all) {
+		List<Lease> toClose = new ArrayList<Lease>();
+		long now = System.currentTimeMillis();
+		// Models from the least to the most recently used, by the last use of any of their copies
+		Set<String> models = new LinkedHashSet<String>();
+		for (Lease lease : CACHE.values()) {
+			models.remove(lease.model);
+			models.add(lease.model);
+		}
+		Set<String> surplus = new LinkedHashSet<String>();
+		Iterator<String> oldest = models.iterator();
+		for (int i = models.size(); i > MAX_ENTRIES; i --)
+			surplus.add(oldest.next());
+		Iterator<Map.Entry<String, Lease>> it = CACHE.entrySet().iterator();
+		while (it.hasNext()) {
+			Lease lease = it.next().getValue();
+			boolean idle = !lease.inUse && now - lease.lastUsed > IDLE_TIMEOUT_MS;
+			if (!all && !idle && !surplus.contains(lease.model))
+				continue;
+			if (!all && !idle && lease.inUse)
+				continue;
+			it.remove();
+			lease.evicted = true;
+			if (!lease.inUse)
+				toClose.add(lease);
+		}
+		return toClose;
+	}
+	
+	private static void startCleaner() {
+		if (CLEANER != null)
+			return;
+		CLEANER = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread th = new Thread(r, "deepimagej-model-cache");
+			th.setDaemon(true);
+			return th;
+		});
+		long period = Math.max(1000, IDLE_TIMEOUT_MS / 4);
+		CLEANER.scheduleAtFixedRate(() -> {
+			List<Lease> evicted;
+			synchronized (CACHE) {
+				evicted = evict(false);
+			}
+			evicted.stream().forEach(RunnerCache::closeQuietly);
+		}, period, period, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(RunnerCache::flush));
+	}
+	
+	private static void closeQuietly(Lease lease) {
+		try {
+			lease.runner.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
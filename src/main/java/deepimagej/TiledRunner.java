@@ -0,0 +1,290 @@
+/*
+ * DeepImageJ
+ * 
+ * https://deepimagej.github.io/deepimagej/
+ * 
+ * Reference: DeepImageJ: A user-friendly environment to run deep learning models in ImageJ
+ * E. Gomez-de-Mariscal, C. Garcia-Lopez-de-Haro, W. Ouyang, L. Donati, M. Unser, E. Lundberg, A. Munoz-Barrutia, D. Sage. 
+ * Submitted 2021.
+ * Bioengineering and Aerospace Engineering Department, Universidad Carlos III de Madrid, Spain
+ * Biomedical Imaging Group, Ecole polytechnique federale de Lausanne (EPFL), Switzerland
+ * Science for Life Laboratory, School of Engineering Sciences in Chemistry, Biotechnology and Health, KTH - Royal Institute of Technology, Sweden
+ * 
+ * Authors: Carlos Garcia-Lopez-de-Haro and Estibaliz Gomez-de-Mariscal
+ *
+ */
+
+/*
+ * BSD 2-Clause License
+ *
+ * Copyright (c) 2019-2021, DeepImageJ
+ * All rights reserved.
+ *	
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *	  this list of conditions and the following disclaimer in the documentation
+ *	  and/or other materials provided with the distribution.
+ *	
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package deepimagej;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import deepimagej.tools.TensorSpecTools;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.exceptions.RunModelException;
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Run a model on an image tile by tile, for images that are too big to be processed at once.
+ * The size of the tiles follows the shape constraints of the input tensor (minimum size and step)
+ * and each tile is enlarged with the halo defined for the outputs, which is cropped before 
+ * writing the result into the output image. Tiles are only views of the input image, so the 
+ * memory needed by the model depends on the tile size and not on the image size.
+ * 
+ * Only the spatial axes (x, y and z) are tiled and only models whose outputs have the same
+ * spatial size as the input are supported.
+ * 
+ * @author Carlos Garcia
+ */
+public class TiledRunner {
+	
+	private static final String TILED_AXES = "xyz";
+
+	/**
+	 * Run the model tile by tile
+	 * @param runner
+	 * 	runner with the model loaded
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param input
+	 * 	input tensor, in the axes order of the input specs
+	 * @param tileSize
+	 * 	wanted size of the tiles along the spatial axes, without the halo. It is adapted
+	 * 	to the closest size accepted by the model
+	 * @return the output tensors, with the same spatial size as the input
+	 * @throws RunModelException if there is any error running the model
+	 */
+	public static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>>
+	List<Tensor<R>> run(Runner runner, ModelDescriptor descriptor, Tensor<T> input, long tileSize) throws RunModelException {
+		return run(runner, descriptor, input, tileSize, null);
+	}
+
+	/**
+	 * Run the model tile by tile, taking the output images from a pool
+	 * @param runner
+	 * 	runner with the model loaded
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param input
+	 * 	input tensor, in the axes order of the input specs
+	 * @param tileSize
+	 * 	wanted size of the tiles along the spatial axes, without the halo
+	 * @param pool
+	 * 	pool the output images are taken from, they can be given back once they are saved.
+	 * 	If null, new images are allocated
+	 * @return the output tensors, with the same spatial size as the input
+	 * @throws RunModelException if there is any error running the model
+	 */
+	public static <T extends RealType<T> & NativeType<T>, R extends RealType<R> & NativeType<R>>
+	List<Tensor<R>> run(Runner runner, ModelDescriptor descriptor, Tensor<T> input, long tileSize, BufferPool pool) 
+			throws RunModelException {
+		if (!supports(descriptor))
+			throw new IllegalArgumentException("Tiling is only supported for models with one input whose outputs are images.");
+		TensorSpec inSpec = descriptor.getInputTensors().get(0);
+		String axes = inSpec.getAxesOrder();
+		RandomAccessibleInterval<T> rai = input.getData();
+		long[] imDims = rai.dimensionsAsLongArray();
+		long[] halo = getHalo(descriptor, axes);
+		long[] tile = getTileShape(descriptor, imDims, tileSize);
+		long[] inner = new long[axes.length()];
+		long[] nTiles = new long[axes.length()];
+		for (int i = 0; i < axes.length(); i ++) {
+			if (TILED_AXES.indexOf(axes.charAt(i)) == -1) {
+				inner[i] = imDims[i];
+				nTiles[i] = 1;
+				continue;
+			}
+			inner[i] = tile[i] - 2 * halo[i];
+			if (inner[i] <= 0)
+				throw new IllegalArgumentException(String.format("The halo of the axis '%s' (%s) is too big for the tile size "
+						+ "accepted by the model (%s).", axes.charAt(i), halo[i], tile[i]));
+			nTiles[i] = (long) Math.ceil(imDims[i] / (double) inner[i]);
+		}
+		
+		RandomAccessible<T> extended = Views.extendMirrorSingle(rai);
+		List<RandomAccessibleInterval<R>> outImgs = null;
+		List<Tensor<R>> outs = null;
+		long[] pos = new long[axes.length()];
+		do {
+			long[] offset = new long[axes.length()];
+			long[] tMin = new long[axes.length()];
+			long[] tMax = new long[axes.length()];
+			for (int i = 0; i < axes.length(); i ++) {
+				offset[i] = pos[i] * inner[i];
+				tMin[i] = rai.min(i) + offset[i] - halo[i];
+				tMax[i] = tMin[i] + tile[i] - 1;
+			}
+			RandomAccessibleInterval<T> tileRai = Views.zeroMin(Views.interval(extended, tMin, tMax));
+			List<Tensor<T>> ins = new ArrayList<Tensor<T>>();
+			ins.add(Tensor.build(input.getName(), axes, tileRai));
+			outs = runner.run(ins);
+			if (outImgs == null)
+				outImgs = allocate(outs, axes, imDims, pool);
+			for (int o = 0; o < outs.size(); o ++)
+				paste(outs.get(o), outImgs.get(o), axes, offset, halo, inner, tile, imDims);
+		} while (next(pos, nTiles));
+		
+		List<Tensor<R>> result = new ArrayList<Tensor<R>>();
+		for (int o = 0; o < outs.size(); o ++)
+			result.add(pool != null ? pool.tensor(outs.get(o).getName(), outs.get(o).getAxesOrderString(), (Img<R>) outImgs.get(o))
+					: Tensor.build(outs.get(o).getName(), outs.get(o).getAxesOrderString(), outImgs.get(o)));
+		return result;
+	}
+	
+	/**
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @return whether the model can be run tile by tile: it has one input and all the outputs are images
+	 */
+	public static boolean supports(ModelDescriptor descriptor) {
+		if (descriptor.getInputTensors().size() != 1)
+			return false;
+		for (TensorSpec spec : descriptor.getOutputTensors()) {
+			if (!spec.isImage())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Shape of the tiles used to run the model on an image, halo included
+	 * @param descriptor
+	 * 	descriptor of the model
+	 * @param imDims
+	 * 	dimensions of the input image, in the axes order of the input specs
+	 * @param tileSize
+	 * 	wanted size of the tiles along the spatial axes, without the halo
+	 * @return the dimensions of the input of the model for each tile
+	 */
+	static long[] getTileShape(ModelDescriptor descriptor, long[] imDims, long tileSize) {
+		TensorSpec inSpec = descriptor.getInputTensors().get(0);
+		String axes = inSpec.getAxesOrder();
+		int[] min = TensorSpecTools.getMin(inSpec);
+		int[] step = TensorSpecTools.getStep(inSpec);
+		long[] halo = getHalo(descriptor, axes);
+		long[] tile = imDims.clone();
+		for (int i = 0; i < axes.length(); i ++) {
+			if (TILED_AXES.indexOf(axes.charAt(i)) != -1)
+				tile[i] = TensorSpecTools.validSize(min[i], step[i], Math.min(tileSize, imDims[i]) + 2 * halo[i]);
+		}
+		return tile;
+	}
+	
+	/**
+	 * Halo of each input axis, the biggest halo among the outputs that have that axis
+	 */
+	private static long[] getHalo(ModelDescriptor descriptor, String axes) {
+		long[] halo = new long[axes.length()];
+		for (TensorSpec spec : descriptor.getOutputTensors()) {
+			int[] outHalo = TensorSpecTools.getHalo(spec);
+			String outAxes = spec.getAxesOrder();
+			for (int i = 0; i < outAxes.length(); i ++) {
+				int ind = axes.indexOf(outAxes.charAt(i));
+				if (ind != -1 && TILED_AXES.indexOf(outAxes.charAt(i)) != -1)
+					halo[ind] = Math.max(halo[ind], outHalo[i]);
+			}
+		}
+		return halo;
+	}
+	
+	private static <R extends RealType<R> & NativeType<R>>
+	List<RandomAccessibleInterval<R>> allocate(List<Tensor<R>> firstTile, String axes, long[] imDims, BufferPool pool) {
+		List<RandomAccessibleInterval<R>> outImgs = new ArrayList<RandomAccessibleInterval<R>>();
+		for (Tensor<R> tt : firstTile) {
+			String outAxes = tt.getAxesOrderString();
+			long[] dims = tt.getData().dimensionsAsLongArray();
+			for (int i = 0; i < outAxes.length(); i ++) {
+				int ind = axes.indexOf(outAxes.charAt(i));
+				if (ind != -1 && TILED_AXES.indexOf(outAxes.charAt(i)) != -1)
+					dims[i] = imDims[ind];
+			}
+			R type = Util.getTypeFromInterval(tt.getData()).createVariable();
+			if (pool != null)
+				outImgs.add(pool.acquire(type, dims));
+			else
+				outImgs.add(Util.getSuitableImgFactory(new FinalDimensions(dims), type).create(dims));
+		}
+		return outImgs;
+	}
+	
+	/**
+	 * Copy the valid part of the output of a tile, without the halo, into the output image
+	 */
+	private static <R extends RealType<R> & NativeType<R>>
+	void paste(Tensor<R> tileOut, RandomAccessibleInterval<R> outImg, String axes, 
+			long[] offset, long[] halo, long[] inner, long[] tile, long[] imDims) {
+		String outAxes = tileOut.getAxesOrderString();
+		RandomAccessibleInterval<R> src = Views.zeroMin(tileOut.getData());
+		long[] srcMin = new long[outAxes.length()];
+		long[] dstMin = new long[outAxes.length()];
+		long[] size = src.dimensionsAsLongArray();
+		for (int i = 0; i < outAxes.length(); i ++) {
+			int ind = axes.indexOf(outAxes.charAt(i));
+			if (ind == -1 || TILED_AXES.indexOf(outAxes.charAt(i)) == -1)
+				continue;
+			if (size[i] != tile[ind])
+				throw new IllegalArgumentException(String.format("Tiling is only supported for models whose outputs have "
+						+ "the same size as the input. Output '%s' has size %s along axis '%s' for a tile of size %s.",
+						tileOut.getName(), size[i], outAxes.charAt(i), tile[ind]));
+			srcMin[i] = halo[ind];
+			dstMin[i] = offset[ind];
+			size[i] = Math.min(inner[ind], imDims[ind] - offset[ind]);
+		}
+		long[] srcMax = new long[size.length];
+		long[] dstMax = new long[size.length];
+		for (int i = 0; i < size.length; i ++) {
+			srcMax[i] = srcMin[i] + size[i] - 1;
+			dstMax[i] = dstMin[i] + size[i] - 1;
+		}
+		RandomAccessibleInterval<R> srcCrop = Views.zeroMin(Views.interval(src, srcMin, srcMax));
+		RandomAccessibleInterval<R> dstCrop = Views.zeroMin(Views.interval(outImg, dstMin, dstMax));
+		LoopBuilder.setImages(srcCrop, dstCrop).forEachPixel((s, d) -> d.set(s));
+	}
+	
+	private static boolean next(long[] pos, long[] nTiles) {
+		for (int i = 0; i < pos.length; i ++) {
+			if (++ pos[i] < nTiles[i])
+				return true;
+			pos[i] = 0;
+		}
+		return false;
+	}
+}
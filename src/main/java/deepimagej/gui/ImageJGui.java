@@ -14,7 +14,6 @@ import deepimagej.Runner;
 import deepimagej.tools.ImPlusRaiManager;
 import ij.ImagePlus;
 import ij.WindowManager;
-import ij.plugin.CompositeConverter;
 import ij.plugin.frame.Recorder;
 import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
 import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
@@ -23,7 +22,6 @@ import io.bioimage.modelrunner.gui.adapter.GuiAdapter;
 import io.bioimage.modelrunner.gui.adapter.RunnerAdapter;
 import io.bioimage.modelrunner.tensor.Tensor;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
@@ -145,13 +143,12 @@ public class ImageJGui implements GuiAdapter {
 	}
 	
 	private static <T extends RealType<T> & NativeType<T>> Tensor<T> buildTensor(ImagePlus imp, TensorSpec tensorSpec) {
-		boolean isColorRGB = imp.getType() == ImagePlus.COLOR_RGB;
-		imp = isColorRGB ? CompositeConverter.makeComposite(imp) : imp;
-		RandomAccessibleInterval<T> rai = Views.dropSingletonDimensions((RandomAccessibleInterval<T>) ImageJFunctions.wrap(imp));
+		RandomAccessibleInterval<T> rai = Views.dropSingletonDimensions(ImPlusRaiManager.<T>wrap(imp));
+		int nChannels = ImPlusRaiManager.getNChannels(imp);
 		String axesOrder = "xy";
-		if (imp.getNChannels() != 1 && (tensorSpec.getAxesOrder().toLowerCase().contains("c") || imp.getNFrames() != 1))
+		if (nChannels != 1 && (tensorSpec.getAxesOrder().toLowerCase().contains("c") || imp.getNFrames() != 1))
 			axesOrder += "c";
-		if (imp.getNChannels() != 1 && !tensorSpec.getAxesOrder().toLowerCase().contains("c") && imp.getNFrames() == 1)
+		if (nChannels != 1 && !tensorSpec.getAxesOrder().toLowerCase().contains("c") && imp.getNFrames() == 1)
 			axesOrder += "b";
 		if (imp.getNSlices() != 1 && (tensorSpec.getAxesOrder().toLowerCase().contains("z") || imp.getNFrames() != 1) || axesOrder.contains("b"))
 			axesOrder += "z";
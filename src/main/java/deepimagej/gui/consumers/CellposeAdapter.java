@@ -52,8 +52,8 @@ import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 
+import deepimagej.tools.ImPlusRaiManager;
 import ij.ImagePlus;
-import ij.plugin.CompositeConverter;
 import ij.plugin.frame.Recorder;
 import io.bioimage.modelrunner.gui.custom.gui.CellposeGUI;
 
@@ -105,12 +105,12 @@ public class CellposeAdapter extends SmallPluginAdapter {
 	        cbox.setModel(new DefaultComboBoxModel<>(CellposeGUI.ALL_LIST));
 	        return;
 		}
-		imp = imp.getType() == ImagePlus.COLOR_RGB ? CompositeConverter.makeComposite(imp) : imp;
-		if ((imp.getType() == ImagePlus.COLOR_RGB || imp.getNChannels() == 3) && cbox.getItemCount() != 2) {
+		int nChannels = ImPlusRaiManager.getNChannels(imp);
+		if (nChannels == 3 && cbox.getItemCount() != 2) {
 	        cbox.setModel(new DefaultComboBoxModel<>(CellposeGUI.RGB_LIST));
-		} else if (imp.getNChannels() == 1 && imp.getType() != ImagePlus.COLOR_RGB && cbox.getItemCount() != 1) {
+		} else if (nChannels == 1 && cbox.getItemCount() != 1) {
 	        cbox.setModel(new DefaultComboBoxModel<>(CellposeGUI.GRAYSCALE_LIST));
-		} else if (imp.getNChannels() != 1 && imp.getNChannels() != 3) {
+		} else if (nChannels != 1 && nChannels != 3) {
 	        cbox.setModel(new DefaultComboBoxModel<>(CellposeGUI.ALL_LIST));
 		}
 	}
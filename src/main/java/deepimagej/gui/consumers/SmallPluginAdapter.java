@@ -56,7 +56,6 @@ import ij.ImageListener;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.ImageWindow;
-import ij.plugin.CompositeConverter;
 import io.bioimage.modelrunner.gui.custom.ConsumerInterface;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
@@ -137,9 +136,7 @@ public abstract class SmallPluginAdapter extends ConsumerInterface implements Im
 		ImagePlus imp = WindowManager.getCurrentImage();
 		if (imp == null)
 			return null;
-		boolean isColorRGB = imp.getType() == ImagePlus.COLOR_RGB;
-		RandomAccessibleInterval<T> rai = 
-				ImPlusRaiManager.convert(isColorRGB ? CompositeConverter.makeComposite(imp) : imp, "xyczt");
+		RandomAccessibleInterval<T> rai = ImPlusRaiManager.convert(imp, "xyczt");
 		return rai;
 	}
 
@@ -158,8 +155,7 @@ public abstract class SmallPluginAdapter extends ConsumerInterface implements Im
 		ImagePlus imp = (ImagePlus) getFocusedImage();
 		if(imp == null)
 			return null;
-		boolean isColorRGB = imp.getType() == ImagePlus.COLOR_RGB;
-		return isColorRGB ? CompositeConverter.makeComposite(imp).getNChannels() : imp.getNChannels() ;
+		return ImPlusRaiManager.getNChannels(imp);
 	}
 
 	@Override
@@ -52,8 +52,8 @@ import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 
+import deepimagej.tools.ImPlusRaiManager;
 import ij.ImagePlus;
-import ij.plugin.CompositeConverter;
 import ij.plugin.frame.Recorder;
 
 /**
@@ -99,18 +99,18 @@ public class StardistAdapter extends SmallPluginAdapter {
 	        cbox.setModel(new DefaultComboBoxModel<>(new String[] {"StarDist Fluorescence Nuclei Segmentation", "StarDist H&E Nuclei Segmentation", "your custom model"}));
 	        return;
 		}
-		imp = imp.getType() == ImagePlus.COLOR_RGB ? CompositeConverter.makeComposite(imp) : imp;
-		if ((imp.getType() == ImagePlus.COLOR_RGB || imp.getNChannels() == 3) 
+		int nChannels = ImPlusRaiManager.getNChannels(imp);
+		if (nChannels == 3 
 				&& (nItems != 2 || !firstItem.equals("StarDist H&E Nuclei Segmentation"))) {
 	        cbox.setModel(new DefaultComboBoxModel<>(new String[] {"StarDist H&E Nuclei Segmentation", "your custom model"}));
 	        if (selected.equals("your custom model"))
 	        	cbox.setSelectedIndex(1);
-		} else if (imp.getNChannels() == 1 && imp.getType() != ImagePlus.COLOR_RGB 
+		} else if (nChannels == 1 
 				&& (nItems != 2 || !firstItem.equals("StarDist Fluorescence Nuclei Segmentation"))) {
 	        cbox.setModel(new DefaultComboBoxModel<>(new String[] {"StarDist Fluorescence Nuclei Segmentation", "your custom model"}));
 	        if (selected.equals("your custom model"))
 	        	cbox.setSelectedIndex(1);
-		} else if (imp.getNChannels() != 1 && imp.getNChannels() != 3 && nItems != 3) {
+		} else if (nChannels != 1 && nChannels != 3 && nItems != 3) {
 	        cbox.setModel(new DefaultComboBoxModel<>(new String[] {"StarDist Fluorescence Nuclei Segmentation", "StarDist H&E Nuclei Segmentation", "your custom model"}));
 	        if (selected.equals("your custom model"))
 	        	cbox.setSelectedIndex(2);
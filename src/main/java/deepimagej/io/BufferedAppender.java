@@ -0,0 +1,63 @@
+package deepimagej.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Output saved in parts for the formats that cannot be written part by part: the parts are kept
+ * and the output is saved at once when it is finished
+ *
+ * @author Carlos Garcia
+ */
+class BufferedAppender<T extends RealType<T> & NativeType<T>> implements OutputWriter.Appender<T> {
+
+	private final OutputWriter writer;
+
+	private final String folder;
+
+	private final String name;
+
+	private final String axesOrder;
+
+	private final List<RandomAccessibleInterval<T>> parts = new ArrayList<RandomAccessibleInterval<T>>();
+
+	BufferedAppender(OutputWriter writer, String folder, String name, String axesOrder) {
+		this.writer = writer;
+		this.folder = folder;
+		this.name = name;
+		this.axesOrder = axesOrder;
+	}
+
+	@Override
+	public long append(RandomAccessibleInterval<T> part) {
+		parts.add(part);
+		return 0;
+	}
+
+	@Override
+	public long finish() throws IOException {
+		if (parts.size() == 0)
+			throw new IllegalStateException("No data has been saved for " + name);
+		int bInd = axesOrder.toLowerCase().replaceAll("t", "b").indexOf("b");
+		if (parts.size() > 1 && bInd == -1)
+			throw new IllegalArgumentException("Only outputs with a batch axis can be saved in parts: " + name);
+		RandomAccessibleInterval<T> rai = parts.size() == 1 ? parts.get(0) : Views.concatenate(bInd, parts);
+		return writer.write(folder, name, rai, axesOrder);
+	}
+
+	@Override
+	public boolean retainsParts() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+		parts.clear();
+	}
+}
@@ -0,0 +1,236 @@
+package deepimagej.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Queue of outputs waiting to be saved, so the outputs are written by a dedicated thread while the
+ * model keeps running. The queue is bounded by the bytes of the outputs it holds: when it is full,
+ * {@link #submit} waits until enough outputs have been written, so slow storage only slows down
+ * the model when the queue is full.
+ *
+ * The outputs are written in the order they are submitted, one at a time. The first error stops
+ * the execution, including errors such as {@link OutOfMemoryError} that would otherwise only end the
+ * writer thread: it is thrown by the next call to {@link #submit} or {@link #flush}.
+ *
+ * @author Carlos Garcia
+ */
+public class CommitQueue implements AutoCloseable {
+
+	/**
+	 * Saving of an output
+	 */
+	public interface Task {
+		/**
+		 * @return the number of bytes written
+		 * @throws IOException if the output cannot be saved
+		 */
+		long run() throws IOException;
+	}
+
+	/**
+	 * Action run on the writer thread once an output has been saved
+	 */
+	public interface Callback {
+		/**
+		 * @param bytes
+		 * 	number of bytes written
+		 * @throws IOException if the action fails
+		 */
+		void committed(long bytes) throws IOException;
+	}
+
+	private final long capacity;
+
+	private final ThreadPoolExecutor executor;
+
+	private long queued;
+
+	private int pending;
+
+	private Throwable failure;
+
+	/**
+	 * @param capacity
+	 * 	maximum number of bytes of the outputs waiting to be saved. An output bigger than the
+	 * 	capacity is accepted when the queue is empty
+	 */
+	public CommitQueue(long capacity) {
+		this.capacity = capacity;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread thread = new Thread(r, "deepimagej-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queue an output, waiting while the queue is full
+	 * @param bytes
+	 * 	memory held by the output until it is saved, see {@link #sizeOf}
+	 * @param task
+	 * 	saving of the output
+	 * @param callback
+	 * 	action run once the output is saved, can be null
+	 * @throws IOException if saving a previous output failed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void submit(long bytes, Task task, Callback callback) throws IOException, InterruptedException {
+		synchronized (this) {
+			checkFailure();
+			while (queued > 0 && queued + bytes > capacity) {
+				wait();
+				checkFailure();
+			}
+			queued += bytes;
+			pending ++;
+		}
+		try {
+			executor.execute(new Commit(bytes, task, callback));
+		} catch (RejectedExecutionException ex) {
+			done(bytes, null);
+			throw new IllegalStateException("The outputs cannot be saved after the queue is closed.");
+		}
+	}
+
+	/**
+	 * Wait until all the outputs submitted have been saved
+	 * @throws IOException if saving any of the outputs failed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized void flush() throws IOException, InterruptedException {
+		awaitIdle();
+		checkFailure();
+	}
+
+	/**
+	 * Wait until all the outputs submitted have been saved or have failed, without throwing the errors
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (pending > 0)
+			wait();
+	}
+
+	/**
+	 * Discard the outputs that have not started to be saved and wait for the one that is being saved,
+	 * so no file is left half written
+	 */
+	public void cancel() {
+		List<Runnable> dropped = new ArrayList<Runnable>();
+		executor.getQueue().drainTo(dropped);
+		for (Runnable rr : dropped)
+			done(((Commit) rr).bytes, null);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Wait until all the outputs have been saved and stop the writer thread
+	 * @throws IOException if saving any of the outputs failed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	@Override
+	public void close() throws IOException, InterruptedException {
+		try {
+			flush();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @param rai
+	 * 	image
+	 * @return the memory held by an image, assuming its pixels are stored in an array
+	 */
+	public static <T extends RealType<T> & NativeType<T>> long sizeOf(RandomAccessibleInterval<T> rai) {
+		int bytes;
+		try {
+			bytes = RawData.getBytes(Views.iterable(rai).firstElement());
+		} catch (IllegalArgumentException ex) {
+			bytes = Double.BYTES;
+		}
+		return Intervals.numElements(rai) * bytes;
+	}
+
+	/**
+	 * @param n
+	 * 	number of outputs
+	 * @param callback
+	 * 	action run once all the outputs are saved, with the total number of bytes written
+	 * @return a callback that runs the action the n-th time it is called
+	 */
+	public static Callback countDown(int n, Callback callback) {
+		AtomicInteger remaining = new AtomicInteger(n);
+		AtomicLong total = new AtomicLong();
+		return bytes -> {
+			long sum = total.addAndGet(bytes);
+			if (remaining.decrementAndGet() == 0)
+				callback.committed(sum);
+		};
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure instanceof IOException)
+			throw new IOException(failure.getMessage(), failure);
+		else if (failure instanceof Error)
+			throw (Error) failure;
+		else if (failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	private synchronized void done(long bytes, Throwable ex) {
+		if (ex != null && failure == null)
+			failure = ex;
+		queued -= bytes;
+		pending --;
+		notifyAll();
+	}
+
+	private class Commit implements Runnable {
+
+		private final long bytes;
+
+		private final Task task;
+
+		private final Callback callback;
+
+		private Commit(long bytes, Task task, Callback callback) {
+			this.bytes = bytes;
+			this.task = task;
+			this.callback = callback;
+		}
+
+		@Override
+		public void run() {
+			Throwable error = null;
+			try {
+				long written = task.run();
+				if (callback != null)
+					callback.committed(written);
+			} catch (Throwable ex) {
+				error = ex;
+			} finally {
+				done(bytes, error);
+			}
+		}
+	}
+}
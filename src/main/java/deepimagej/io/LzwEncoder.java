@@ -0,0 +1,116 @@
+package deepimagej.io;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * LZW compression as defined by the TIFF specification (compression 5): codes of 9 to 12 bits
+ * packed with the most significant bit first, a clear code at the start and when the table is full,
+ * and the change of code width one code earlier than in plain LZW, as libtiff does.
+ *
+ * @author Carlos Garcia
+ */
+final class LzwEncoder {
+
+	private static final int CLEAR = 256;
+
+	private static final int EOI = 257;
+
+	private static final int FIRST_CODE = 258;
+
+	private static final int MIN_BITS = 9;
+
+	private static final int MAX_CODE = 4095;
+
+	/**
+	 * Code of each string, indexed by the code of its prefix and its last byte, 0 if it is not in the table
+	 */
+	private final short[] table = new short[(MAX_CODE + 1) * 256];
+
+	/**
+	 * Positions of the table in use, so the table is cleared without filling it completely
+	 */
+	private final int[] used = new int[MAX_CODE + 1];
+
+	private int nUsed;
+
+	private ByteArrayOutputStream out;
+
+	private int bitBuffer;
+
+	private int nBits;
+
+	/**
+	 * Compress a strip
+	 * @param data
+	 * 	uncompressed data
+	 * @param length
+	 * 	number of bytes of the data
+	 * @return the compressed data
+	 */
+	byte[] encode(byte[] data, int length) {
+		out = new ByteArrayOutputStream(length / 2 + 16);
+		bitBuffer = 0;
+		nBits = 0;
+		int width = MIN_BITS;
+		int next = FIRST_CODE;
+		clearTable();
+		put(CLEAR, width);
+		if (length == 0) {
+			put(EOI, width);
+			return finish();
+		}
+		int prefix = data[0] & 0xff;
+		for (int i = 1; i < length; i ++) {
+			int k = data[i] & 0xff;
+			int code = table[(prefix << 8) | k];
+			if (code != 0) {
+				prefix = code;
+				continue;
+			}
+			put(prefix, width);
+			table[(prefix << 8) | k] = (short) next ++;
+			used[nUsed ++] = (prefix << 8) | k;
+			prefix = k;
+			if (next == MAX_CODE - 1) {
+				put(CLEAR, width);
+				clearTable();
+				width = MIN_BITS;
+				next = FIRST_CODE;
+			} else if (next > (1 << width) - 1) {
+				width ++;
+			}
+		}
+		put(prefix, width);
+		next ++;
+		if (next == MAX_CODE - 1) {
+			put(CLEAR, width);
+			width = MIN_BITS;
+		} else if (next > (1 << width) - 1) {
+			width ++;
+		}
+		put(EOI, width);
+		return finish();
+	}
+
+	private void clearTable() {
+		for (int i = 0; i < nUsed; i ++)
+			table[used[i]] = 0;
+		nUsed = 0;
+	}
+
+	private void put(int code, int width) {
+		bitBuffer = (bitBuffer << width) | code;
+		nBits += width;
+		while (nBits >= 8) {
+			out.write((bitBuffer >>> (nBits - 8)) & 0xff);
+			nBits -= 8;
+		}
+		bitBuffer &= (1 << nBits) - 1;
+	}
+
+	private byte[] finish() {
+		if (nBits > 0)
+			out.write((bitBuffer << (8 - nBits)) & 0xff);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,178 @@
+package deepimagej.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Saves the outputs as NumPy .npy files (version 1.0 of the format). The array keeps the axes 
+ * order of the output tensor and is saved in Fortran order, which is the order in which imglib2 
+ * stores the data, so the data is copied directly from the output.
+ * Outputs saved part by part, see {@link #open(String, String, String)}, are saved in C order instead,
+ * so every part is written after the previous one.
+ * 
+ * @author Carlos Garcia
+ */
+public class NpyOutputWriter implements OutputWriter {
+	
+	public static final String EXTENSION = ".npy";
+	
+	private static final byte[] MAGIC = new byte[] {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+	
+	/**
+	 * The header, including the magic string and its length, needs to be a multiple of this
+	 */
+	private static final int HEADER_ALIGNMENT = 64;
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>> 
+	long write(String folder, String name, RandomAccessibleInterval<T> rai, String axesOrder) throws IOException {
+		T type = Views.iterable(rai).firstElement();
+		String dict = createDict(RawData.getDtype(type), true, rai.dimensionsAsLongArray());
+		Path file = Paths.get(folder, name + EXTENSION);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, createHeader(dict, getAlignedSize(dict)));
+			RawData.write(channel, rai, ByteOrder.LITTLE_ENDIAN);
+			return channel.size();
+		}
+	}
+	
+	/**
+	 * Open an output that is saved in parts along its batch axis. Every part is written as soon as it is
+	 * appended, and the header with the final shape at the end. The axes before the batch axis need to
+	 * have size 1, which is the case when the batch axis is the first one
+	 */
+	@Override
+	public <T extends RealType<T> & NativeType<T>> 
+	Appender<T> open(String folder, String name, String axesOrder) throws IOException {
+		return new NpyAppender<T>(Paths.get(folder, name + EXTENSION), axesOrder);
+	}
+	
+	@Override
+	public boolean appendsParts() {
+		return true;
+	}
+	
+	@Override
+	public void sync(String folder, String name) throws IOException {
+		RawData.force(Paths.get(folder, name + EXTENSION));
+	}
+	
+	private static String createDict(String dtype, boolean fortranOrder, long[] shape) {
+		String shapeStr = "(";
+		for (int i = 0; i < shape.length; i ++)
+			shapeStr += shape[i] + (shape.length == 1 || i < shape.length - 1 ? "," : "") + (i < shape.length - 1 ? " " : "");
+		shapeStr += ")";
+		return "{'descr': '" + dtype + "', 'fortran_order': " + (fortranOrder ? "True" : "False") + ", 'shape': " + shapeStr + ", }";
+	}
+	
+	/**
+	 * @return the smallest size of the header that holds the dictionary and is aligned
+	 */
+	private static int getAlignedSize(String dict) {
+		int total = MAGIC.length + 2 + dict.length() + 1;
+		return (total + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT * HEADER_ALIGNMENT;
+	}
+	
+	/**
+	 * @return the magic string, the length of the header and the dictionary padded with spaces and ended 
+	 * 	with a new line, with the given total size
+	 */
+	private static ByteBuffer createHeader(String dict, int size) {
+		int length = size - MAGIC.length - 2;
+		StringBuilder header = new StringBuilder(dict);
+		while (header.length() < length - 1)
+			header.append(' ');
+		byte[] headerBytes = header.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(MAGIC).putShort((short) headerBytes.length).put(headerBytes).flip();
+		return buffer;
+	}
+	
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+	
+	private static class NpyAppender<T extends RealType<T> & NativeType<T>> implements Appender<T> {
+		
+		private final Path file;
+		
+		private final int bInd;
+		
+		private final FileChannel channel;
+		
+		private long[] shape;
+		
+		private String dtype;
+		
+		/**
+		 * Space left for the header, big enough for any length of the batch axis
+		 */
+		private int headerSize;
+		
+		private NpyAppender(Path file, String axesOrder) throws IOException {
+			this.file = file;
+			this.bInd = axesOrder.toLowerCase().replaceAll("t", "b").indexOf("b");
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		@Override
+		public long append(RandomAccessibleInterval<T> part) throws IOException {
+			long[] partShape = part.dimensionsAsLongArray();
+			if (shape == null) {
+				for (int i = 0; i < bInd; i ++) {
+					if (partShape[i] != 1)
+						throw new IllegalArgumentException("NumPy outputs can only be saved in parts when the axes before "
+								+ "the batch axis have size 1: " + file.getFileName());
+				}
+				shape = partShape.clone();
+				shape[Math.max(bInd, 0)] = 0;
+				dtype = RawData.getDtype(Views.iterable(part).firstElement());
+				long[] maxShape = shape.clone();
+				maxShape[Math.max(bInd, 0)] = Long.MAX_VALUE;
+				headerSize = getAlignedSize(createDict(dtype, false, maxShape));
+				channel.position(headerSize);
+			} else if (bInd == -1) {
+				throw new IllegalArgumentException("Only outputs with a batch axis can be saved in parts: " + file.getFileName());
+			}
+			for (int i = 0; i < shape.length; i ++) {
+				if (i != bInd && partShape[i] != shape[i])
+					throw new IllegalArgumentException("All the parts of an output need the same size along the axis " 
+							+ i + ": " + partShape[i] + " != " + shape[i]);
+			}
+			shape[Math.max(bInd, 0)] += partShape[Math.max(bInd, 0)];
+			// Reversing the axes makes the flat iteration follow the C order, where the batch axis changes slowest
+			RandomAccessibleInterval<T> reversed = Views.zeroMin(part);
+			for (int i = 0; i < partShape.length / 2; i ++)
+				reversed = Views.permute(reversed, i, partShape.length - 1 - i);
+			return RawData.write(channel, reversed, ByteOrder.LITTLE_ENDIAN);
+		}
+
+		@Override
+		public long finish() throws IOException {
+			if (shape == null)
+				throw new IllegalStateException("No data has been saved in " + file);
+			channel.position(0);
+			writeFully(channel, createHeader(createDict(dtype, false, shape), headerSize));
+			return headerSize;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package deepimagej.io;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Cast;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Conversion of the outputs into a smaller data type before saving them. Models usually produce
+ * 32 bit floats even when the output is a label image or a probability map. The conversion is a view
+ * of the output, the pixels are converted while they are written.
+ *
+ * The policies are:
+ *  - {@value #NONE}: the output is saved with its own data type
+ *  - {@value #AUTO}: if all the values are integers, the output is saved with the smallest of uint8,
+ *  	uint16 and int32 that holds them. Otherwise it is saved with its own data type, so no information is lost
+ *  - {@value #UINT8}, {@value #UINT16}, {@value #INT32}: the values are rounded and clipped to the type
+ *  - {@value #PROBABILITY}: values between 0 and 1 are saved as uint8, multiplied by 255
+ *
+ * A policy can be given for all the outputs, for example "auto", or for each output by name, for
+ * example "mask:uint16,prob:probability". Entries without name apply to the rest of outputs.
+ *
+ * @author Carlos Garcia
+ */
+public class OutputNarrowing {
+
+	public static final String NONE = "none";
+
+	public static final String AUTO = "auto";
+
+	public static final String UINT8 = "uint8";
+
+	public static final String UINT16 = "uint16";
+
+	public static final String INT32 = "int32";
+
+	public static final String PROBABILITY = "probability";
+
+	public static final String[] POLICIES = new String[] {NONE, AUTO, UINT8, UINT16, INT32, PROBABILITY};
+
+	private final Map<String, String> policies = new HashMap<String, String>();
+
+	private String defaultPolicy = NONE;
+
+	private OutputNarrowing() {
+	}
+
+	/**
+	 * Read the policies of the outputs
+	 * @param spec
+	 * 	policy for all the outputs or comma separated list of 'output:policy', null for {@value #NONE}
+	 * @return the policies
+	 */
+	public static OutputNarrowing parse(String spec) {
+		OutputNarrowing narrowing = new OutputNarrowing();
+		if (spec == null)
+			return narrowing;
+		for (String entry : spec.split(",")) {
+			int sep = entry.lastIndexOf(":");
+			String policy = entry.substring(sep + 1).trim().toLowerCase();
+			if (!Arrays.asList(POLICIES).contains(policy))
+				throw new IllegalArgumentException("Unsupported output data type: " + policy + ", the supported values are: "
+						+ Arrays.toString(POLICIES));
+			if (sep == -1)
+				narrowing.defaultPolicy = policy;
+			else
+				narrowing.policies.put(entry.substring(0, sep).trim(), policy);
+		}
+		return narrowing;
+	}
+
+	/**
+	 * @param outputName
+	 * 	name of the output tensor
+	 * @return the policy of the output
+	 */
+	public String getPolicy(String outputName) {
+		return policies.getOrDefault(outputName, defaultPolicy);
+	}
+
+	/**
+	 * Convert an output with its policy
+	 * @param <T>
+	 * 	data type of the output
+	 * @param <N>
+	 * 	data type of the result
+	 * @param outputName
+	 * 	name of the output tensor
+	 * @param rai
+	 * 	data of the output
+	 * @return the converted output, or the same output if it is not converted
+	 */
+	public <T extends RealType<T> & NativeType<T>, N extends RealType<N> & NativeType<N>>
+	RandomAccessibleInterval<N> apply(String outputName, RandomAccessibleInterval<T> rai) {
+		return narrow(rai, getPolicy(outputName));
+	}
+
+	/**
+	 * Convert an image with a policy
+	 * @param <T>
+	 * 	data type of the image
+	 * @param <N>
+	 * 	data type of the result
+	 * @param rai
+	 * 	image
+	 * @param policy
+	 * 	one of {@link #POLICIES}
+	 * @return the converted image, or the same image if it is not converted
+	 */
+	public static <T extends RealType<T> & NativeType<T>, N extends RealType<N> & NativeType<N>>
+	RandomAccessibleInterval<N> narrow(RandomAccessibleInterval<T> rai, String policy) {
+		if (policy.equals(AUTO))
+			policy = findIntegerType(rai);
+		switch (policy) {
+		case UINT8:
+			return Cast.unchecked(Converters.convert(rai, (i, o) -> o.set((int) clip(i.getRealDouble(), 0, 255)), new UnsignedByteType()));
+		case UINT16:
+			return Cast.unchecked(Converters.convert(rai, (i, o) -> o.set((int) clip(i.getRealDouble(), 0, 65535)), new UnsignedShortType()));
+		case INT32:
+			return Cast.unchecked(Converters.convert(rai,
+					(i, o) -> o.set((int) clip(i.getRealDouble(), Integer.MIN_VALUE, Integer.MAX_VALUE)), new IntType()));
+		case PROBABILITY:
+			return Cast.unchecked(Converters.convert(rai, (i, o) -> o.set((int) clip(i.getRealDouble() * 255, 0, 255)), new UnsignedByteType()));
+		default:
+			return Cast.unchecked(rai);
+		}
+	}
+
+	/**
+	 * Convert an image with a policy into a new image, so the original image can be released
+	 * @param <T>
+	 * 	data type of the image
+	 * @param <N>
+	 * 	data type of the result
+	 * @param rai
+	 * 	image
+	 * @param policy
+	 * 	one of {@link #POLICIES}
+	 * @return a copy of the image with the new data type, or the same image if it is not converted
+	 */
+	public static <T extends RealType<T> & NativeType<T>, N extends RealType<N> & NativeType<N>>
+	RandomAccessibleInterval<N> narrowCopy(RandomAccessibleInterval<T> rai, String policy) {
+		RandomAccessibleInterval<N> view = Views.zeroMin(narrow(rai, policy));
+		N type = Util.getTypeFromInterval(view).createVariable();
+		if (type.getClass() == Util.getTypeFromInterval(rai).getClass())
+			return Cast.unchecked(rai);
+		RandomAccessibleInterval<N> img = Util.getSuitableImgFactory(view, type).create(view);
+		LoopBuilder.setImages(view, img).forEachPixel((s, d) -> d.set(s));
+		return img;
+	}
+
+	/**
+	 * Find the smallest integer type that holds all the values of the image without loss, and is
+	 * smaller than the type of the image
+	 * @return the type, or {@value #NONE} if there is no such type
+	 */
+	private static <T extends RealType<T> & NativeType<T>> String findIntegerType(RandomAccessibleInterval<T> rai) {
+		int bytes;
+		try {
+			bytes = RawData.getBytes(Views.iterable(rai).firstElement());
+		} catch (IllegalArgumentException ex) {
+			return NONE;
+		}
+		if (bytes == 1)
+			return NONE;
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (T value : Views.iterable(rai)) {
+			double vv = value.getRealDouble();
+			if (vv != Math.rint(vv))
+				return NONE;
+			min = Math.min(min, vv);
+			max = Math.max(max, vv);
+		}
+		if (min >= 0 && max <= 255 && bytes > 1)
+			return UINT8;
+		else if (min >= 0 && max <= 65535 && bytes > 2)
+			return UINT16;
+		else if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE && bytes > 4)
+			return INT32;
+		return NONE;
+	}
+
+	private static double clip(double value, double min, double max) {
+		return Math.max(min, Math.min(max, Math.rint(value)));
+	}
+}
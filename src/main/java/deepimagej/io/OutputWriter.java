@@ -0,0 +1,147 @@
+package deepimagej.io;
+
+import java.io.IOException;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Saves the outputs of a model to disk
+ * 
+ * @author Carlos Garcia
+ */
+public interface OutputWriter {
+	
+	public static final String TIF = "tif";
+	
+	public static final String ZARR = "zarr";
+	
+	public static final String NPY = "npy";
+	
+	public static final String[] FORMATS = new String[] {TIF, ZARR, NPY};
+	
+	/**
+	 * Save an output
+	 * @param <T>
+	 * 	data type of the output
+	 * @param folder
+	 * 	folder where the output is saved
+	 * @param name
+	 * 	name of the output, the writer adds the extension
+	 * @param rai
+	 * 	data of the output
+	 * @param axesOrder
+	 * 	axes order of the output
+	 * @return the number of bytes written
+	 * @throws IOException if the output cannot be saved
+	 */
+	<T extends RealType<T> & NativeType<T>> 
+	long write(String folder, String name, RandomAccessibleInterval<T> rai, String axesOrder) throws IOException;
+	
+	/**
+	 * Open an output that is saved in parts along its batch axis, as the parts are produced. By default
+	 * the parts are kept until the output is finished and then saved with {@link #write}
+	 * @param <T>
+	 * 	data type of the output
+	 * @param folder
+	 * 	folder where the output is saved
+	 * @param name
+	 * 	name of the output, the writer adds the extension
+	 * @param axesOrder
+	 * 	axes order of the parts of the output
+	 * @return the output where the parts are appended
+	 * @throws IOException if the output cannot be created
+	 */
+	default <T extends RealType<T> & NativeType<T>> 
+	Appender<T> open(String folder, String name, String axesOrder) throws IOException {
+		return new BufferedAppender<T>(this, folder, name, axesOrder);
+	}
+	
+	/**
+	 * @return whether the outputs opened with {@link #open} are written as the parts are appended. If not,
+	 * 	the parts are kept in memory until the output is finished, so outputs should not be saved in parts
+	 * 	to limit the memory used
+	 */
+	default boolean appendsParts() {
+		return false;
+	}
+	
+	/**
+	 * Make sure a saved output is on the storage device and not only in the cache of the operating
+	 * system, so it survives a crash of the machine. By default nothing is done
+	 * @param folder
+	 * 	folder where the output was saved
+	 * @param name
+	 * 	name of the output, without the extension added by the writer
+	 * @throws IOException if the output cannot be synchronized
+	 */
+	default void sync(String folder, String name) throws IOException {
+	}
+	
+	/**
+	 * Output that is saved in parts along its batch axis
+	 */
+	public interface Appender<T extends RealType<T> & NativeType<T>> extends AutoCloseable {
+		
+		/**
+		 * Save the next part of the output
+		 * @param part
+		 * 	data of the part, with the same size as the rest of parts along every axis except the batch axis
+		 * @return the number of bytes written
+		 * @throws IOException if the part cannot be saved
+		 */
+		long append(RandomAccessibleInterval<T> part) throws IOException;
+		
+		/**
+		 * Complete the output once all the parts have been appended
+		 * @return the number of bytes written
+		 * @throws IOException if the output cannot be completed
+		 */
+		long finish() throws IOException;
+		
+		/**
+		 * @return whether the appender keeps the parts until the output is finished, in which case
+		 * 	the data of the parts cannot be modified or reused before {@link #finish}
+		 */
+		default boolean retainsParts() {
+			return false;
+		}
+		
+		@Override
+		void close() throws IOException;
+	}
+	
+	/**
+	 * Create the writer for a format
+	 * @param format
+	 * 	one of {@link #FORMATS}
+	 * @return the writer
+	 */
+	public static OutputWriter create(String format) {
+		return create(format, null);
+	}
+	
+	/**
+	 * Create the writer for a format
+	 * @param format
+	 * 	one of {@link #FORMATS}
+	 * @param compression
+	 * 	compression of the TIFF files, one of {@link TiffOutputWriter#COMPRESSIONS}. The rest of
+	 * 	formats do not accept a compression, Zarr outputs are always compressed with zlib
+	 * @return the writer
+	 */
+	public static OutputWriter create(String format, String compression) {
+		boolean compressed = compression != null && !compression.equals(TiffOutputWriter.NONE);
+		if (format == null || format.equals(TIF))
+			return compression == null ? new TiffOutputWriter() : new TiffOutputWriter(compression);
+		else if (compressed)
+			throw new IllegalArgumentException("The compression can only be chosen for TIFF outputs, "
+					+ "Zarr outputs are always compressed with zlib and NumPy outputs are never compressed.");
+		else if (format.equals(ZARR))
+			return new ZarrOutputWriter();
+		else if (format.equals(NPY))
+			return new NpyOutputWriter();
+		throw new IllegalArgumentException("Unsupported output format: " + format);
+	}
+}
@@ -0,0 +1,248 @@
+package deepimagej.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Conversion of the pixels of a {@link RandomAccessibleInterval} into bytes, in the flat iteration
+ * order of the image (the first axis is the one that changes fastest).
+ *
+ * @author Carlos Garcia
+ */
+final class RawData {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private RawData() {
+	}
+
+	/**
+	 * Write all the pixels of an image to a channel. If the image is an {@link ArrayImg}, the primitive
+	 * array that holds the data is copied in blocks, without visiting the pixels one by one
+	 * @param <T>
+	 * 	data type of the image
+	 * @param channel
+	 * 	channel where the data is written
+	 * @param rai
+	 * 	image
+	 * @param order
+	 * 	byte order used to write the data
+	 * @return number of bytes written
+	 * @throws IOException if there is any error writing to the channel
+	 */
+	static <T extends RealType<T> & NativeType<T>>
+	long write(WritableByteChannel channel, RandomAccessibleInterval<T> rai, ByteOrder order) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+		Object array = getStorageArray(rai);
+		if (array != null)
+			return writeArray(channel, array, buffer);
+		T type = Views.iterable(rai).firstElement();
+		int bytes = getBytes(type);
+		long written = 0;
+		Cursor<T> cursor = Views.flatIterable(rai).cursor();
+		while (cursor.hasNext()) {
+			if (buffer.remaining() < bytes) {
+				written += flush(channel, buffer);
+			}
+			put(buffer, cursor.next());
+		}
+		return written + flush(channel, buffer);
+	}
+
+	/**
+	 * @return the primitive array with the data of the image if it is an {@link ArrayImg} with one
+	 * 	array element per pixel, null otherwise
+	 */
+	private static <T extends RealType<T> & NativeType<T>> Object getStorageArray(RandomAccessibleInterval<T> rai) {
+		if (!(rai instanceof ArrayImg))
+			return null;
+		Object access = ((ArrayImg<?, ?>) rai).update(null);
+		if (!(access instanceof ArrayDataAccess))
+			return null;
+		T type = Views.iterable(rai).firstElement();
+		try {
+			getDtype(type);
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+		Object array = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+		long size = ((ArrayImg<?, ?>) rai).size();
+		if (array instanceof byte[] && ((byte[]) array).length == size)
+			return array;
+		else if (array instanceof short[] && ((short[]) array).length == size)
+			return array;
+		else if (array instanceof int[] && ((int[]) array).length == size)
+			return array;
+		else if (array instanceof long[] && ((long[]) array).length == size)
+			return array;
+		else if (array instanceof float[] && ((float[]) array).length == size)
+			return array;
+		else if (array instanceof double[] && ((double[]) array).length == size)
+			return array;
+		return null;
+	}
+
+	private static long writeArray(WritableByteChannel channel, Object array, ByteBuffer buffer) throws IOException {
+		long written = 0;
+		if (array instanceof byte[]) {
+			byte[] arr = (byte[]) array;
+			for (int pos = 0; pos < arr.length; pos += BUFFER_SIZE) {
+				buffer.put(arr, pos, Math.min(BUFFER_SIZE, arr.length - pos));
+				written += flush(channel, buffer);
+			}
+		} else if (array instanceof short[]) {
+			short[] arr = (short[]) array;
+			int n = BUFFER_SIZE / Short.BYTES;
+			for (int pos = 0; pos < arr.length; pos += n) {
+				int len = Math.min(n, arr.length - pos);
+				buffer.asShortBuffer().put(arr, pos, len);
+				buffer.position(len * Short.BYTES);
+				written += flush(channel, buffer);
+			}
+		} else if (array instanceof int[]) {
+			int[] arr = (int[]) array;
+			int n = BUFFER_SIZE / Integer.BYTES;
+			for (int pos = 0; pos < arr.length; pos += n) {
+				int len = Math.min(n, arr.length - pos);
+				buffer.asIntBuffer().put(arr, pos, len);
+				buffer.position(len * Integer.BYTES);
+				written += flush(channel, buffer);
+			}
+		} else if (array instanceof long[]) {
+			long[] arr = (long[]) array;
+			int n = BUFFER_SIZE / Long.BYTES;
+			for (int pos = 0; pos < arr.length; pos += n) {
+				int len = Math.min(n, arr.length - pos);
+				buffer.asLongBuffer().put(arr, pos, len);
+				buffer.position(len * Long.BYTES);
+				written += flush(channel, buffer);
+			}
+		} else if (array instanceof float[]) {
+			float[] arr = (float[]) array;
+			int n = BUFFER_SIZE / Float.BYTES;
+			for (int pos = 0; pos < arr.length; pos += n) {
+				int len = Math.min(n, arr.length - pos);
+				buffer.asFloatBuffer().put(arr, pos, len);
+				buffer.position(len * Float.BYTES);
+				written += flush(channel, buffer);
+			}
+		} else if (array instanceof double[]) {
+			double[] arr = (double[]) array;
+			int n = BUFFER_SIZE / Double.BYTES;
+			for (int pos = 0; pos < arr.length; pos += n) {
+				int len = Math.min(n, arr.length - pos);
+				buffer.asDoubleBuffer().put(arr, pos, len);
+				buffer.position(len * Double.BYTES);
+				written += flush(channel, buffer);
+			}
+		}
+		return written;
+	}
+
+	private static long flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		long written = buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		return written;
+	}
+
+	/**
+	 * Make sure a saved file, or all the files of a folder, are on the storage device and not only in
+	 * the cache of the operating system
+	 * @param path
+	 * 	file or folder
+	 * @throws IOException if the file cannot be synchronized
+	 */
+	static void force(Path path) throws IOException {
+		if (!Files.isDirectory(path)) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			return;
+		}
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(path)) {
+			files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+		for (Path file : files)
+			force(file);
+	}
+
+	static <T extends RealType<T> & NativeType<T>> void put(ByteBuffer buffer, T value) {
+		if (value instanceof FloatType)
+			buffer.putFloat(((FloatType) value).get());
+		else if (value instanceof DoubleType)
+			buffer.putDouble(((DoubleType) value).get());
+		else if (value instanceof UnsignedByteType || value instanceof ByteType)
+			buffer.put((byte) ((IntegerType<?>) value).getIntegerLong());
+		else if (value instanceof UnsignedShortType || value instanceof ShortType)
+			buffer.putShort((short) ((IntegerType<?>) value).getIntegerLong());
+		else if (value instanceof UnsignedIntType || value instanceof IntType)
+			buffer.putInt((int) ((IntegerType<?>) value).getIntegerLong());
+		else if (value instanceof LongType)
+			buffer.putLong(((LongType) value).get());
+		else
+			throw new IllegalArgumentException("Unsupported data type: " + value.getClass().getSimpleName());
+	}
+
+	/**
+	 * @return number of bytes of each pixel of the data type
+	 */
+	static <T extends RealType<T> & NativeType<T>> int getBytes(T type) {
+		return Integer.parseInt(getDtype(type).substring(2));
+	}
+
+	/**
+	 * @return the data type with the notation used by NumPy and Zarr, little endian
+	 */
+	static <T extends RealType<T> & NativeType<T>> String getDtype(T type) {
+		if (type instanceof FloatType)
+			return "<f4";
+		else if (type instanceof DoubleType)
+			return "<f8";
+		else if (type instanceof UnsignedByteType)
+			return "|u1";
+		else if (type instanceof ByteType)
+			return "|i1";
+		else if (type instanceof UnsignedShortType)
+			return "<u2";
+		else if (type instanceof ShortType)
+			return "<i2";
+		else if (type instanceof UnsignedIntType)
+			return "<u4";
+		else if (type instanceof IntType)
+			return "<i4";
+		else if (type instanceof LongType)
+			return "<i8";
+		throw new IllegalArgumentException("Unsupported data type: " + type.getClass().getSimpleName());
+	}
+}
@@ -0,0 +1,399 @@
+package deepimagej.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import deepimagej.tools.ImPlusRaiManager;
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Saves the outputs as ImageJ TIFF files. The outputs are written directly, as TIFFs with the ImageJ hyperstack 
+ * description, uncompressed or with one deflate or LZW compressed strip per plane. The samples keep the type
+ * of the output, with the TIFF sample format, for the types that ImageJ reads: 8, 16 and 32 bit unsigned 
+ * integers, 16 and 32 bit signed integers and 32 and 64 bit floats. 8 bit signed integers are saved as 16 bit
+ * signed integers and 64 bit integers as 64 bit floats. Files of 8 and 16 bit unsigned integers or 32 bit floats
+ * that do not fit in a classic TIFF are saved uncompressed through ImageJ, the rest cannot be saved as TIFF.
+ * Outputs can also be saved part by part, see {@link #open(String, String, String)}.
+ *
+ * @author Carlos Garcia
+ */
+public class TiffOutputWriter implements OutputWriter {
+
+	public static final String EXTENSION = ".tif";
+
+	public static final String NONE = "none";
+
+	public static final String DEFLATE = "deflate";
+
+	public static final String LZW = "lzw";
+
+	public static final String[] COMPRESSIONS = new String[] {NONE, DEFLATE, LZW};
+
+	private static final short TAG_NEW_SUBFILE_TYPE = 254;
+	private static final short TAG_IMAGE_WIDTH = 256;
+	private static final short TAG_IMAGE_LENGTH = 257;
+	private static final short TAG_BITS_PER_SAMPLE = 258;
+	private static final short TAG_COMPRESSION = 259;
+	private static final short TAG_PHOTOMETRIC = 262;
+	private static final short TAG_IMAGE_DESCRIPTION = 270;
+	private static final short TAG_STRIP_OFFSETS = 273;
+	private static final short TAG_SAMPLES_PER_PIXEL = 277;
+	private static final short TAG_ROWS_PER_STRIP = 278;
+	private static final short TAG_STRIP_BYTE_COUNTS = 279;
+	private static final short TAG_SAMPLE_FORMAT = 339;
+
+	private static final short TYPE_ASCII = 2;
+	private static final short TYPE_SHORT = 3;
+	private static final short TYPE_LONG = 4;
+
+	private static final int HEADER_SIZE = 8;
+	private static final int ENTRY_SIZE = 12;
+
+	private static final int N_ENTRIES = 12;
+
+	private static final long IFD_SIZE = 2 + ENTRY_SIZE * N_ENTRIES + 4;
+
+	private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+	private final String compression;
+
+	public TiffOutputWriter() {
+		this(NONE);
+	}
+
+	/**
+	 * @param compression
+	 * 	one of {@link #COMPRESSIONS}
+	 */
+	public TiffOutputWriter(String compression) {
+		if (!Arrays.asList(COMPRESSIONS).contains(compression))
+			throw new IllegalArgumentException("Unsupported TIFF compression: " + compression + ", the supported values are: "
+					+ Arrays.toString(COMPRESSIONS));
+		this.compression = compression;
+	}
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>>
+	long write(String folder, String name, RandomAccessibleInterval<T> rai, String axesOrder) throws IOException {
+		axesOrder = axesOrder.toLowerCase().replaceAll("t", "b");
+		T type = Views.iterable(rai).firstElement();
+		long[] dims = ImPlusRaiManager.convertToAxesOrder(rai, axesOrder, ImPlusRaiManager.IJ_AXES_ORDER).dimensionsAsLongArray();
+		long planeBytes = dims[0] * dims[1] * getTiffBytes(type);
+		long nPlanes = dims[2] * dims[3] * dims[4];
+		// LZW can make random data up to 1.5 times bigger
+		long maxData = compression.equals(NONE) ? planeBytes * nPlanes : planeBytes * nPlanes * 3 / 2 + 16 * nPlanes;
+		long maxEnd = HEADER_SIZE + maxData + 1 + IFD_SIZE * nPlanes + createDescription(dims).length();
+		if ((planeBytes > Integer.MAX_VALUE || maxEnd > MAX_OFFSET) && isImageJType(type))
+			return writeImagePlus(folder, name, rai, axesOrder);
+		else if (planeBytes > Integer.MAX_VALUE || maxEnd > MAX_OFFSET)
+			throw new IOException("The output does not fit in a TIFF file (4 GB), save it as Zarr: " + name);
+		try (TiffAppender<T> appender = new TiffAppender<T>(folder, name, axesOrder)) {
+			return appender.append(rai) + appender.finish();
+		}
+	}
+
+	/**
+	 * Open an output that is saved in parts along its batch axis. The planes of every part are written 
+	 * as soon as it is appended, and the directories of the TIFF at the end
+	 */
+	@Override
+	public <T extends RealType<T> & NativeType<T>>
+	Appender<T> open(String folder, String name, String axesOrder) throws IOException {
+		return new TiffAppender<T>(folder, name, axesOrder.toLowerCase().replaceAll("t", "b"));
+	}
+
+	@Override
+	public boolean appendsParts() {
+		return true;
+	}
+
+	/**
+	 * @return whether ImageJ holds images of the type without converting them
+	 */
+	private static <T extends RealType<T> & NativeType<T>> boolean isImageJType(T type) {
+		return type instanceof UnsignedByteType || type instanceof UnsignedShortType || type instanceof FloatType;
+	}
+
+	/**
+	 * @return the bytes per sample of the type once saved in the TIFF, see {@link TiffAppender#append}
+	 */
+	private static <T extends RealType<T> & NativeType<T>> int getTiffBytes(T type) {
+		if (type instanceof ByteType)
+			return 2;
+		return RawData.getBytes(type);
+	}
+
+	/**
+	 * @return the value of the TIFF sample format tag: 1 unsigned integer, 2 signed integer, 3 float
+	 */
+	private static <T extends RealType<T> & NativeType<T>> int getSampleFormat(T type) {
+		if (type instanceof FloatType || type instanceof DoubleType)
+			return 3;
+		else if (type instanceof ShortType || type instanceof IntType)
+			return 2;
+		else if (type instanceof UnsignedByteType || type instanceof UnsignedShortType || type instanceof UnsignedIntType)
+			return 1;
+		throw new IllegalArgumentException("Unsupported TIFF sample type: " + type.getClass().getSimpleName());
+	}
+
+	private class TiffAppender<T extends RealType<T> & NativeType<T>> implements Appender<T> {
+
+		private final Path file;
+
+		private final String axesOrder;
+
+		private final FileChannel channel;
+
+		private final List<Long> offsets = new ArrayList<Long>();
+
+		private final List<Long> counts = new ArrayList<Long>();
+
+		/**
+		 * Dimensions of the image in the ImageJ axes order, the last one grows with every part
+		 */
+		private long[] dims;
+
+		private int bytes;
+
+		private int sampleFormat;
+
+		private TiffAppender(String folder, String name, String axesOrder) throws IOException {
+			this.file = Paths.get(folder, name.toLowerCase().endsWith(EXTENSION) ? name : name + EXTENSION);
+			this.axesOrder = axesOrder;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			channel.position(HEADER_SIZE);
+		}
+
+		/**
+		 * Append a part. ImageJ reads 8 bit samples as unsigned and does not read 64 bit integers, so
+		 * 8 bit signed integers are saved as 16 bit signed integers and 64 bit integers as 64 bit floats
+		 */
+		@Override
+		public long append(RandomAccessibleInterval<T> part) throws IOException {
+			T type = Views.iterable(part).firstElement();
+			if (type instanceof ByteType)
+				return appendData(Converters.convert(part, (i, o) -> o.setReal(i.getRealDouble()), new ShortType()));
+			else if (type instanceof LongType)
+				return appendData(Converters.convert(part, (i, o) -> o.setReal(i.getRealDouble()), new DoubleType()));
+			return appendData(part);
+		}
+
+		private <S extends RealType<S> & NativeType<S>> long appendData(RandomAccessibleInterval<S> part) throws IOException {
+			RandomAccessibleInterval<S> xyczb = ImPlusRaiManager.convertToAxesOrder(part, axesOrder, ImPlusRaiManager.IJ_AXES_ORDER);
+			long[] partDims = xyczb.dimensionsAsLongArray();
+			S type = Views.iterable(part).firstElement();
+			if (dims == null) {
+				dims = partDims.clone();
+				dims[4] = 0;
+				bytes = RawData.getBytes(type);
+				sampleFormat = getSampleFormat(type);
+			}
+			for (int i = 0; i < 4; i ++) {
+				if (partDims[i] != dims[i])
+					throw new IllegalArgumentException("All the parts of an output need the same size along the axis '"
+							+ ImPlusRaiManager.IJ_AXES_ORDER.charAt(i) + "': " + partDims[i] + " != " + dims[i]);
+			}
+			long planeBytes = partDims[0] * partDims[1] * bytes;
+			if (planeBytes > Integer.MAX_VALUE)
+				throw new IOException("The planes of the output are too big for a TIFF file, save it as Zarr: " + file);
+			long start = channel.position();
+			if (compression.equals(NONE)) {
+				// The flat order of the ImageJ axes is the order of the planes of an ImageJ hyperstack
+				RawData.write(channel, isInImageJOrder(part, axesOrder) ? part : xyczb, ByteOrder.LITTLE_ENDIAN);
+				for (long i = 0; i < partDims[2] * partDims[3] * partDims[4]; i ++) {
+					offsets.add(start + i * planeBytes);
+					counts.add(planeBytes);
+				}
+			} else {
+				writeCompressed(xyczb, (int) planeBytes);
+			}
+			dims[4] += partDims[4];
+			if (channel.position() > MAX_OFFSET)
+				throw new IOException("The output does not fit in a TIFF file (4 GB), save it as Zarr: " + file);
+			return channel.position() - start;
+		}
+
+		/**
+		 * Write every plane of the image as a compressed strip, recording the position and size of each strip
+		 */
+		private <S extends RealType<S> & NativeType<S>>
+		void writeCompressed(RandomAccessibleInterval<S> xyczb, int planeBytes) throws IOException {
+			long nPlanes = xyczb.dimension(2) * xyczb.dimension(3) * xyczb.dimension(4);
+			ByteBuffer plane = ByteBuffer.allocate(planeBytes).order(ByteOrder.LITTLE_ENDIAN);
+			LzwEncoder lzw = compression.equals(LZW) ? new LzwEncoder() : null;
+			Deflater deflater = compression.equals(DEFLATE) ? new Deflater() : null;
+			byte[] block = new byte[64 * 1024];
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+			try {
+				Cursor<S> cursor = Views.flatIterable(xyczb).cursor();
+				for (long i = 0; i < nPlanes; i ++) {
+					plane.clear();
+					while (plane.hasRemaining())
+						RawData.put(plane, cursor.next());
+					byte[] strip;
+					if (lzw != null) {
+						strip = lzw.encode(plane.array(), planeBytes);
+					} else {
+						deflater.reset();
+						deflater.setInput(plane.array(), 0, planeBytes);
+						deflater.finish();
+						deflated.reset();
+						while (!deflater.finished())
+							deflated.write(block, 0, deflater.deflate(block));
+						strip = deflated.toByteArray();
+					}
+					offsets.add(channel.position());
+					counts.add((long) strip.length);
+					writeFully(channel, ByteBuffer.wrap(strip));
+				}
+			} finally {
+				if (deflater != null)
+					deflater.end();
+			}
+		}
+
+		@Override
+		public long finish() throws IOException {
+			if (dims == null)
+				throw new IllegalStateException("No data has been saved in " + file);
+			String description = createDescription(dims);
+			int nPlanes = offsets.size();
+			long dataEnd = channel.position();
+			long firstIfd = dataEnd + (dataEnd % 2);
+			long descriptionOffset = firstIfd + IFD_SIZE * nPlanes;
+			if (descriptionOffset + description.length() > MAX_OFFSET)
+				throw new IOException("The output does not fit in a TIFF file (4 GB), save it as Zarr: " + file);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt((int) firstIfd).flip();
+			channel.position(0);
+			writeFully(channel, header);
+			channel.position(firstIfd);
+
+			ByteBuffer ifds = ByteBuffer.allocate((int) (IFD_SIZE * nPlanes) + description.length()).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < nPlanes; i ++) {
+				ifds.putShort((short) N_ENTRIES);
+				putEntry(ifds, TAG_NEW_SUBFILE_TYPE, TYPE_LONG, 1, 0);
+				putEntry(ifds, TAG_IMAGE_WIDTH, TYPE_LONG, 1, dims[0]);
+				putEntry(ifds, TAG_IMAGE_LENGTH, TYPE_LONG, 1, dims[1]);
+				putEntry(ifds, TAG_BITS_PER_SAMPLE, TYPE_SHORT, 1, bytes * 8);
+				putEntry(ifds, TAG_COMPRESSION, TYPE_SHORT, 1, getCompressionTag());
+				putEntry(ifds, TAG_PHOTOMETRIC, TYPE_SHORT, 1, 1);
+				// Only the first image has the description, the rest have an empty string, which fits in the entry
+				putEntry(ifds, TAG_IMAGE_DESCRIPTION, TYPE_ASCII, i == 0 ? description.length() : 1, i == 0 ? descriptionOffset : 0);
+				putEntry(ifds, TAG_STRIP_OFFSETS, TYPE_LONG, 1, offsets.get(i));
+				putEntry(ifds, TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, 1, 1);
+				putEntry(ifds, TAG_ROWS_PER_STRIP, TYPE_LONG, 1, dims[1]);
+				putEntry(ifds, TAG_STRIP_BYTE_COUNTS, TYPE_LONG, 1, counts.get(i));
+				putEntry(ifds, TAG_SAMPLE_FORMAT, TYPE_SHORT, 1, sampleFormat);
+				ifds.putInt(i == nPlanes - 1 ? 0 : (int) (firstIfd + (i + 1) * IFD_SIZE));
+			}
+			ifds.put(description.getBytes(StandardCharsets.US_ASCII)).flip();
+			writeFully(channel, ifds);
+			return IFD_SIZE * nPlanes + description.length() + HEADER_SIZE;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return the value of the TIFF compression tag: 1 uncompressed, 5 LZW, 8 deflate
+	 */
+	private int getCompressionTag() {
+		if (compression.equals(LZW))
+			return 5;
+		else if (compression.equals(DEFLATE))
+			return 8;
+		return 1;
+	}
+
+	@Override
+	public void sync(String folder, String name) throws IOException {
+		RawData.force(Paths.get(folder, name.toLowerCase().endsWith(EXTENSION) ? name : name + EXTENSION));
+	}
+
+	private static <T extends RealType<T> & NativeType<T>>
+	long writeImagePlus(String folder, String name, RandomAccessibleInterval<T> rai, String axesOrder) {
+		ImagePlus im = ImPlusRaiManager.convert(rai, axesOrder);
+		im.setTitle(name);
+		IJ.saveAsTiff(im, folder + File.separator + name);
+		File file = new File(folder, name.toLowerCase().endsWith(EXTENSION) ? name : name + EXTENSION);
+		return file.length();
+	}
+
+	/**
+	 * @return whether the flat order of the data is the same as the flat order of the image with
+	 * 	the ImageJ axes, which happens when the axes with more than one pixel follow the ImageJ order
+	 */
+	private static <T extends RealType<T> & NativeType<T>>
+	boolean isInImageJOrder(RandomAccessibleInterval<T> rai, String axesOrder) {
+		int last = -1;
+		for (int i = 0; i < axesOrder.length(); i ++) {
+			if (rai.dimension(i) == 1)
+				continue;
+			int pos = ImPlusRaiManager.IJ_AXES_ORDER.indexOf(axesOrder.charAt(i));
+			if (pos == -1 || pos < last)
+				return false;
+			last = pos;
+		}
+		return true;
+	}
+
+	/**
+	 * Description written by ImageJ so the file is opened as a hyperstack
+	 */
+	private static String createDescription(long[] dims) {
+		return "ImageJ=" + IJ.getVersion() + "\n"
+				+ "images=" + (dims[2] * dims[3] * dims[4]) + "\n"
+				+ (dims[2] > 1 ? "channels=" + dims[2] + "\n" : "")
+				+ (dims[3] > 1 ? "slices=" + dims[3] + "\n" : "")
+				+ (dims[4] > 1 ? "frames=" + dims[4] + "\n" : "")
+				+ (dims[2] > 1 || (dims[3] > 1 && dims[4] > 1) ? "hyperstack=true\n" : "")
+				+ "\0";
+	}
+
+	private static void putEntry(ByteBuffer buffer, short tag, short type, long count, long value) {
+		buffer.putShort(tag).putShort(type).putInt((int) count);
+		if (type == TYPE_SHORT)
+			buffer.putShort((short) value).putShort((short) 0);
+		else
+			buffer.putInt((int) value);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
@@ -0,0 +1,237 @@
+package deepimagej.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.Deflater;
+
+import deepimagej.tools.ImPlusRaiManager;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Saves the outputs as OME-Zarr (version 0.4 of the specification, Zarr version 2) with a single
+ * resolution level. The data is written in chunks compressed with zlib, the chunks are
+ * compressed and written in parallel, directly from the data of the output. Outputs can also be
+ * saved time point by time point, see {@link #open(String, String, String)}.
+ *
+ * The axes are always saved in the order t, c, z, y, x, the axes that the output does not have are
+ * saved with size 1.
+ *
+ * @author Carlos Garcia
+ */
+public class ZarrOutputWriter implements OutputWriter {
+
+	public static final String EXTENSION = ".zarr";
+
+	/**
+	 * Axes of the saved array, following the OME-Zarr order
+	 */
+	private static final String[] AXES = new String[] {"t", "c", "z", "y", "x"};
+
+	private static final String[] AXES_TYPE = new String[] {"time", "channel", "space", "space", "space"};
+
+	/**
+	 * Maximum size of the chunks along each of the axes, in the order t, c, z, y, x
+	 */
+	private static final long[] MAX_CHUNK = new long[] {1, 1, 16, 512, 512};
+
+	private static final int COMPRESSION_LEVEL = 1;
+
+	private static final String DATASET = "0";
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>>
+	long write(String folder, String name, RandomAccessibleInterval<T> rai, String axesOrder) throws IOException {
+		try (ZarrAppender<T> appender = new ZarrAppender<T>(folder, name, axesOrder)) {
+			return appender.append(rai) + appender.finish();
+		}
+	}
+
+	/**
+	 * Open an output that is saved in parts along its batch axis. Every part is written as soon as it 
+	 * is appended, in chunks of one time point, and the metadata of the array is written at the end
+	 */
+	@Override
+	public <T extends RealType<T> & NativeType<T>>
+	Appender<T> open(String folder, String name, String axesOrder) throws IOException {
+		return new ZarrAppender<T>(folder, name, axesOrder);
+	}
+
+	@Override
+	public boolean appendsParts() {
+		return true;
+	}
+
+	private static class ZarrAppender<T extends RealType<T> & NativeType<T>> implements Appender<T> {
+
+		private final String axesOrder;
+
+		private final Path array;
+
+		private long[] shape;
+
+		private long[] chunks;
+
+		private String dtype;
+
+		private ZarrAppender(String folder, String name, String axesOrder) throws IOException {
+			this.axesOrder = axesOrder.toLowerCase().replaceAll("t", "b");
+			Path root = Paths.get(folder, name + EXTENSION);
+			array = root.resolve(DATASET);
+			Files.createDirectories(array);
+			writeText(root.resolve(".zgroup"), "{\"zarr_format\": 2}");
+			writeText(root.resolve(".zattrs"), createAttributes(name));
+		}
+
+		@Override
+		public long append(RandomAccessibleInterval<T> part) throws IOException {
+			// imglib2 axes in the reverse order of the Zarr axes, so the flat iteration follows the C order
+			RandomAccessibleInterval<T> xyzct = ImPlusRaiManager.permute(
+					ImPlusRaiManager.convertToAxesOrder(part, axesOrder, ImPlusRaiManager.IJ_AXES_ORDER),
+					ImPlusRaiManager.IJ_AXES_ORDER, "xyzcb");
+			xyzct = Views.zeroMin(xyzct);
+			T type = Views.iterable(xyzct).firstElement().createVariable();
+
+			long[] partShape = new long[AXES.length];
+			for (int i = 0; i < AXES.length; i ++)
+				partShape[i] = xyzct.dimension(AXES.length - 1 - i);
+			if (shape == null) {
+				shape = partShape.clone();
+				shape[0] = 0;
+				chunks = new long[AXES.length];
+				for (int i = 0; i < AXES.length; i ++)
+					chunks[i] = Math.min(partShape[i], MAX_CHUNK[i]);
+				dtype = RawData.getDtype(type);
+			}
+			for (int i = 1; i < AXES.length; i ++) {
+				if (partShape[i] != shape[i])
+					throw new IllegalArgumentException("All the parts of an output need the same size along the axis '" 
+							+ AXES[i] + "': " + partShape[i] + " != " + shape[i]);
+			}
+			long[] nChunks = new long[AXES.length];
+			for (int i = 0; i < AXES.length; i ++)
+				nChunks[i] = (partShape[i] + chunks[i] - 1) / chunks[i];
+			// The chunks have one time point, so the part starts at the chunk of its first time point
+			long tOffset = shape[0];
+			shape[0] += partShape[0];
+
+			long total = Arrays.stream(nChunks).reduce(1, (a, b) -> a * b);
+			try {
+				return LongStream.range(0, total).parallel().map(i -> {
+					long[] index = new long[AXES.length];
+					long rest = i;
+					for (int d = AXES.length - 1; d >= 0; d --) {
+						index[d] = rest % nChunks[d];
+						rest /= nChunks[d];
+					}
+					return writeChunk(xyzct, type, array, index, chunks, tOffset);
+				}).sum();
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+		}
+
+		@Override
+		public long finish() throws IOException {
+			if (shape == null)
+				throw new IllegalStateException("No data has been saved in " + array.getParent());
+			String metadata = createArrayMetadata(shape, chunks, dtype);
+			writeText(array.resolve(".zarray"), metadata);
+			return metadata.length();
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static <T extends RealType<T> & NativeType<T>>
+	long writeChunk(RandomAccessibleInterval<T> xyzct, T type, Path array, long[] index, long[] chunks, long tOffset) {
+		long[] min = new long[AXES.length];
+		long[] max = new long[AXES.length];
+		int size = 1;
+		for (int i = 0; i < AXES.length; i ++) {
+			int d = AXES.length - 1 - i;
+			min[d] = index[i] * chunks[i];
+			max[d] = min[d] + chunks[i] - 1;
+			size *= chunks[i];
+		}
+		// Zarr chunks on the border have the full size, the part outside of the image is filled with zeros
+		Cursor<T> cursor = Views.flatIterable(Views.interval(Views.extendZero(xyzct), new FinalInterval(min, max))).cursor();
+		ByteBuffer buffer = ByteBuffer.allocate(size * RawData.getBytes(type)).order(ByteOrder.LITTLE_ENDIAN);
+		while (cursor.hasNext())
+			RawData.put(buffer, cursor.next());
+
+		Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(buffer.capacity() / 2);
+		try {
+			deflater.setInput(buffer.array());
+			deflater.finish();
+			byte[] bytes = new byte[64 * 1024];
+			while (!deflater.finished())
+				compressed.write(bytes, 0, deflater.deflate(bytes));
+		} finally {
+			deflater.end();
+		}
+		long[] arrayIndex = index.clone();
+		arrayIndex[0] += tOffset;
+		String chunkName = Arrays.stream(arrayIndex).mapToObj(Long::toString).collect(Collectors.joining("."));
+		try {
+			Files.write(array.resolve(chunkName), compressed.toByteArray());
+			return compressed.size();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	@Override
+	public void sync(String folder, String name) throws IOException {
+		RawData.force(Paths.get(folder, name + EXTENSION));
+	}
+
+	private static String createArrayMetadata(long[] shape, long[] chunks, String dtype) {
+		return "{" + System.lineSeparator()
+			+ "  \"zarr_format\": 2," + System.lineSeparator()
+			+ "  \"shape\": " + Arrays.toString(shape) + "," + System.lineSeparator()
+			+ "  \"chunks\": " + Arrays.toString(chunks) + "," + System.lineSeparator()
+			+ "  \"dtype\": \"" + dtype + "\"," + System.lineSeparator()
+			+ "  \"compressor\": {\"id\": \"zlib\", \"level\": " + COMPRESSION_LEVEL + "}," + System.lineSeparator()
+			+ "  \"fill_value\": 0," + System.lineSeparator()
+			+ "  \"order\": \"C\"," + System.lineSeparator()
+			+ "  \"filters\": null" + System.lineSeparator()
+			+ "}";
+	}
+
+	private static String createAttributes(String name) {
+		String axes = "";
+		for (int i = 0; i < AXES.length; i ++)
+			axes += (i == 0 ? "" : ", ") + "{\"name\": \"" + AXES[i] + "\", \"type\": \"" + AXES_TYPE[i] + "\"}";
+		return "{" + System.lineSeparator()
+			+ "  \"multiscales\": [{" + System.lineSeparator()
+			+ "    \"version\": \"0.4\"," + System.lineSeparator()
+			+ "    \"name\": \"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"," + System.lineSeparator()
+			+ "    \"axes\": [" + axes + "]," + System.lineSeparator()
+			+ "    \"datasets\": [{\"path\": \"" + DATASET + "\", \"coordinateTransformations\": "
+			+ "[{\"type\": \"scale\", \"scale\": [1.0, 1.0, 1.0, 1.0, 1.0]}]}]" + System.lineSeparator()
+			+ "  }]" + System.lineSeparator()
+			+ "}";
+	}
+
+	private static void writeText(Path file, String text) throws IOException {
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,324 @@
+package deepimagej.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.bioimage.modelrunner.bioimageio.BioimageioRepo;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.utils.Constants;
+
+/**
+ * Copy on disk of the Bioimage.io catalog, reduced to what is needed to find a model
+ * by its nickname: nickname and location of the rdf.yaml of the model.
+ * The copy is refreshed when it is older than its time to live, and only downloaded again if the
+ * catalog has changed since the last download. If the refresh fails (for example, there is no 
+ * connection) the old copy keeps being used and the refresh is not tried again for some time, so 
+ * machines without connection do not wait for the timeout on every lookup. With the system property 
+ * {@value #OFFLINE_PROP} set to true the catalog is never refreshed.
+ * 
+ * The catalog can be read from a local file instead of the Bioimage.io repository with the
+ * system property {@value #SOURCE_PROP}, the file has one model per line with the nickname and 
+ * the location of the rdf.yaml separated by a tab.
+ * 
+ * @author Carlos Garcia
+ */
+public class CatalogCache {
+	
+	public static final String SNAPSHOT_NAME = ".deepimagej_catalog.tsv";
+	
+	public static final String OFFLINE_PROP = "deepimagej.offline";
+	
+	public static final String SOURCE_PROP = "deepimagej.catalog.source";
+	
+	public static final String TTL_PROP = "deepimagej.catalog.ttl_hours";
+	
+	private static final String VERSION = "1";
+	
+	private static final String SEP = "\t";
+	
+	private static final long FETCH_TIMEOUT_S = 60;
+	
+	/**
+	 * Time after a failed refresh during which the catalog is not refreshed again
+	 */
+	private static final long RETRY_MS = TimeUnit.MINUTES.toMillis(15);
+	
+	/**
+	 * Catalog of the Bioimage.io repository, only used to know when it was last modified
+	 */
+	private static final String COLLECTION_URL = "https://uk1s3.embassy.ebi.ac.uk/public-datasets/bioimage.io/collection.json";
+	
+	private static final int HEAD_TIMEOUT_MS = 10000;
+	
+	private static CatalogCache DEFAULT;
+	
+	private final Path snapshot;
+	
+	private final Source source;
+	
+	private final long ttlMs;
+	
+	private Map<String, String> index;
+	
+	private long fetchTime = -1;
+	
+	/**
+	 * Time of the last refresh that failed, -1 if the last refresh did not fail
+	 */
+	private long failTime = -1;
+	
+	/**
+	 * Where the catalog is read from
+	 */
+	public interface Source {
+		/**
+		 * @return map from the nickname of each model to the location of its rdf.yaml
+		 * @throws Exception if the catalog cannot be read
+		 */
+		Map<String, String> fetch() throws Exception;
+		
+		/**
+		 * @return the time the catalog was last modified, or -1 if it is not known. 
+		 * If it is known, the catalog is only fetched again if it has changed
+		 */
+		default long lastModified() {
+			return -1;
+		}
+	}
+	
+	/**
+	 * The Bioimage.io repository
+	 */
+	public static class BioimageioSource implements Source {
+
+		@Override
+		public Map<String, String> fetch() throws Exception {
+			Map<String, String> catalog = new LinkedHashMap<String, String>();
+			for (Entry<String, ModelDescriptor> ee : BioimageioRepo.connect().listAllModels(false).entrySet()) {
+				if (ee.getValue().getNickname() != null)
+					catalog.put(ee.getValue().getNickname(), ee.getKey());
+			}
+			return catalog;
+		}
+		
+		@Override
+		public long lastModified() {
+			try {
+				HttpURLConnection conn = (HttpURLConnection) new URL(COLLECTION_URL).openConnection();
+				conn.setRequestMethod("HEAD");
+				conn.setConnectTimeout(HEAD_TIMEOUT_MS);
+				conn.setReadTimeout(HEAD_TIMEOUT_MS);
+				try {
+					long modified = conn.getResponseCode() == HttpURLConnection.HTTP_OK ? conn.getLastModified() : 0;
+					return modified == 0 ? -1 : modified;
+				} finally {
+					conn.disconnect();
+				}
+			} catch (IOException | RuntimeException ex) {
+				return -1;
+			}
+		}
+	}
+	
+	/**
+	 * A local file with one model per line, nickname and location of the rdf.yaml separated by a tab
+	 */
+	public static class FileSource implements Source {
+		
+		private final Path file;
+		
+		public FileSource(String file) {
+			this.file = Paths.get(file);
+		}
+
+		@Override
+		public Map<String, String> fetch() throws IOException {
+			Map<String, String> catalog = new LinkedHashMap<String, String>();
+			readEntries(file, catalog);
+			return catalog;
+		}
+		
+		@Override
+		public long lastModified() {
+			return file.toFile().lastModified();
+		}
+	}
+	
+	public CatalogCache(String snapshot, Source source, long ttlMs) {
+		this.snapshot = Paths.get(snapshot);
+		this.source = source;
+		this.ttlMs = ttlMs;
+	}
+	
+	/**
+	 * @return the catalog cache stored in the Fiji/ImageJ folder
+	 */
+	public static synchronized CatalogCache getDefault() {
+		if (DEFAULT != null)
+			return DEFAULT;
+		String file = System.getProperty(SOURCE_PROP);
+		Source source = file != null ? new FileSource(file) : new BioimageioSource();
+		long ttl = TimeUnit.HOURS.toMillis(Long.getLong(TTL_PROP, 24));
+		DEFAULT = new CatalogCache(deepimagej.Constants.FIJI_FOLDER + File.separator + SNAPSHOT_NAME, source, ttl);
+		return DEFAULT;
+	}
+	
+	/**
+	 * Find the location of the rdf.yaml of a model of the catalog
+	 * @param nickname
+	 * 	nickname of the model
+	 * @return the location of the rdf.yaml or null if the model is not in the catalog
+	 */
+	public synchronized String findSource(String nickname) {
+		if (index == null)
+			readSnapshot();
+		boolean retry = failTime == -1 || System.currentTimeMillis() - failTime > RETRY_MS;
+		if (isStale() && retry && !Boolean.getBoolean(OFFLINE_PROP))
+			refresh();
+		return index.get(nickname);
+	}
+	
+	/**
+	 * Fetch the catalog again, even if the copy on disk is still valid
+	 * @return whether the catalog could be fetched
+	 */
+	public synchronized boolean refresh() {
+		long modified = source.lastModified();
+		if (modified != -1 && index != null && fetchTime >= modified) {
+			fetchTime = System.currentTimeMillis();
+			failTime = -1;
+			writeSnapshot();
+			return true;
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+			Thread th = new Thread(r, "deepimagej-catalog");
+			th.setDaemon(true);
+			return th;
+		});
+		try {
+			Future<Map<String, String>> future = executor.submit(source::fetch);
+			Map<String, String> catalog = future.get(FETCH_TIMEOUT_S, TimeUnit.SECONDS);
+			index = new HashMap<String, String>(catalog);
+			fetchTime = System.currentTimeMillis();
+			failTime = -1;
+			writeSnapshot();
+			return true;
+		} catch (Exception ex) {
+			System.err.println("[WARNING] Unable to update the Bioimage.io catalog, using the local copy"
+					+ (fetchTime == -1 ? "" : " from " + new java.util.Date(fetchTime)) + ".");
+			failTime = System.currentTimeMillis();
+			if (index == null)
+				index = new HashMap<String, String>();
+			writeSnapshot();
+			return false;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Download a model of the catalog
+	 * @param rdfSource
+	 * 	location of the rdf.yaml of the model, as returned by {@link #findSource(String)}
+	 * @param modelsDir
+	 * 	folder where the model is downloaded
+	 * @param progress
+	 * 	consumer of the progress of the download, between 0 and 1
+	 * @return the folder of the model
+	 */
+	public static String download(String rdfSource, String modelsDir, Consumer<Double> progress) 
+			throws IOException, InterruptedException {
+		Path tmpDir = Files.createTempDirectory("deepimagej_rdf");
+		Path rdf = tmpDir.resolve(Constants.RDF_FNAME);
+		try {
+			URL url = new File(rdfSource).isFile() ? new File(rdfSource).toURI().toURL() : new URL(rdfSource);
+			try (InputStream is = url.openStream()) {
+				Files.copy(is, rdf, StandardCopyOption.REPLACE_EXISTING);
+			}
+			ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(rdf.toString());
+			return BioimageioRepo.downloadModel(descriptor, modelsDir, progress);
+		} finally {
+			Files.deleteIfExists(rdf);
+			Files.deleteIfExists(tmpDir);
+		}
+	}
+	
+	private boolean isStale() {
+		return fetchTime == -1 || System.currentTimeMillis() - fetchTime >= ttlMs;
+	}
+	
+	private void readSnapshot() {
+		index = new HashMap<String, String>();
+		if (!Files.isRegularFile(snapshot))
+			return;
+		try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+			String[] header = reader.readLine().split(SEP);
+			if (header.length < 2 || !header[0].equals("#" + VERSION))
+				return;
+			fetchTime = Long.parseLong(header[1]);
+			failTime = header.length > 2 ? Long.parseLong(header[2]) : -1;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEP);
+				if (fields.length == 2)
+					index.put(fields[0], fields[1]);
+			}
+		} catch (IOException | RuntimeException ex) {
+			index.clear();
+			fetchTime = -1;
+			failTime = -1;
+		}
+	}
+	
+	private void writeSnapshot() {
+		Path tmp = snapshot.resolveSibling(SNAPSHOT_NAME + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				writer.write("#" + VERSION + SEP + fetchTime + SEP + failTime);
+				writer.newLine();
+				for (Entry<String, String> ee : index.entrySet()) {
+					if (ee.getKey().contains(SEP) || ee.getKey().contains("\n") || ee.getValue().contains(SEP))
+						continue;
+					writer.write(ee.getKey() + SEP + ee.getValue());
+					writer.newLine();
+				}
+			}
+			Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			System.err.println("[WARNING] Unable to save the Bioimage.io catalog: " + ex.getMessage());
+		}
+	}
+	
+	private static void readEntries(Path file, Map<String, String> catalog) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#"))
+					continue;
+				String[] fields = line.split(SEP);
+				if (fields.length == 2)
+					catalog.put(fields[0], fields[1]);
+			}
+		}
+	}
+}
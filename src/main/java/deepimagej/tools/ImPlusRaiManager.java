@@ -6,9 +6,12 @@ import java.util.concurrent.ExecutorService;
 import ij.ImagePlus;
 import io.bioimage.modelrunner.tensor.Utils;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Cast;
 import net.imglib2.view.Views;
 
 public class ImPlusRaiManager {
@@ -41,11 +44,13 @@ public class ImPlusRaiManager {
 	public static <T extends RealType<T> & NativeType<T>>
 	RandomAccessibleInterval<T> convert(ImagePlus imp, String axesOrder) {
 		axesOrder = axesOrder.toLowerCase().replace("t", "b");
-		RandomAccessibleInterval<T> rai = ImageJFunctions.wrap(imp);
+		RandomAccessibleInterval<T> rai = wrap(imp);
+		int[] dims = imp.getDimensions();
+		dims[2] = getNChannels(imp);
 		String impAxesOrder = "";
 		String[] ijAxesOrder = IJ_AXES_ORDER.split("");
-		for (int i = 0; i < imp.getDimensions().length; i ++) {
-			if (imp.getDimensions()[i] != 1)
+		for (int i = 0; i < dims.length; i ++) {
+			if (dims[i] != 1)
 				impAxesOrder += ijAxesOrder[i];
 		}
 		String newImAxesOrder = addExtraDims(impAxesOrder, axesOrder);
@@ -55,6 +60,30 @@ public class ImPlusRaiManager {
 		return rai;
 	}
 
+	/**
+	 * Wrap an ImagePlus without copying its pixels. The packed pixels of RGB images are read as 3 channels
+	 * of unsigned bytes (red, green and blue), the same channels that {@link ij.plugin.CompositeConverter}
+	 * would create, but computed when they are accessed
+	 * @param imp
+	 * 	the image
+	 * @return the image with the axes of the ImagePlus that are not singleton, in the ImageJ order
+	 */
+	public static <T extends RealType<T> & NativeType<T>> RandomAccessibleInterval<T> wrap(ImagePlus imp) {
+		if (imp.getType() != ImagePlus.COLOR_RGB)
+			return ImageJFunctions.wrap(imp);
+		RandomAccessibleInterval<UnsignedByteType> rgb = Converters.argbChannels(ImageJFunctions.wrapRGBA(imp), 1, 2, 3);
+		return Cast.unchecked(Views.moveAxis(rgb, rgb.numDimensions() - 1, 2));
+	}
+	
+	/**
+	 * @param imp
+	 * 	the image
+	 * @return the number of channels of the image, 3 for RGB images
+	 */
+	public static int getNChannels(ImagePlus imp) {
+		return imp.getType() == ImagePlus.COLOR_RGB ? 3 : imp.getNChannels();
+	}
+
 	public static <T extends RealType<T> & NativeType<T>>
 	RandomAccessibleInterval<T> permute(RandomAccessibleInterval<T> rai, String ogAxesOrder, String targetAxesOrder) {
 		int n = ogAxesOrder.length();
@@ -0,0 +1,144 @@
+package deepimagej.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.stream.Stream;
+
+/**
+ * Lists the input files of a folder lazily, so the files can be processed while the
+ * folder is still being explored. Only regular files that are not hidden are returned.
+ * 
+ * Include and exclude filters are glob patterns (see {@link java.nio.file.FileSystem#getPathMatcher(String)}).
+ * Patterns without a '/' are matched against the file name, for example "*.tif", and the rest
+ * against the path relative to the input folder, for example "plate_1/**".
+ * 
+ * The files can be split in shards, so several executions process different files of the same folder.
+ * 
+ * @author Carlos Garcia
+ */
+public class InputWalker {
+	
+	private final Path root;
+	
+	private int maxDepth = 1;
+	
+	private PathMatcher include;
+	
+	private boolean includeName;
+	
+	private PathMatcher exclude;
+	
+	private boolean excludeName;
+	
+	private Path skipFolder;
+	
+	private int shardIndex = 0;
+	
+	private int shardCount = 1;
+	
+	private long startTime;
+	
+	public InputWalker(String folder) {
+		this.root = new File(folder).toPath().toAbsolutePath().normalize();
+	}
+	
+	/**
+	 * @param maxDepth
+	 * 	number of levels of folders explored, 1 only explores the files of the input folder
+	 * @return the same walker
+	 */
+	public InputWalker setMaxDepth(int maxDepth) {
+		if (maxDepth < 1)
+			throw new IllegalArgumentException("The depth needs to be at least 1: " + maxDepth);
+		this.maxDepth = maxDepth;
+		return this;
+	}
+	
+	/**
+	 * @param glob
+	 * 	pattern that the files need to match to be processed, null to process every file
+	 * @return the same walker
+	 */
+	public InputWalker setInclude(String glob) {
+		include = glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		includeName = glob != null && !glob.contains("/");
+		return this;
+	}
+	
+	/**
+	 * @param glob
+	 * 	pattern of the files that will not be processed, null to not exclude any file
+	 * @return the same walker
+	 */
+	public InputWalker setExclude(String glob) {
+		exclude = glob == null ? null : FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		excludeName = glob != null && !glob.contains("/");
+		return this;
+	}
+	
+	/**
+	 * @param folder
+	 * 	folder whose content is never returned, for example the output folder when
+	 * 	it is inside the input folder. If it is the input folder itself, only the files
+	 * 	created after the exploration started are skipped
+	 * @return the same walker
+	 */
+	public InputWalker setSkipFolder(String folder) {
+		skipFolder = folder == null ? null : new File(folder).toPath().toAbsolutePath().normalize();
+		return this;
+	}
+	
+	/**
+	 * @param index
+	 * 	shard whose files are returned, from 0 to count - 1
+	 * @param count
+	 * 	number of shards. The files are assigned to the shards with the hash of their path relative
+	 * 	to the input folder, so every execution assigns them in the same way
+	 * @return the same walker
+	 */
+	public InputWalker setShard(int index, int count) {
+		if (count < 1 || index < 0 || index >= count)
+			throw new IllegalArgumentException("The shard needs to be from 0 to " + (count - 1) + ": " + index);
+		this.shardIndex = index;
+		this.shardCount = count;
+		return this;
+	}
+	
+	/**
+	 * Start exploring the folder. The stream needs to be closed once it is not needed anymore.
+	 * @return a lazy stream with the files that need to be processed
+	 * @throws IOException if the folder cannot be opened
+	 */
+	public Stream<File> walk() throws IOException {
+		startTime = System.currentTimeMillis();
+		return Files.walk(root, maxDepth)
+				.filter(pp -> !isSkipped(pp))
+				.filter(pp -> !pp.getFileName().toString().startsWith("."))
+				.filter(Files::isRegularFile)
+				.filter(pp -> accept(pp))
+				.map(Path::toFile);
+	}
+	
+	private boolean isSkipped(Path file) {
+		if (skipFolder == null || !file.startsWith(skipFolder))
+			return false;
+		if (!skipFolder.equals(root))
+			return true;
+		return file.toFile().lastModified() >= startTime;
+	}
+	
+	private boolean accept(Path file) {
+		Path relative = root.relativize(file);
+		if (include != null && !include.matches(includeName ? relative.getFileName() : relative))
+			return false;
+		if (exclude != null && exclude.matches(excludeName ? relative.getFileName() : relative))
+			return false;
+		if (shardCount == 1)
+			return true;
+		return Math.floorMod(relative.toString().replace(File.separatorChar, '/').hashCode(), shardCount) == shardIndex;
+	}
+}
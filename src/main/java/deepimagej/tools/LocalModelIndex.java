@@ -0,0 +1,268 @@
+package deepimagej.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptor;
+import io.bioimage.modelrunner.bioimageio.description.ModelDescriptorFactory;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+import io.bioimage.modelrunner.utils.Constants;
+
+/**
+ * Index of the models installed in the models folder, stored in the folder itself so the 
+ * rdf.yaml files do not need to be parsed every time a model is looked for.
+ * An entry is only read again from its rdf.yaml when the file has been modified, and the
+ * folder is only listed again when its modification time changes (a model was added or removed).
+ * The models that need to be read are parsed in parallel.
+ * 
+ * @author Carlos Garcia
+ */
+public class LocalModelIndex {
+	
+	public static final String INDEX_NAME = ".deepimagej_models_index.tsv";
+	
+	private static final String VERSION = "1";
+	
+	private static final String SEP = "\t";
+	
+	private static final String LIST_SEP = ";";
+
+	/**
+	 * Information about an installed model
+	 */
+	public static class Entry {
+		
+		private String folder;
+		
+		private long rdfTime;
+		
+		private String nickname = "";
+		
+		private String path;
+		
+		private List<String> weightFormats = new ArrayList<String>();
+		
+		private List<String> inputs = new ArrayList<String>();
+		
+		private List<String> outputs = new ArrayList<String>();
+		
+		/**
+		 * @return name of the folder of the model inside the models folder
+		 */
+		public String getFolder() {
+			return folder;
+		}
+		
+		/**
+		 * @return the nickname of the model, empty if the rdf.yaml could not be read
+		 */
+		public String getNickname() {
+			return nickname;
+		}
+		
+		/**
+		 * @return the absolute path to the model folder
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * @return the weight formats of the model
+		 */
+		public List<String> getWeightFormats() {
+			return weightFormats;
+		}
+		
+		/**
+		 * @return the input tensors of the model, as 'name:axes'
+		 */
+		public List<String> getInputs() {
+			return inputs;
+		}
+		
+		/**
+		 * @return the output tensors of the model, as 'name:axes'
+		 */
+		public List<String> getOutputs() {
+			return outputs;
+		}
+		
+		private String toLine() {
+			return String.join(SEP, folder, "" + rdfTime, nickname, path, String.join(LIST_SEP, weightFormats),
+					String.join(LIST_SEP, inputs), String.join(LIST_SEP, outputs));
+		}
+		
+		private static Entry fromLine(String line) {
+			String[] fields = line.split(SEP, -1);
+			if (fields.length != 7)
+				return null;
+			Entry entry = new Entry();
+			entry.folder = fields[0];
+			try {
+				entry.rdfTime = Long.parseLong(fields[1]);
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+			entry.nickname = fields[2];
+			entry.path = fields[3];
+			entry.weightFormats = split(fields[4]);
+			entry.inputs = split(fields[5]);
+			entry.outputs = split(fields[6]);
+			return entry;
+		}
+		
+		private static List<String> split(String field) {
+			if (field.equals(""))
+				return new ArrayList<String>();
+			return new ArrayList<String>(Arrays.asList(field.split(LIST_SEP)));
+		}
+	}
+	
+	/**
+	 * Get the models installed in the models folder, updating the index if needed
+	 * @param modelsDir
+	 * 	the models folder
+	 * @return one entry per folder containing an rdf.yaml file, sorted by folder name
+	 */
+	public static synchronized List<Entry> getModels(String modelsDir) {
+		File dir = new File(modelsDir);
+		if (!dir.isDirectory())
+			return Collections.emptyList();
+		Path indexPath = new File(dir, INDEX_NAME).toPath();
+		long dirTime = dir.lastModified();
+		Map<String, Entry> cached = new HashMap<String, Entry>();
+		boolean valid = read(indexPath, dirTime, cached);
+		
+		List<File> folders;
+		if (valid) {
+			folders = cached.keySet().stream().map(ff -> new File(dir, ff)).collect(Collectors.toList());
+		} else {
+			File[] all = dir.listFiles();
+			folders = all == null ? new ArrayList<File>() : Arrays.asList(all);
+		}
+		List<File> modelFolders = folders.stream()
+				.filter(ff -> new File(ff, Constants.RDF_FNAME).isFile()).collect(Collectors.toList());
+		boolean[] changed = new boolean[] {!valid || modelFolders.size() != cached.size()};
+		List<Entry> entries = modelFolders.parallelStream().map(ff -> {
+			Entry entry = cached.get(ff.getName());
+			long rdfTime = new File(ff, Constants.RDF_FNAME).lastModified();
+			if (entry != null && entry.rdfTime == rdfTime)
+				return entry;
+			changed[0] = true;
+			return createEntry(ff, rdfTime);
+		}).sorted((e1, e2) -> e1.folder.compareTo(e2.folder)).collect(Collectors.toList());
+		if (changed[0])
+			write(indexPath, entries);
+		return entries;
+	}
+	
+	/**
+	 * Find an installed model by its nickname
+	 * @param modelsDir
+	 * 	the models folder
+	 * @param nickname
+	 * 	nickname of the model
+	 * @return the entry of the model or null if it is not installed
+	 */
+	public static Entry findByNickname(String modelsDir, String nickname) {
+		return getModels(modelsDir).stream().filter(ee -> ee.nickname.equals(nickname)).findFirst().orElse(null);
+	}
+	
+	private static Entry createEntry(File folder, long rdfTime) {
+		Entry entry = new Entry();
+		entry.folder = folder.getName();
+		entry.rdfTime = rdfTime;
+		entry.path = folder.getAbsolutePath();
+		try {
+			ModelDescriptor descriptor = ModelDescriptorFactory.readFromLocalFile(folder.getAbsolutePath() + File.separator + Constants.RDF_FNAME);
+			entry.nickname = clean(descriptor.getNickname());
+			entry.weightFormats = descriptor.getWeights().getAllSuportedWeightNames()
+					.stream().map(LocalModelIndex::clean).collect(Collectors.toList());
+			for (TensorSpec tt : descriptor.getInputTensors())
+				entry.inputs.add(clean(tt.getName()) + ":" + tt.getAxesOrder());
+			for (TensorSpec tt : descriptor.getOutputTensors())
+				entry.outputs.add(clean(tt.getName()) + ":" + tt.getAxesOrder());
+		} catch (Exception ex) {
+			System.err.println("[WARNING] Unable to read the specs of the model at: " + folder.getAbsolutePath());
+		}
+		return entry;
+	}
+	
+	private static String clean(String str) {
+		if (str == null)
+			return "";
+		return str.replace(SEP, " ").replace(LIST_SEP, " ").replace("\n", " ").replace("\r", " ");
+	}
+	
+	/**
+	 * Read the index file
+	 * @return whether the index corresponds to the current content of the models folder
+	 */
+	private static boolean read(Path indexPath, long dirTime, Map<String, Entry> entries) {
+		if (!Files.isRegularFile(indexPath))
+			return false;
+		try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			if (header == null || !header.equals(header(dirTime)))
+				return readEntries(reader, entries, false);
+			return readEntries(reader, entries, true);
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+	
+	private static boolean readEntries(BufferedReader reader, Map<String, Entry> entries, boolean valid) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			Entry entry = Entry.fromLine(line);
+			if (entry != null)
+				entries.put(entry.folder, entry);
+		}
+		return valid;
+	}
+	
+	private static String header(long dirTime) {
+		return String.format("#%s%s%020d", VERSION, SEP, dirTime);
+	}
+	
+	/**
+	 * Write the index to a temporary file and move it over the old one. Moving the file changes
+	 * the modification time of the models folder, so the time is written in the header afterwards,
+	 * overwriting the header in place (which does not modify the folder again).
+	 */
+	private static void write(Path indexPath, List<Entry> entries) {
+		Path tmp = indexPath.resolveSibling(INDEX_NAME + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				writer.write(header(0));
+				writer.newLine();
+				for (Entry entry : entries) {
+					writer.write(entry.toLine());
+					writer.newLine();
+				}
+			}
+			Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			long dirTime = indexPath.getParent().toFile().lastModified();
+			try (RandomAccessFile raf = new RandomAccessFile(indexPath.toFile(), "rw")) {
+				raf.write(header(dirTime).getBytes(StandardCharsets.UTF_8));
+			}
+		} catch (IOException ex) {
+			System.err.println("[WARNING] Unable to save the index of the models folder: " + ex.getMessage());
+		}
+	}
+}
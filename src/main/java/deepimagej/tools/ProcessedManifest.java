@@ -0,0 +1,131 @@
+package deepimagej.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Record of the inputs of a folder that have already been processed, so an interrupted
+ * execution can be resumed without processing them again. The manifest is stored in the
+ * output folder, with one line per input: path, size, last modification time and hash of 
+ * the model used. 
+ * Every line is appended and synced to disk once the outputs of the input have been saved,
+ * a line that was not completely written is ignored when the manifest is read again.
+ * 
+ * @author Carlos Garcia
+ */
+public class ProcessedManifest implements AutoCloseable {
+	
+	public static final String MANIFEST_NAME = ".deepimagej_manifest.tsv";
+	
+	private static final String SEP = "\t";
+	
+	private final Path path;
+	
+	private final String modelHash;
+	
+	private final Map<String, String> done = new LinkedHashMap<String, String>();
+	
+	private FileChannel channel;
+	
+	private ProcessedManifest(Path path, String modelHash) {
+		this.path = path;
+		this.modelHash = modelHash;
+	}
+	
+	/**
+	 * Open the manifest of an output folder, creating it if it does not exist
+	 * @param outputFolder
+	 * 	folder where the outputs are saved
+	 * @param modelFolder
+	 * 	folder of the model used, inputs processed with another model are processed again
+	 * @return the manifest
+	 * @throws IOException if there is any error reading or writing the manifest
+	 */
+	public static ProcessedManifest open(String outputFolder, String modelFolder) throws IOException {
+		String hash = FileTools.createSHA256(modelFolder + File.separator + io.bioimage.modelrunner.utils.Constants.RDF_FNAME);
+		ProcessedManifest manifest = new ProcessedManifest(new File(outputFolder, MANIFEST_NAME).toPath(), hash);
+		manifest.read();
+		manifest.compact();
+		manifest.channel = FileChannel.open(manifest.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		return manifest;
+	}
+	
+	/**
+	 * @param input
+	 * 	input file
+	 * @return whether the file has already been processed with the same model and has not changed since
+	 */
+	public synchronized boolean isDone(File input) {
+		return record(input).equals(done.get(input.getAbsolutePath()));
+	}
+	
+	/**
+	 * Record that the outputs of the input file have been saved
+	 * @param input
+	 * 	input file
+	 * @throws IOException if there is any error writing the manifest
+	 */
+	public synchronized void markDone(File input) throws IOException {
+		String key = input.getAbsolutePath();
+		String record = record(input);
+		String line = key + SEP + record + System.lineSeparator();
+		ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+		done.put(key, record);
+	}
+	
+	private String record(File input) {
+		return input.length() + SEP + input.lastModified() + SEP + modelHash;
+	}
+	
+	private void read() throws IOException {
+		if (!Files.isRegularFile(path))
+			return;
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(SEP);
+				if (fields.length != 4 || fields[3].length() != modelHash.length())
+					continue;
+				done.put(fields[0], fields[1] + SEP + fields[2] + SEP + fields[3]);
+			}
+		}
+	}
+	
+	/**
+	 * Rewrite the manifest without repeated or incomplete lines. The new file is written 
+	 * next to the old one and then moved over it, so the manifest is never left half written.
+	 */
+	private void compact() throws IOException {
+		Path tmp = path.resolveSibling(MANIFEST_NAME + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, String> entry : done.entrySet()) {
+				writer.write(entry.getKey() + SEP + entry.getValue());
+				writer.newLine();
+			}
+		}
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			ch.force(true);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+}
@@ -0,0 +1,122 @@
+package deepimagej.tools;
+
+import java.util.List;
+
+import io.bioimage.modelrunner.bioimageio.description.Axis;
+import io.bioimage.modelrunner.bioimageio.description.TensorSpec;
+
+/**
+ * Read the shape constraints of a tensor from its specs. Every array follows
+ * the axes order of the tensor, {@link TensorSpec#getAxesOrder()}.
+ * 
+ * @author Carlos Garcia
+ */
+public class TensorSpecTools {
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the minimum size allowed for each axis
+	 */
+	public static int[] getMin(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		int[] arr = new int[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getMin();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the step each axis can grow from the minimum size, 0 if the size is fixed
+	 */
+	public static int[] getStep(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		int[] arr = new int[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getStep();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the number of pixels at each side of the axis that are not valid
+	 */
+	public static int[] getHalo(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		int[] arr = new int[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getHalo();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the name of the tensor whose size defines the size of each axis, null if the axis does not depend on another tensor
+	 */
+	public static String[] getReferenceTensor(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		String[] arr = new String[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getReferenceTensor();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the axis of the reference tensor whose size defines the size of each axis, null if it is the same axis
+	 */
+	public static String[] getReferenceAxis(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		String[] arr = new String[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getReferenceAxis();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the scale of each axis with respect to the axis of the reference tensor
+	 */
+	public static double[] getScale(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		double[] arr = new double[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getScale();
+		return arr;
+	}
+
+	/**
+	 * @param spec
+	 * 	specs of the tensor
+	 * @return the number of pixels added at each side of the axis with respect to the scaled axis of the reference tensor
+	 */
+	public static int[] getOffset(TensorSpec spec) {
+		List<Axis> axes = spec.getAxesInfo().getAxesList();
+		int[] arr = new int[axes.size()];
+		for (int i = 0; i < arr.length; i ++)
+			arr[i] = axes.get(i).getOffset();
+		return arr;
+	}
+	
+	/**
+	 * Get the smallest size accepted by the tensor along an axis that is bigger or equal than the wanted size
+	 * @param min
+	 * 	minimum size of the axis
+	 * @param step
+	 * 	step of the axis
+	 * @param size
+	 * 	wanted size
+	 * @return the closest valid size
+	 */
+	public static long validSize(int min, int step, long size) {
+		if (step <= 0 || size <= min)
+			return min > 0 ? min : size;
+		return min + (long) Math.ceil((size - min) / (double) step) * step;
+	}
+}
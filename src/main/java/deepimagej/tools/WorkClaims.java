@@ -0,0 +1,264 @@
+package deepimagej.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution of the inputs of a folder among several processes, possibly on different machines,
+ * that only share a file system. Before processing an input, a process claims it creating a claim
+ * file with {@link StandardOpenOption#CREATE_NEW}, which only one of the processes can do. Once the
+ * outputs are saved, the claim is replaced by a done marker, so no other process takes the input again.
+ *
+ * While an input is being processed, the modification time of its claim is renewed periodically.
+ * Claims that have not been renewed for longer than the lease belong to processes that died, and are
+ * reclaimed by the next process that finds them. The clocks of the machines need to agree to much
+ * less than the lease. Each claim names the process that holds it, and a process only renews,
+ * releases or finishes the claims that still name it, so a process that was taken for dead does
+ * not touch the claim of the process that took over its input.
+ *
+ * The claim and done files are named with the hash of the path of the input relative to the input
+ * folder, so the input folder can be mounted at different paths on each machine.
+ *
+ * @author Carlos Garcia
+ */
+public class WorkClaims implements AutoCloseable {
+
+	public static final String FOLDER_NAME = ".deepimagej_claims";
+
+	/**
+	 * Default time after which a claim that is not renewed can be taken by another process
+	 */
+	public static final long DEFAULT_LEASE = 10 * 60 * 1000;
+
+	private static final String CLAIM_EXT = ".claim";
+
+	private static final String DONE_EXT = ".done";
+
+	private static final String SEP = "\t";
+
+	private final Path folder;
+
+	private final Path root;
+
+	private final long lease;
+
+	private final String owner;
+
+	private final Set<Path> held = ConcurrentHashMap.newKeySet();
+
+	private final ScheduledExecutorService heartbeat;
+
+	private WorkClaims(Path folder, Path root, long lease) {
+		this.folder = folder;
+		this.root = root;
+		this.lease = lease;
+		this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "deepimagej-claims");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, lease / 4);
+		heartbeat.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Open the claims of an input folder
+	 * @param claimFolder
+	 * 	shared folder where the claims are stored, it is created if it does not exist
+	 * @param inputFolder
+	 * 	folder whose inputs are distributed
+	 * @param lease
+	 * 	milliseconds after which a claim that has not been renewed can be taken by another process
+	 * @return the claims
+	 * @throws IOException if the claim folder cannot be created
+	 */
+	public static WorkClaims open(String claimFolder, String inputFolder, long lease) throws IOException {
+		if (lease <= 0)
+			throw new IllegalArgumentException("The lease of the claims needs to be positive: " + lease);
+		Path folder = new File(claimFolder).toPath().toAbsolutePath();
+		Files.createDirectories(folder);
+		return new WorkClaims(folder, new File(inputFolder).toPath().toAbsolutePath().normalize(), lease);
+	}
+
+	/**
+	 * Try to claim an input. The input is not claimed if it has already been processed or if another
+	 * process holds a claim on it that has not expired
+	 * @param input
+	 * 	input file
+	 * @return whether this process has to process the input
+	 */
+	public boolean tryClaim(File input) {
+		String key = key(input);
+		Path claim = folder.resolve(key + CLAIM_EXT);
+		Path done = folder.resolve(key + DONE_EXT);
+		try {
+			for (int attempt = 0; attempt < 2 && !Files.exists(done); attempt ++) {
+				try {
+					Files.write(claim, (owner + SEP + relative(input) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+							StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				} catch (FileAlreadyExistsException ex) {
+					if (!reclaimIfExpired(claim))
+						return false;
+					continue;
+				}
+				// Another process might have finished the input between the check and the claim
+				if (Files.exists(done)) {
+					Files.deleteIfExists(claim);
+					return false;
+				}
+				held.add(claim);
+				return true;
+			}
+			return false;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Record that the outputs of a claimed input have been saved and release its claim
+	 * @param input
+	 * 	input file
+	 * @throws IOException if there is any error writing the done marker
+	 */
+	public void markDone(File input) throws IOException {
+		String key = key(input);
+		Path claim = folder.resolve(key + CLAIM_EXT);
+		Files.write(folder.resolve(key + DONE_EXT), (owner + SEP + relative(input) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+		held.remove(claim);
+		release(claim);
+	}
+
+	/**
+	 * Release the claim of an input that has not been processed, so other processes can take it
+	 * @param input
+	 * 	input file
+	 * @throws IOException if the claim cannot be deleted
+	 */
+	public void release(File input) throws IOException {
+		Path claim = folder.resolve(key(input) + CLAIM_EXT);
+		held.remove(claim);
+		release(claim);
+	}
+
+	/**
+	 * Remove a claim whose lease has expired. The claim is first moved to a unique name, which only
+	 * one of the processes that find it expired manages to do. Another process might have reclaimed
+	 * the expired claim and created a new one between the check and the move, in which case the new
+	 * claim is moved back
+	 * @return whether the claim does not exist anymore
+	 */
+	private boolean reclaimIfExpired(Path claim) throws IOException {
+		try {
+			if (isActive(claim))
+				return false;
+			Path stale = claim.resolveSibling(claim.getFileName() + "." + UUID.randomUUID() + ".stale");
+			Files.move(claim, stale, StandardCopyOption.ATOMIC_MOVE);
+			if (isActive(stale)) {
+				try {
+					Files.move(stale, claim);
+				} catch (FileAlreadyExistsException ex) {
+					Files.deleteIfExists(stale);
+				}
+				return false;
+			}
+			Files.deleteIfExists(stale);
+			return true;
+		} catch (NoSuchFileException ex) {
+			return true;
+		}
+	}
+
+	private boolean isActive(Path claim) throws IOException {
+		return System.currentTimeMillis() - Files.getLastModifiedTime(claim).toMillis() < lease;
+	}
+
+	/**
+	 * @return whether the claim exists and names this process
+	 */
+	private boolean owns(Path claim) throws IOException {
+		try {
+			return new String(Files.readAllBytes(claim), StandardCharsets.UTF_8).startsWith(owner + SEP);
+		} catch (NoSuchFileException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Delete a claim if it still names this process
+	 */
+	private void release(Path claim) throws IOException {
+		if (owns(claim))
+			Files.deleteIfExists(claim);
+	}
+
+	/**
+	 * Renew the claims that are still being processed. A claim that does not exist anymore or that
+	 * names another process was taken by another process, and is not renewed
+	 */
+	private void renew() {
+		FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+		for (Path claim : held) {
+			try {
+				if (owns(claim)) {
+					Files.setLastModifiedTime(claim, now);
+					continue;
+				}
+				held.remove(claim);
+				System.err.println("[WARNING] The claim " + claim + " was taken by another process.");
+			} catch (NoSuchFileException ex) {
+				held.remove(claim);
+			} catch (IOException ex) {
+				System.err.println("[WARNING] Unable to renew the claim " + claim + ": " + ex.getMessage());
+			}
+		}
+	}
+
+	private String relative(File input) {
+		return root.relativize(input.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+	}
+
+	private String key(File input) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(relative(input).getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (byte b : hash)
+				key.append(String.format("%02x", b));
+			return key.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Stop renewing the claims and release the ones that were not finished, so other processes
+	 * can take them without waiting for the lease to expire
+	 */
+	@Override
+	public void close() throws IOException {
+		heartbeat.shutdownNow();
+		for (Path claim : held)
+			release(claim);
+		held.clear();
+	}
+}
@@ -0,0 +1,179 @@
+package deepimagej;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link BatchPipeline}, checking that a failing stage stops the rest of them
+ */
+public class BatchPipelineTest {
+
+	private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+	@Test
+	public void testEveryJobIsCommittedInOrder() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(File::getName, job -> {}, written::add);
+		run(pipeline, files(50).iterator());
+		assertEquals(names(50), written);
+	}
+
+	@Test
+	public void testSkippedAndFlushedJobs() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		BatchPipeline.Decoder<String> decoder = new BatchPipeline.Decoder<String>() {
+			@Override
+			public String decode(File file) {
+				return file.getName().equals("3") ? null : file.getName();
+			}
+
+			@Override
+			public List<String> flush() {
+				return Arrays.asList("last");
+			}
+		};
+		run(new BatchPipeline<String>(decoder, job -> {}, written::add), files(5).iterator());
+		assertEquals(Arrays.asList("0", "1", "2", "4", "last"), written);
+	}
+
+	@Test
+	public void testInferenceErrorStopsTheDecoder() throws Exception {
+		Exception error = new IllegalStateException("inference");
+		AtomicInteger written = new AtomicInteger();
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(File::getName, job -> {
+			if (job.equals("10"))
+				throw error;
+		}, job -> written.incrementAndGet());
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> run(pipeline, endless()));
+		assertSame(error, ex.getCause());
+		// Jobs still waiting for the writer when the error happened are dropped
+		assertTrue(written.get() <= 10, "Written " + written.get());
+	}
+
+	@Test
+	public void testWriterErrorStopsTheInference() throws Exception {
+		Exception error = new IOException("disk full");
+		AtomicInteger processed = new AtomicInteger();
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(File::getName, job -> processed.incrementAndGet(), job -> {
+			if (job.equals("5"))
+				throw error;
+		});
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> run(pipeline, endless()));
+		assertSame(error, ex.getCause());
+		// Only the jobs waiting in the queues when the writer failed are run
+		assertTrue(processed.get() <= 5 + 2 * BatchPipeline.DEFAULT_CAPACITY + 2, "Processed " + processed.get());
+	}
+
+	@Test
+	public void testDecoderErrorIsThrown() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		Exception error = new IOException("corrupted file");
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(file -> {
+			if (file.getName().equals("3"))
+				throw error;
+			return file.getName();
+		}, job -> {}, written::add);
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> run(pipeline, endless()));
+		assertSame(error, ex.getCause());
+		assertTrue(written.size() <= 3);
+	}
+
+	@Test
+	public void testErrorOfOneWorkerStopsTheOthers() throws Exception {
+		Error error = new OutOfMemoryError("engine");
+		List<BatchPipeline.Stage<String>> workers = new ArrayList<BatchPipeline.Stage<String>>();
+		workers.add(job -> Thread.sleep(1));
+		workers.add(job -> Thread.sleep(1));
+		workers.add(job -> {
+			throw error;
+		});
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(File::getName, workers, job -> {});
+		ExecutionException ex = assertThrows(ExecutionException.class, () -> run(pipeline, endless()));
+		assertSame(error, ex.getCause());
+	}
+
+	@Test
+	public void testPipelineCanRunAgainAfterAnError() throws Exception {
+		List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		AtomicInteger runs = new AtomicInteger();
+		BatchPipeline<String> pipeline = new BatchPipeline<String>(File::getName, job -> {
+			if (runs.get() == 0)
+				throw new IllegalStateException("first run");
+		}, written::add);
+		assertThrows(ExecutionException.class, () -> run(pipeline, files(3).iterator()));
+		runs.incrementAndGet();
+		run(pipeline, files(3).iterator());
+		assertEquals(names(3), written);
+	}
+
+	/**
+	 * Run the pipeline on another thread, so a pipeline that does not stop makes the test fail instead of hanging
+	 */
+	private static void run(BatchPipeline<String> pipeline, Iterator<File> files) throws Exception {
+		Exception[] thrown = new Exception[1];
+		Thread thread = new Thread(() -> {
+			try {
+				pipeline.run(files);
+			} catch (Exception ex) {
+				thrown[0] = ex;
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		thread.join(TIMEOUT);
+		if (thread.isAlive()) {
+			thread.interrupt();
+			throw new AssertionError("The pipeline did not stop");
+		}
+		if (thrown[0] != null)
+			throw thrown[0];
+	}
+
+	private static List<File> files(int n) {
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < n; i ++)
+			files.add(new File(String.valueOf(i)));
+		return files;
+	}
+
+	private static List<String> names(int n) {
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < n; i ++)
+			names.add(String.valueOf(i));
+		return names;
+	}
+
+	/**
+	 * Files that never end, so the decoder only stops if the pipeline stops it
+	 */
+	private static Iterator<File> endless() {
+		return new Iterator<File>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public File next() {
+				return new File(String.valueOf(next ++));
+			}
+		};
+	}
+}
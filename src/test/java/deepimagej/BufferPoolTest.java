@@ -0,0 +1,112 @@
+package deepimagej;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import io.bioimage.modelrunner.tensor.Tensor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link BufferPool}
+ */
+public class BufferPoolTest {
+
+	private static final long[] DIMS = new long[] {10, 10};
+
+	/**
+	 * Bytes of a float buffer of {@link #DIMS}
+	 */
+	private static final long BYTES = 10 * 10 * Float.BYTES;
+
+	@Test
+	public void testReleasedBufferIsReused() {
+		BufferPool pool = new BufferPool(BYTES);
+		Img<FloatType> first = pool.acquire(new FloatType(), DIMS);
+		assertArrayEquals(DIMS, first.dimensionsAsLongArray());
+		pool.release(first);
+		assertSame(first, pool.acquire(new FloatType(), DIMS));
+	}
+
+	@Test
+	public void testBuffersInUseAreNotShared() {
+		BufferPool pool = new BufferPool(10 * BYTES);
+		Img<FloatType> first = pool.acquire(new FloatType(), DIMS);
+		Img<FloatType> second = pool.acquire(new FloatType(), DIMS);
+		assertNotSame(first, second);
+		pool.release(first);
+		// A buffer given back twice is only kept once
+		pool.release(first);
+		assertSame(first, pool.acquire(new FloatType(), DIMS));
+		assertNotSame(first, pool.acquire(new FloatType(), DIMS));
+	}
+
+	@Test
+	public void testBuffersAreGroupedByTypeAndShape() {
+		BufferPool pool = new BufferPool(10 * BYTES);
+		Img<FloatType> floats = pool.acquire(new FloatType(), DIMS);
+		pool.release(floats);
+		Img<UnsignedShortType> shorts = pool.acquire(new UnsignedShortType(), DIMS);
+		assertNotSame(floats, shorts);
+		Img<FloatType> other = pool.acquire(new FloatType(), new long[] {10, 20});
+		assertNotSame(floats, other);
+		assertSame(floats, pool.acquire(new FloatType(), DIMS));
+	}
+
+	@Test
+	public void testImagesNotCreatedByThePoolAreIgnored() {
+		BufferPool pool = new BufferPool(10 * BYTES);
+		Img<FloatType> outside = ArrayImgs.floats(DIMS);
+		pool.release(outside);
+		assertNotSame(outside, pool.acquire(new FloatType(), DIMS));
+	}
+
+	@Test
+	public void testCapacity() {
+		BufferPool pool = new BufferPool(BYTES);
+		Img<FloatType> first = pool.acquire(new FloatType(), DIMS);
+		Img<FloatType> second = pool.acquire(new FloatType(), DIMS);
+		pool.release(first);
+		// The pool is full, the second buffer is left to the garbage collector
+		pool.release(second);
+		assertSame(first, pool.acquire(new FloatType(), DIMS));
+		Img<FloatType> third = pool.acquire(new FloatType(), DIMS);
+		assertNotSame(first, third);
+		assertNotSame(second, third);
+	}
+
+	@Test
+	public void testDetachedBufferIsNotReused() {
+		BufferPool pool = new BufferPool(10 * BYTES);
+		Img<FloatType> displayed = pool.acquire(new FloatType(), DIMS);
+		pool.detach(displayed);
+		pool.release(displayed);
+		assertNotSame(displayed, pool.acquire(new FloatType(), DIMS));
+	}
+
+	@Test
+	public void testTensorIsKeptWithTheBuffer() {
+		BufferPool pool = new BufferPool(BYTES);
+		Img<FloatType> buffer = pool.acquire(new FloatType(), DIMS);
+		Tensor<FloatType> tensor = pool.tensor("input", "xy", buffer);
+		assertSame(buffer, tensor.getData());
+		pool.release(buffer);
+		assertSame(buffer, pool.acquire(new FloatType(), DIMS));
+		assertSame(tensor, pool.tensor("input", "xy", buffer));
+		assertNotSame(tensor, pool.tensor("output", "xy", buffer));
+	}
+
+	@Test
+	public void testClear() {
+		BufferPool pool = new BufferPool(BYTES);
+		Img<FloatType> first = pool.acquire(new FloatType(), DIMS);
+		pool.release(first);
+		pool.clear();
+		assertNotSame(first, pool.acquire(new FloatType(), DIMS));
+	}
+}
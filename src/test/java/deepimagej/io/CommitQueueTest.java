@@ -0,0 +1,112 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link CommitQueue}
+ */
+public class CommitQueueTest {
+
+	@Test
+	public void testOutputsAreSavedInOrder() throws Exception {
+		List<Integer> saved = new CopyOnWriteArrayList<Integer>();
+		AtomicLong written = new AtomicLong();
+		try (CommitQueue queue = new CommitQueue(100)) {
+			for (int i = 0; i < 10; i ++) {
+				int index = i;
+				queue.submit(30, () -> {
+					saved.add(index);
+					return 30;
+				}, written::addAndGet);
+			}
+			queue.flush();
+			assertEquals(300, written.get());
+		}
+		for (int i = 0; i < 10; i ++)
+			assertEquals(i, (int) saved.get(i));
+	}
+
+	@Test
+	public void testSubmitWaitsWhileTheQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		try (CommitQueue queue = new CommitQueue(100)) {
+			queue.submit(80, () -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					throw new IOException(ex);
+				}
+				return 80;
+			}, null);
+			started.await();
+			Thread submitter = new Thread(() -> {
+				try {
+					queue.submit(80, () -> 80, null);
+				} catch (IOException | InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
+			});
+			submitter.start();
+			submitter.join(200);
+			assertTrue(submitter.isAlive());
+			release.countDown();
+			submitter.join();
+		}
+	}
+
+	@Test
+	public void testIOExceptionIsThrownByFlush() throws Exception {
+		CommitQueue queue = new CommitQueue(100);
+		queue.submit(10, () -> {
+			throw new IOException("disk full");
+		}, null);
+		IOException ex = assertThrows(IOException.class, queue::flush);
+		assertEquals("disk full", ex.getMessage());
+		assertThrows(IOException.class, () -> queue.submit(10, () -> 10, null));
+		queue.cancel();
+	}
+
+	@Test
+	public void testErrorIsThrownByFlush() throws Exception {
+		CommitQueue queue = new CommitQueue(100);
+		queue.submit(10, () -> {
+			throw new OutOfMemoryError("Java heap space");
+		}, null);
+		assertThrows(OutOfMemoryError.class, queue::flush);
+		assertThrows(OutOfMemoryError.class, () -> queue.submit(10, () -> 10, null));
+		queue.cancel();
+	}
+
+	@Test
+	public void testFailingCallbackIsThrownByFlush() throws Exception {
+		CommitQueue queue = new CommitQueue(100);
+		queue.submit(10, () -> 10, bytes -> {
+			throw new IOException("manifest not writable");
+		});
+		assertThrows(IOException.class, queue::flush);
+		queue.cancel();
+	}
+
+	@Test
+	public void testCountDownRunsOnceWithTheTotal() throws Exception {
+		AtomicLong total = new AtomicLong(-1);
+		CommitQueue.Callback callback = CommitQueue.countDown(3, total::set);
+		callback.committed(1);
+		callback.committed(2);
+		assertEquals(-1, total.get());
+		callback.committed(3);
+		assertEquals(6, total.get());
+	}
+}
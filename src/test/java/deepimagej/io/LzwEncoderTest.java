@@ -0,0 +1,157 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link LzwEncoder}, decoding its output with a reference TIFF LZW decoder
+ */
+public class LzwEncoderTest {
+
+	private static final int CLEAR = 256;
+
+	private static final int EOI = 257;
+
+	@Test
+	public void testEmptyStrip() {
+		assertRoundTrip(new byte[0]);
+	}
+
+	@Test
+	public void testSingleByte() {
+		assertRoundTrip(new byte[] {42});
+	}
+
+	@Test
+	public void testConstantData() {
+		// Few codes, each of them a longer run than the previous one
+		byte[] data = new byte[1 << 20];
+		Arrays.fill(data, (byte) 7);
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testRamp() {
+		byte[] data = new byte[256 * 256 * 2];
+		for (int i = 0; i < data.length; i ++)
+			data[i] = (byte) (i / 2 + i % 7);
+		assertRoundTrip(data);
+	}
+
+	@Test
+	public void testRandomDataFillsTheTable() {
+		// Random data barely compresses, so the table is filled and cleared many times
+		byte[] data = new byte[200000];
+		new Random(1).nextBytes(data);
+		byte[] encoded = assertRoundTrip(data);
+		assertEquals(CLEAR, firstCode(encoded));
+	}
+
+	@Test
+	public void testEveryLengthAroundTheWidthChanges() {
+		// The strip ends just before, at and just after each change of code width and each clear
+		Random random = new Random(2);
+		for (int length = 1; length < 5000; length ++) {
+			byte[] data = new byte[length];
+			random.nextBytes(data);
+			assertRoundTrip(data);
+		}
+	}
+
+	@Test
+	public void testOnlyTheGivenLengthIsEncoded() {
+		byte[] data = new byte[1000];
+		new Random(3).nextBytes(data);
+		byte[] decoded = decode(new LzwEncoder().encode(data, 600));
+		assertArrayEquals(Arrays.copyOf(data, 600), decoded);
+	}
+
+	@Test
+	public void testEncoderCanBeReused() {
+		LzwEncoder lzw = new LzwEncoder();
+		byte[] first = new byte[100000];
+		new Random(4).nextBytes(first);
+		byte[] second = new byte[3000];
+		Arrays.fill(second, (byte) 1);
+		assertArrayEquals(first, decode(lzw.encode(first, first.length)));
+		assertArrayEquals(second, decode(lzw.encode(second, second.length)));
+	}
+
+	private static byte[] assertRoundTrip(byte[] data) {
+		byte[] encoded = new LzwEncoder().encode(data, data.length);
+		assertArrayEquals(data, decode(encoded), "Round trip of " + data.length + " bytes");
+		return encoded;
+	}
+
+	private static int firstCode(byte[] encoded) {
+		return ((encoded[0] & 0xff) << 1) | ((encoded[1] & 0xff) >>> 7);
+	}
+
+	/**
+	 * Decoder written after the TIFF 6.0 specification, section 13, with the code width
+	 * changing one code early as libtiff and ImageJ expect
+	 */
+	private static byte[] decode(byte[] input) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[][] table = new byte[4096][];
+		int next = 0;
+		int width = 9;
+		int old = -1;
+		long bitPos = 0;
+		long totalBits = input.length * 8L;
+		while (bitPos + width <= totalBits) {
+			int code = 0;
+			for (int i = 0; i < width; i ++, bitPos ++)
+				code = (code << 1) | ((input[(int) (bitPos >>> 3)] >>> (7 - (bitPos & 7))) & 1);
+			if (code == EOI)
+				return out.toByteArray();
+			if (code == CLEAR) {
+				for (int i = 0; i < 256; i ++)
+					table[i] = new byte[] {(byte) i};
+				next = 258;
+				width = 9;
+				old = -1;
+				continue;
+			}
+			if (old == -1) {
+				if (code > 255)
+					throw new AssertionError("The first code after a clear is not a byte: " + code);
+				out.write(table[code], 0, 1);
+				old = code;
+				continue;
+			}
+			byte[] entry;
+			if (code < next) {
+				entry = table[code];
+			} else if (code == next) {
+				entry = append(table[old], table[old][0]);
+			} else {
+				throw new AssertionError("Code " + code + " is not in the table, next code is " + next);
+			}
+			out.write(entry, 0, entry.length);
+			if (next > 4093)
+				throw new AssertionError("The table is full and no clear code was written");
+			table[next ++] = append(table[old], entry[0]);
+			old = code;
+			if (next == 511)
+				width = 10;
+			else if (next == 1023)
+				width = 11;
+			else if (next == 2047)
+				width = 12;
+		}
+		throw new AssertionError("The strip does not end with the end of information code");
+	}
+
+	private static byte[] append(byte[] prefix, byte last) {
+		byte[] entry = Arrays.copyOf(prefix, prefix.length + 1);
+		entry[prefix.length] = last;
+		return entry;
+	}
+}
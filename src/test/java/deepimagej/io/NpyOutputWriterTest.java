@@ -0,0 +1,141 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link NpyOutputWriter}, reading the header as numpy.load does
+ */
+public class NpyOutputWriterTest {
+
+	private Path folder;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("npy_writer_test");
+	}
+
+	@Test
+	public void testFloatArray() throws IOException {
+		float[] data = new float[] {0, 1.5f, -2, 3, 4, 5};
+		long written = new NpyOutputWriter().write(folder.toString(), "out", ArrayImgs.floats(data, 3, 2), "xy");
+		ByteBuffer file = read("out.npy");
+		assertEquals(file.capacity(), written);
+		String header = readHeader(file);
+		assertEquals("{'descr': '<f4', 'fortran_order': True, 'shape': (3, 2), }", header.trim());
+		// imglib2 stores the first axis first, which is the Fortran order of the same shape
+		for (int i = 0; i < data.length; i ++)
+			assertEquals(data[i], file.getFloat(), 0);
+		assertEquals(0, file.remaining());
+	}
+
+	@Test
+	public void testOneDimensionalShapeIsATuple() throws IOException {
+		new NpyOutputWriter().write(folder.toString(), "vector", ArrayImgs.unsignedShorts(new short[] {1, 2, -1}, 3), "x");
+		ByteBuffer file = read("vector.npy");
+		assertEquals("{'descr': '<u2', 'fortran_order': True, 'shape': (3,), }", readHeader(file).trim());
+		assertEquals(1, file.getShort());
+		assertEquals(2, file.getShort());
+		assertEquals(65535, file.getShort() & 0xFFFF);
+	}
+
+	@Test
+	public void testTypes() throws IOException {
+		assertDescr("|u1", ArrayImgs.unsignedBytes(2, 2));
+		assertDescr("|i1", ArrayImgs.bytes(2, 2));
+		assertDescr("<i2", ArrayImgs.shorts(2, 2));
+		assertDescr("<u4", ArrayImgs.unsignedInts(2, 2));
+		assertDescr("<i4", ArrayImgs.ints(2, 2));
+		assertDescr("<i8", ArrayImgs.longs(2, 2));
+		assertDescr("<f8", ArrayImgs.doubles(2, 2));
+	}
+
+	@Test
+	public void testPartsAreAppendedInCOrder() throws IOException {
+		long written;
+		try (OutputWriter.Appender<FloatType> appender = new NpyOutputWriter().open(folder.toString(), "parts", "byx")) {
+			appender.append(part(0, 2));
+			appender.append(part(2, 1));
+			written = appender.finish();
+		}
+		ByteBuffer file = read("parts.npy");
+		assertEquals("{'descr': '<f4', 'fortran_order': False, 'shape': (3, 2, 4), }", readHeader(file).trim());
+		assertEquals(file.position(), written);
+		// The last axis changes fastest in C order, so the parts follow each other
+		for (int b = 0; b < 3; b ++) {
+			for (int y = 0; y < 2; y ++) {
+				for (int x = 0; x < 4; x ++)
+					assertEquals(100 * b + 10 * y + x, file.getFloat(), 0);
+			}
+		}
+		assertEquals(0, file.remaining());
+	}
+
+	/**
+	 * @return a part of the axes b, y, x whose values are 100 * b + 10 * y + x
+	 */
+	private static ArrayImg<FloatType, FloatArray> part(int start, int frames) {
+		float[] data = new float[frames * 2 * 4];
+		for (int b = 0; b < frames; b ++) {
+			for (int y = 0; y < 2; y ++) {
+				for (int x = 0; x < 4; x ++)
+					data[b + frames * y + frames * 2 * x] = 100 * (start + b) + 10 * y + x;
+			}
+		}
+		return ArrayImgs.floats(data, frames, 2, 4);
+	}
+
+	@Test
+	public void testAxesBeforeTheBatchAxisAreNotAppended() throws IOException {
+		try (OutputWriter.Appender<FloatType> appender = new NpyOutputWriter().open(folder.toString(), "parts", "cbx")) {
+			assertThrows(IllegalArgumentException.class, () -> appender.append(ArrayImgs.floats(2, 3, 4)));
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertDescr(String descr, RandomAccessibleInterval<T> rai) throws IOException {
+		new NpyOutputWriter().write(folder.toString(), "type", rai, "xy");
+		String header = readHeader(read("type.npy"));
+		assertTrue(header.startsWith("{'descr': '" + descr + "', "), header);
+	}
+
+	private ByteBuffer read(String name) throws IOException {
+		return ByteBuffer.wrap(Files.readAllBytes(folder.resolve(name))).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Read and check the header of the version 1.0 of the format, leaving the buffer at the start of the data
+	 */
+	private static String readHeader(ByteBuffer file) {
+		byte[] magic = new byte[6];
+		file.get(magic);
+		assertEquals("\u0093NUMPY", new String(magic, StandardCharsets.ISO_8859_1));
+		assertEquals(1, file.get());
+		assertEquals(0, file.get());
+		int length = file.getShort() & 0xFFFF;
+		byte[] header = new byte[length];
+		file.get(header);
+		// numpy pads the header with spaces and ends it with a new line, so the data is aligned to 64 bytes
+		assertEquals(0, file.position() % 64);
+		assertEquals((byte) '\n', header[length - 1]);
+		return new String(header, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,107 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+/**
+ * Tests of {@link OutputNarrowing}
+ */
+public class OutputNarrowingTest {
+
+	@Test
+	public void testParse() {
+		OutputNarrowing narrowing = OutputNarrowing.parse("mask:uint16, prob : probability,auto");
+		assertEquals(OutputNarrowing.UINT16, narrowing.getPolicy("mask"));
+		assertEquals(OutputNarrowing.PROBABILITY, narrowing.getPolicy("prob"));
+		assertEquals(OutputNarrowing.AUTO, narrowing.getPolicy("other"));
+		assertEquals(OutputNarrowing.NONE, OutputNarrowing.parse(null).getPolicy("mask"));
+		assertEquals(OutputNarrowing.INT32, OutputNarrowing.parse("INT32").getPolicy("mask"));
+		assertThrows(IllegalArgumentException.class, () -> OutputNarrowing.parse("mask:uint12"));
+	}
+
+	@Test
+	public void testAutoChoosesTheSmallestType() {
+		RandomAccessibleInterval<UnsignedByteType> bytes = OutputNarrowing.narrow(floats(0, 1, 255), OutputNarrowing.AUTO);
+		assertTrue(typeOf(bytes) instanceof UnsignedByteType);
+		RandomAccessibleInterval<UnsignedShortType> shorts = OutputNarrowing.narrow(floats(0, 1, 256), OutputNarrowing.AUTO);
+		assertTrue(typeOf(shorts) instanceof UnsignedShortType);
+		RandomAccessibleInterval<IntType> ints = OutputNarrowing.narrow(ArrayImgs.doubles(new double[] {-1, 70000}, 2), OutputNarrowing.AUTO);
+		assertTrue(typeOf(ints) instanceof IntType);
+	}
+
+	@Test
+	public void testAutoKeepsTheTypeWhenValuesWouldBeLost() {
+		ArrayImg<FloatType, FloatArray> fractions = floats(0, 0.5f, 1);
+		RandomAccessibleInterval<FloatType> narrowed = OutputNarrowing.narrow(fractions, OutputNarrowing.AUTO);
+		assertSame(fractions, narrowed);
+		// int32 is not smaller than float32
+		ArrayImg<FloatType, FloatArray> negative = floats(-1, 0, 1);
+		narrowed = OutputNarrowing.narrow(negative, OutputNarrowing.AUTO);
+		assertSame(negative, narrowed);
+		ArrayImg<DoubleType, DoubleArray> big = ArrayImgs.doubles(new double[] {0, 1e10}, 2);
+		RandomAccessibleInterval<DoubleType> notNarrowed = OutputNarrowing.narrow(big, OutputNarrowing.AUTO);
+		assertSame(big, notNarrowed);
+	}
+
+	@Test
+	public void testValuesAreRoundedAndClipped() {
+		ArrayImg<FloatType, FloatArray> img = floats(-3, 0.4f, 0.6f, 254.5f, 300, 70000);
+		RandomAccessibleInterval<UnsignedByteType> bytes = OutputNarrowing.narrow(img, OutputNarrowing.UINT8);
+		assertArrayEquals(new double[] {0, 0, 1, 254, 255, 255}, values(bytes), 0);
+		RandomAccessibleInterval<UnsignedShortType> shorts = OutputNarrowing.narrow(img, OutputNarrowing.UINT16);
+		assertArrayEquals(new double[] {0, 0, 1, 254, 300, 65535}, values(shorts), 0);
+		RandomAccessibleInterval<IntType> ints = OutputNarrowing.narrow(img, OutputNarrowing.INT32);
+		assertArrayEquals(new double[] {-3, 0, 1, 254, 300, 70000}, values(ints), 0);
+	}
+
+	@Test
+	public void testProbabilities() {
+		ArrayImg<FloatType, FloatArray> img = floats(-0.1f, 0, 0.5f, 1, 1.2f);
+		RandomAccessibleInterval<UnsignedByteType> narrowed = OutputNarrowing.narrow(img, OutputNarrowing.PROBABILITY);
+		assertArrayEquals(new double[] {0, 0, 128, 255, 255}, values(narrowed), 0);
+	}
+
+	@Test
+	public void testCopyIsIndependentOfTheOutput() {
+		ArrayImg<FloatType, FloatArray> img = floats(1, 2, 3);
+		RandomAccessibleInterval<UnsignedByteType> copy = OutputNarrowing.narrowCopy(img, OutputNarrowing.UINT8);
+		img.firstElement().set(100);
+		assertArrayEquals(new double[] {1, 2, 3}, values(copy), 0);
+		RandomAccessibleInterval<FloatType> same = OutputNarrowing.narrowCopy(img, OutputNarrowing.NONE);
+		assertSame(img, same);
+	}
+
+	private static ArrayImg<FloatType, FloatArray> floats(float... values) {
+		return ArrayImgs.floats(values, values.length);
+	}
+
+	private static Object typeOf(RandomAccessibleInterval<?> rai) {
+		return Views.iterable(rai).firstElement();
+	}
+
+	private static <T extends RealType<T>> double[] values(RandomAccessibleInterval<T> rai) {
+		double[] values = new double[(int) rai.dimension(0)];
+		int i = 0;
+		for (T value : Views.flatIterable(rai))
+			values[i ++] = value.getRealDouble();
+		return values;
+	}
+}
@@ -0,0 +1,246 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link TiffOutputWriter}, reading the files back with ImageJ and checking the TIFF tags
+ */
+public class TiffOutputWriterTest {
+
+	private static final int TAG_BITS_PER_SAMPLE = 258;
+
+	private static final int TAG_COMPRESSION = 259;
+
+	private static final int TAG_IMAGE_DESCRIPTION = 270;
+
+	private static final int TAG_SAMPLE_FORMAT = 339;
+
+	private Path folder;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("tiff_writer_test");
+	}
+
+	@Test
+	public void testHyperstackIsOpenedByImageJ() throws IOException {
+		// x, y, c, b -> 2 channels and 3 frames
+		float[] data = new float[5 * 4 * 2 * 3];
+		for (int i = 0; i < data.length; i ++)
+			data[i] = i * 0.5f;
+		ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(data, 5, 4, 2, 3);
+		new TiffOutputWriter().write(folder.toString(), "stack", img, "xycb");
+
+		ImagePlus imp = open("stack.tif");
+		assertEquals(5, imp.getWidth());
+		assertEquals(4, imp.getHeight());
+		assertEquals(2, imp.getNChannels());
+		assertEquals(1, imp.getNSlices());
+		assertEquals(3, imp.getNFrames());
+		assertEquals(32, imp.getBitDepth());
+		for (int t = 0; t < 3; t ++) {
+			for (int c = 0; c < 2; c ++) {
+				float[] plane = (float[]) imp.getStack().getPixels(imp.getStackIndex(c + 1, 1, t + 1));
+				for (int i = 0; i < 5 * 4; i ++)
+					assertEquals(data[i + 5 * 4 * (c + 2 * t)], plane[i], 0);
+			}
+		}
+	}
+
+	@Test
+	public void testAxesAreReorderedForImageJ() throws IOException {
+		// c, y, x -> the channels become the third ImageJ axis
+		short[] data = new short[2 * 3 * 4];
+		for (int i = 0; i < data.length; i ++)
+			data[i] = (short) (i * 1000);
+		ArrayImg<UnsignedShortType, ShortArray> img = ArrayImgs.unsignedShorts(data, 2, 3, 4);
+		new TiffOutputWriter().write(folder.toString(), "cyx", img, "cyx");
+
+		ImagePlus imp = open("cyx.tif");
+		assertEquals(4, imp.getWidth());
+		assertEquals(3, imp.getHeight());
+		assertEquals(2, imp.getNChannels());
+		for (int c = 0; c < 2; c ++) {
+			short[] plane = (short[]) imp.getStack().getPixels(c + 1);
+			for (int y = 0; y < 3; y ++) {
+				for (int x = 0; x < 4; x ++)
+					assertEquals(data[c + 2 * y + 2 * 3 * x], plane[x + 4 * y]);
+			}
+		}
+	}
+
+	@Test
+	public void testEveryCompressionIsOpenedByImageJ() throws IOException {
+		// Random data fills the LZW table several times per plane
+		byte[] data = new byte[300 * 200 * 2];
+		new Random(1).nextBytes(data);
+		int[] tags = new int[] {1, 8, 5};
+		for (int i = 0; i < TiffOutputWriter.COMPRESSIONS.length; i ++) {
+			String compression = TiffOutputWriter.COMPRESSIONS[i];
+			ArrayImg<UnsignedByteType, ByteArray> img = ArrayImgs.unsignedBytes(data, 300, 200, 2);
+			new TiffOutputWriter(compression).write(folder.toString(), compression, img, "xyz");
+
+			Map<Integer, long[]> tiffTags = readFirstDirectory(folder.resolve(compression + ".tif"));
+			assertEquals(tags[i], tiffTags.get(TAG_COMPRESSION)[2]);
+			ImagePlus imp = open(compression + ".tif");
+			assertEquals(8, imp.getBitDepth());
+			assertEquals(2, imp.getNSlices());
+			for (int z = 0; z < 2; z ++) {
+				byte[] plane = (byte[]) imp.getStack().getPixels(z + 1);
+				for (int p = 0; p < 300 * 200; p ++)
+					assertEquals(data[p + 300 * 200 * z], plane[p], compression + " differs at " + p);
+			}
+		}
+	}
+
+	@Test
+	public void testSignedTypesKeepTheirValues() throws IOException {
+		ArrayImg<ShortType, ShortArray> shorts = ArrayImgs.shorts(new short[] {-32768, -1, 0, 32767}, 2, 2);
+		new TiffOutputWriter().write(folder.toString(), "int16", shorts, "xy");
+		assertSampleFormat("int16.tif", 16, 2);
+		assertValues("int16.tif", -32768, -1, 0, 32767);
+
+		// ImageJ reads 8 bit samples as unsigned, so they are saved with 16 bits
+		ArrayImg<ByteType, ByteArray> bytes = ArrayImgs.bytes(new byte[] {-128, -1, 0, 127}, 2, 2);
+		new TiffOutputWriter().write(folder.toString(), "int8", bytes, "xy");
+		assertSampleFormat("int8.tif", 16, 2);
+		assertValues("int8.tif", -128, -1, 0, 127);
+
+		ArrayImg<IntType, IntArray> ints = ArrayImgs.ints(new int[] {-100000, -1, 0, 100000}, 2, 2);
+		new TiffOutputWriter(TiffOutputWriter.DEFLATE).write(folder.toString(), "int32", ints, "xy");
+		assertSampleFormat("int32.tif", 32, 2);
+		assertValues("int32.tif", -100000, -1, 0, 100000);
+	}
+
+	@Test
+	public void testDoublesAreSavedAsDoubles() throws IOException {
+		ArrayImg<DoubleType, DoubleArray> img = ArrayImgs.doubles(new double[] {-1.5, 0, 0.25, 1e6}, 2, 2);
+		new TiffOutputWriter().write(folder.toString(), "float64", img, "xy");
+		assertSampleFormat("float64.tif", 64, 3);
+		assertValues("float64.tif", -1.5, 0, 0.25, 1e6);
+	}
+
+	@Test
+	public void testOnlyTheFirstPlaneHasTheDescription() throws IOException {
+		ArrayImg<FloatType, FloatArray> img = ArrayImgs.floats(4, 3, 5);
+		new TiffOutputWriter().write(folder.toString(), "planes", img, "xyz");
+		byte[] file = Files.readAllBytes(folder.resolve("planes.tif"));
+		ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+		long[] first = readDirectory(buffer, buffer.getInt(4)).get(TAG_IMAGE_DESCRIPTION);
+		String description = new String(file, (int) first[2], (int) first[1] - 1, StandardCharsets.US_ASCII);
+		assertTrue(description.startsWith("ImageJ="), description);
+		assertTrue(description.contains("images=5\n"), description);
+		assertTrue(description.contains("slices=5\n"), description);
+		assertEquals(0, file[(int) (first[2] + first[1] - 1)]);
+		int ifd = buffer.getInt(4);
+		for (int i = 1; i < 5; i ++) {
+			ifd = buffer.getInt(ifd + 2 + 12 * buffer.getShort(ifd));
+			long[] entry = readDirectory(buffer, ifd).get(TAG_IMAGE_DESCRIPTION);
+			assertEquals(1, entry[1]);
+			assertEquals(0, entry[2]);
+		}
+		assertEquals(5, open("planes.tif").getNSlices());
+	}
+
+	@Test
+	public void testPartsAreAppendedAsFrames() throws IOException {
+		float[] first = new float[4 * 3 * 2];
+		float[] second = new float[4 * 3];
+		for (int i = 0; i < first.length; i ++)
+			first[i] = i;
+		for (int i = 0; i < second.length; i ++)
+			second[i] = 100 + i;
+		try (OutputWriter.Appender<FloatType> appender = new TiffOutputWriter(TiffOutputWriter.LZW).open(folder.toString(), "parts", "xyb")) {
+			appender.append(ArrayImgs.floats(first, 4, 3, 2));
+			appender.append(ArrayImgs.floats(second, 4, 3, 1));
+			appender.finish();
+		}
+		ImagePlus imp = open("parts.tif");
+		assertEquals(3, imp.getStackSize());
+		assertEquals(3, imp.getNFrames());
+		assertEquals(0f, ((float[]) imp.getStack().getPixels(1))[0], 0);
+		assertEquals(12f, ((float[]) imp.getStack().getPixels(2))[0], 0);
+		assertEquals(111f, ((float[]) imp.getStack().getPixels(3))[11], 0);
+	}
+
+	private ImagePlus open(String name) {
+		ImagePlus imp = IJ.openImage(folder.resolve(name).toString());
+		assertNotNull(imp, "ImageJ cannot open " + name);
+		return imp;
+	}
+
+	/**
+	 * Check the values of a 2x2 image, as ImageJ shows them once calibrated
+	 */
+	private void assertValues(String name, double... values) {
+		ImagePlus imp = open(name);
+		for (int i = 0; i < values.length; i ++) {
+			double value = imp.getBitDepth() == 16
+					? imp.getCalibration().getCValue(imp.getProcessor().get(i % 2, i / 2))
+					: imp.getProcessor().getf(i % 2, i / 2);
+			assertEquals(values[i], value, 0, name + " differs at " + i);
+		}
+	}
+
+	private void assertSampleFormat(String name, int bits, int sampleFormat) throws IOException {
+		Map<Integer, long[]> tags = readFirstDirectory(folder.resolve(name));
+		assertEquals(bits, tags.get(TAG_BITS_PER_SAMPLE)[2]);
+		assertEquals(sampleFormat, tags.get(TAG_SAMPLE_FORMAT)[2]);
+	}
+
+	private static Map<Integer, long[]> readFirstDirectory(Path file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+		assertEquals((byte) 'I', buffer.get(0));
+		assertEquals((byte) 'I', buffer.get(1));
+		assertEquals(42, buffer.getShort(2));
+		return readDirectory(buffer, buffer.getInt(4));
+	}
+
+	/**
+	 * @return type, count and value of each entry of a TIFF directory, by tag
+	 */
+	private static Map<Integer, long[]> readDirectory(ByteBuffer buffer, int offset) {
+		Map<Integer, long[]> tags = new HashMap<Integer, long[]>();
+		int n = buffer.getShort(offset);
+		for (int i = 0; i < n; i ++) {
+			int pos = offset + 2 + 12 * i;
+			int type = buffer.getShort(pos + 2);
+			long count = buffer.getInt(pos + 4) & 0xFFFFFFFFL;
+			long value = type == 3 ? buffer.getShort(pos + 8) & 0xFFFF : buffer.getInt(pos + 8) & 0xFFFFFFFFL;
+			tags.put(buffer.getShort(pos) & 0xFFFF, new long[] {type, count, value});
+		}
+		return tags;
+	}
+}
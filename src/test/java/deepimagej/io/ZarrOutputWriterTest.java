@@ -0,0 +1,138 @@
+package deepimagej.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Tests of {@link ZarrOutputWriter}, reading the metadata and the chunks of the saved arrays
+ */
+public class ZarrOutputWriterTest {
+
+	private Path folder;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("zarr_writer_test");
+	}
+
+	@Test
+	public void testMetadata() throws IOException {
+		new ZarrOutputWriter().write(folder.toString(), "out", ArrayImgs.floats(600, 3), "xy");
+		Path root = folder.resolve("out.zarr");
+		assertEquals("{\"zarr_format\": 2}", readText(root.resolve(".zgroup")));
+		String attrs = readText(root.resolve(".zattrs"));
+		assertTrue(attrs.contains("\"version\": \"0.4\""), attrs);
+		assertTrue(attrs.contains("\"name\": \"out\""), attrs);
+		assertTrue(attrs.contains("{\"name\": \"t\", \"type\": \"time\"}, {\"name\": \"c\", \"type\": \"channel\"}"), attrs);
+		assertTrue(attrs.contains("{\"path\": \"0\""), attrs);
+
+		String zarray = readText(root.resolve("0/.zarray"));
+		assertTrue(zarray.contains("\"shape\": [1, 1, 1, 3, 600]"), zarray);
+		assertTrue(zarray.contains("\"chunks\": [1, 1, 1, 3, 512]"), zarray);
+		assertTrue(zarray.contains("\"dtype\": \"<f4\""), zarray);
+		assertTrue(zarray.contains("\"compressor\": {\"id\": \"zlib\""), zarray);
+		assertTrue(zarray.contains("\"order\": \"C\""), zarray);
+	}
+
+	@Test
+	public void testBorderChunksAreFilledWithZeros() throws IOException, DataFormatException {
+		float[] data = new float[600 * 3];
+		for (int y = 0; y < 3; y ++) {
+			for (int x = 0; x < 600; x ++)
+				data[x + 600 * y] = 1 + x + 1000 * y;
+		}
+		new ZarrOutputWriter().write(folder.toString(), "out", ArrayImgs.floats(data, 600, 3), "xy");
+		Path array = folder.resolve("out.zarr/0");
+		ByteBuffer first = readChunk(array.resolve("0.0.0.0.0"), 3 * 512);
+		ByteBuffer second = readChunk(array.resolve("0.0.0.0.1"), 3 * 512);
+		for (int y = 0; y < 3; y ++) {
+			for (int x = 0; x < 512; x ++) {
+				assertEquals(data[x + 600 * y], first.getFloat(), 0);
+				float expected = x + 512 < 600 ? data[x + 512 + 600 * y] : 0;
+				assertEquals(expected, second.getFloat(), 0);
+			}
+		}
+		assertFalse(Files.exists(array.resolve("0.0.0.0.2")));
+	}
+
+	@Test
+	public void testAxesAreSavedInOmeOrder() throws IOException, DataFormatException {
+		// c, x, y -> t, c, z, y, x
+		float[] data = new float[2 * 3 * 4];
+		for (int i = 0; i < data.length; i ++)
+			data[i] = i;
+		new ZarrOutputWriter().write(folder.toString(), "cxy", ArrayImgs.floats(data, 2, 3, 4), "cxy");
+		Path array = folder.resolve("cxy.zarr/0");
+		assertTrue(readText(array.resolve(".zarray")).contains("\"shape\": [1, 2, 1, 4, 3]"));
+		for (int c = 0; c < 2; c ++) {
+			ByteBuffer chunk = readChunk(array.resolve("0." + c + ".0.0.0"), 4 * 3);
+			for (int y = 0; y < 4; y ++) {
+				for (int x = 0; x < 3; x ++)
+					assertEquals(data[c + 2 * x + 2 * 3 * y], chunk.getFloat(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testPartsAreAppendedAlongTime() throws IOException, DataFormatException {
+		try (OutputWriter.Appender<FloatType> appender = new ZarrOutputWriter().open(folder.toString(), "parts", "byx")) {
+			appender.append(ArrayImgs.floats(new float[] {1, 2, 3, 4, 5, 6, 7, 8}, 2, 2, 2));
+			appender.append(ArrayImgs.floats(new float[] {9, 10, 11, 12}, 1, 2, 2));
+			appender.finish();
+		}
+		Path array = folder.resolve("parts.zarr/0");
+		assertTrue(readText(array.resolve(".zarray")).contains("\"shape\": [3, 1, 1, 2, 2]"));
+		// Pixel y = 1, x = 0 of each time point
+		assertEquals(3, readChunk(array.resolve("0.0.0.0.0"), 4).getFloat(8), 0);
+		assertEquals(4, readChunk(array.resolve("1.0.0.0.0"), 4).getFloat(8), 0);
+		assertEquals(10, readChunk(array.resolve("2.0.0.0.0"), 4).getFloat(8), 0);
+	}
+
+	@Test
+	public void testPartsNeedTheSameShape() throws IOException {
+		try (OutputWriter.Appender<FloatType> appender = new ZarrOutputWriter().open(folder.toString(), "parts", "byx")) {
+			appender.append(ArrayImgs.floats(1, 2, 2));
+			assertThrows(IllegalArgumentException.class, () -> appender.append(ArrayImgs.floats(1, 3, 2)));
+		}
+	}
+
+	private static String readText(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decompress a chunk saved with the zlib compressor of Zarr
+	 */
+	private static ByteBuffer readChunk(Path file, int nFloats) throws IOException, DataFormatException {
+		Inflater inflater = new Inflater();
+		byte[] raw = new byte[nFloats * Float.BYTES];
+		try {
+			inflater.setInput(Files.readAllBytes(file));
+			int n = 0;
+			while (n < raw.length && !inflater.finished() && !inflater.needsInput())
+				n += inflater.inflate(raw, n, raw.length - n);
+			assertEquals(raw.length, n);
+			assertTrue(inflater.finished());
+		} finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
@@ -0,0 +1,132 @@
+package deepimagej.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link CatalogCache} with a local file as the catalog
+ */
+public class CatalogCacheTest {
+	
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	private Path dir;
+	
+	private Path catalog;
+	
+	private Path snapshot;
+	
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("catalog_cache_test");
+		catalog = dir.resolve("catalog.tsv");
+		snapshot = dir.resolve(CatalogCache.SNAPSHOT_NAME);
+		writeCatalog("# nickname\trdf\nmodel-a\t/models/a/rdf.yaml\nmodel-b\t/models/b/rdf.yaml\n");
+	}
+	
+	@Test
+	public void testFindsModelsOfTheSource() {
+		CatalogCache cache = new CatalogCache(snapshot.toString(), new CatalogCache.FileSource(catalog.toString()), HOUR);
+		assertEquals("/models/a/rdf.yaml", cache.findSource("model-a"));
+		assertEquals("/models/b/rdf.yaml", cache.findSource("model-b"));
+		assertNull(cache.findSource("model-c"));
+		assertTrue(Files.isRegularFile(snapshot));
+	}
+	
+	@Test
+	public void testSnapshotIsUsedWithoutFetching() {
+		new CatalogCache(snapshot.toString(), new CatalogCache.FileSource(catalog.toString()), HOUR).findSource("model-a");
+		CountingSource source = new CountingSource(new CatalogCache.FileSource(catalog.toString()), false);
+		CatalogCache cache = new CatalogCache(snapshot.toString(), source, HOUR);
+		assertEquals("/models/b/rdf.yaml", cache.findSource("model-b"));
+		assertEquals(0, source.fetches.get());
+	}
+	
+	@Test
+	public void testUnchangedSourceIsNotFetchedAgain() throws IOException {
+		Files.setLastModifiedTime(catalog, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() - HOUR));
+		CountingSource source = new CountingSource(new CatalogCache.FileSource(catalog.toString()), false);
+		CatalogCache cache = new CatalogCache(snapshot.toString(), source, 0);
+		cache.findSource("model-a");
+		cache.findSource("model-a");
+		assertEquals(1, source.fetches.get());
+	}
+	
+	@Test
+	public void testChangedSourceIsFetchedAgain() throws IOException {
+		CatalogCache cache = new CatalogCache(snapshot.toString(), new CatalogCache.FileSource(catalog.toString()), 0);
+		assertNull(cache.findSource("model-c"));
+		writeCatalog("model-c\t/models/c/rdf.yaml\n");
+		Files.setLastModifiedTime(catalog, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + HOUR));
+		assertEquals("/models/c/rdf.yaml", cache.findSource("model-c"));
+	}
+	
+	@Test
+	public void testFailedRefreshKeepsTheCopyAndIsNotRetried() {
+		new CatalogCache(snapshot.toString(), new CatalogCache.FileSource(catalog.toString()), HOUR).findSource("model-a");
+		CountingSource failing = new CountingSource(new CatalogCache.FileSource(catalog.toString()), true);
+		CatalogCache cache = new CatalogCache(snapshot.toString(), failing, 0);
+		assertEquals("/models/a/rdf.yaml", cache.findSource("model-a"));
+		assertEquals("/models/b/rdf.yaml", cache.findSource("model-b"));
+		assertEquals(1, failing.fetches.get());
+		// The failure is remembered by the next processes too
+		CountingSource other = new CountingSource(new CatalogCache.FileSource(catalog.toString()), true);
+		assertEquals("/models/a/rdf.yaml", new CatalogCache(snapshot.toString(), other, 0).findSource("model-a"));
+		assertEquals(0, other.fetches.get());
+	}
+	
+	@Test
+	public void testExplicitRefreshReportsFailure() {
+		CountingSource failing = new CountingSource(new CatalogCache.FileSource(catalog.toString()), true);
+		CatalogCache cache = new CatalogCache(snapshot.toString(), failing, HOUR);
+		assertFalse(cache.refresh());
+		assertNull(cache.findSource("model-a"));
+	}
+	
+	private void writeCatalog(String content) throws IOException {
+		Files.write(catalog, content.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Source that counts the times the catalog is fetched, and optionally fails
+	 */
+	private static class CountingSource implements CatalogCache.Source {
+		
+		private final CatalogCache.Source source;
+		
+		private final boolean fail;
+		
+		private final AtomicInteger fetches = new AtomicInteger();
+		
+		private CountingSource(CatalogCache.Source source, boolean fail) {
+			this.source = source;
+			this.fail = fail;
+		}
+
+		@Override
+		public Map<String, String> fetch() throws Exception {
+			fetches.incrementAndGet();
+			if (fail)
+				throw new IOException("No connection");
+			return source.fetch();
+		}
+		
+		@Override
+		public long lastModified() {
+			return fail ? -1 : source.lastModified();
+		}
+	}
+}
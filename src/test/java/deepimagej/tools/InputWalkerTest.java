@@ -0,0 +1,125 @@
+package deepimagej.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link InputWalker} on a small folder tree
+ */
+public class InputWalkerTest {
+
+	private Path root;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("input_walker_test");
+		create("a.tif");
+		create("b.png");
+		create(".hidden.tif");
+		create("plate_1/c.tif");
+		create("plate_1/well/d.tif");
+		create("plate_2/e.tif");
+		create("output/f.tif");
+		Files.createDirectories(root.resolve("empty"));
+	}
+
+	@Test
+	public void testOnlyTheFilesOfTheFolderByDefault() throws IOException {
+		assertFiles(new InputWalker(root.toString()), "a.tif", "b.png");
+	}
+
+	@Test
+	public void testDepth() throws IOException {
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(2),
+				"a.tif", "b.png", "output/f.tif", "plate_1/c.tif", "plate_2/e.tif");
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(3),
+				"a.tif", "b.png", "output/f.tif", "plate_1/c.tif", "plate_1/well/d.tif", "plate_2/e.tif");
+		assertThrows(IllegalArgumentException.class, () -> new InputWalker(root.toString()).setMaxDepth(0));
+	}
+
+	@Test
+	public void testNameFilters() throws IOException {
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(3).setInclude("*.png"), "b.png");
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(2).setExclude("*.tif"), "b.png");
+	}
+
+	@Test
+	public void testPathFilters() throws IOException {
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(3).setInclude("plate_1/**"),
+				"plate_1/c.tif", "plate_1/well/d.tif");
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(3).setInclude("*.tif").setExclude("plate_*/**"),
+				"a.tif", "output/f.tif");
+	}
+
+	@Test
+	public void testSkipFolder() throws IOException {
+		assertFiles(new InputWalker(root.toString()).setMaxDepth(2).setSkipFolder(root.resolve("output").toString()),
+				"a.tif", "b.png", "plate_1/c.tif", "plate_2/e.tif");
+	}
+
+	@Test
+	public void testSkippingTheInputFolderOnlySkipsNewFiles() throws IOException {
+		InputWalker walker = new InputWalker(root.toString()).setSkipFolder(root.toString());
+		try (Stream<File> files = walker.walk()) {
+			// Files created while the folder is explored, as outputs saved next to the inputs
+			File output = create("a_output.tif").toFile();
+			output.setLastModified(System.currentTimeMillis() + 10000);
+			List<String> names = files.map(ff -> root.relativize(ff.toPath()).toString()).sorted().collect(Collectors.toList());
+			assertEquals(Arrays.asList("a.tif", "b.png"), names);
+		}
+	}
+
+	@Test
+	public void testShardsSplitTheFiles() throws IOException {
+		TreeSet<String> all = new TreeSet<String>();
+		for (int i = 0; i < 3; i ++) {
+			try (Stream<File> files = new InputWalker(root.toString()).setMaxDepth(3).setShard(i, 3).walk()) {
+				files.forEach(ff -> assertTrue(all.add(ff.getName()), "In two shards: " + ff));
+			}
+		}
+		assertEquals(new TreeSet<String>(Arrays.asList("a.tif", "b.png", "c.tif", "d.tif", "e.tif", "f.tif")), all);
+		assertThrows(IllegalArgumentException.class, () -> new InputWalker(root.toString()).setShard(3, 3));
+	}
+
+	@Test
+	public void testShardsOfARelativeFolder() throws IOException {
+		String relative = Paths.get("").toAbsolutePath().relativize(root).toString();
+		for (int i = 0; i < 3; i ++) {
+			try (Stream<File> absolute = new InputWalker(root.toString()).setMaxDepth(3).setShard(i, 3).walk();
+					Stream<File> files = new InputWalker(relative).setMaxDepth(3).setShard(i, 3).walk()) {
+				assertEquals(absolute.collect(Collectors.toSet()), files.collect(Collectors.toSet()));
+			}
+		}
+	}
+
+	private void assertFiles(InputWalker walker, String... expected) throws IOException {
+		try (Stream<File> files = walker.walk()) {
+			TreeSet<String> found = files.map(ff -> root.relativize(ff.toPath()).toString().replace(File.separatorChar, '/'))
+					.collect(Collectors.toCollection(TreeSet::new));
+			assertEquals(new TreeSet<String>(Arrays.asList(expected)), found);
+		}
+	}
+
+	private Path create(String name) throws IOException {
+		Path file = root.resolve(name);
+		Files.createDirectories(file.getParent());
+		File old = Files.createFile(file).toFile();
+		old.setLastModified(System.currentTimeMillis() - 10000);
+		return file;
+	}
+}
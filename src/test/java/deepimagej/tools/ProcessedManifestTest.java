@@ -0,0 +1,120 @@
+package deepimagej.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link ProcessedManifest}, reopening the manifest as an interrupted execution would
+ */
+public class ProcessedManifestTest {
+
+	private Path outputDir;
+
+	private Path modelDir;
+
+	private File input;
+
+	private File other;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		outputDir = Files.createTempDirectory("manifest_test_output");
+		modelDir = Files.createTempDirectory("manifest_test_model");
+		Path inputDir = Files.createTempDirectory("manifest_test_input");
+		Files.write(modelDir.resolve("rdf.yaml"), "name: model\n".getBytes(StandardCharsets.UTF_8));
+		input = Files.write(inputDir.resolve("image.tif"), new byte[] {1, 2, 3}).toFile();
+		other = Files.write(inputDir.resolve("other.tif"), new byte[] {4, 5}).toFile();
+	}
+
+	@Test
+	public void testProcessedInputIsDoneAfterReopening() throws IOException {
+		try (ProcessedManifest manifest = open()) {
+			assertFalse(manifest.isDone(input));
+			manifest.markDone(input);
+			assertTrue(manifest.isDone(input));
+		}
+		try (ProcessedManifest manifest = open()) {
+			assertTrue(manifest.isDone(input));
+			assertFalse(manifest.isDone(other));
+		}
+	}
+
+	@Test
+	public void testModifiedInputIsNotDone() throws IOException {
+		try (ProcessedManifest manifest = open()) {
+			manifest.markDone(input);
+		}
+		Files.write(input.toPath(), new byte[] {1, 2, 3, 4});
+		try (ProcessedManifest manifest = open()) {
+			assertFalse(manifest.isDone(input));
+		}
+	}
+
+	@Test
+	public void testInputProcessedWithAnotherModelIsNotDone() throws IOException {
+		try (ProcessedManifest manifest = open()) {
+			manifest.markDone(input);
+		}
+		Files.write(modelDir.resolve("rdf.yaml"), "name: other model\n".getBytes(StandardCharsets.UTF_8));
+		try (ProcessedManifest manifest = open()) {
+			assertFalse(manifest.isDone(input));
+		}
+	}
+
+	@Test
+	public void testCompactionRemovesRepeatedAndIncompleteLines() throws IOException {
+		try (ProcessedManifest manifest = open()) {
+			manifest.markDone(input);
+			manifest.markDone(input);
+			manifest.markDone(other);
+		}
+		// A line cut by a crash in the middle of the write
+		Files.write(manifestPath(), (other.getAbsolutePath() + "\t2\t12").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		assertEquals(4, Files.readAllLines(manifestPath(), StandardCharsets.UTF_8).size());
+		try (ProcessedManifest manifest = open()) {
+			List<String> lines = Files.readAllLines(manifestPath(), StandardCharsets.UTF_8);
+			assertEquals(2, lines.size());
+			assertTrue(lines.get(0).startsWith(input.getAbsolutePath() + "\t"));
+			assertTrue(lines.get(1).startsWith(other.getAbsolutePath() + "\t"));
+			assertTrue(manifest.isDone(input));
+			assertTrue(manifest.isDone(other));
+		}
+		assertFalse(Files.exists(outputDir.resolve(ProcessedManifest.MANIFEST_NAME + ".tmp")));
+	}
+
+	@Test
+	public void testLinesAreAppendedAfterCompaction() throws IOException {
+		try (ProcessedManifest manifest = open()) {
+			manifest.markDone(input);
+		}
+		try (ProcessedManifest manifest = open()) {
+			manifest.markDone(other);
+		}
+		assertEquals(2, Files.readAllLines(manifestPath(), StandardCharsets.UTF_8).size());
+		try (ProcessedManifest manifest = open()) {
+			assertTrue(manifest.isDone(input));
+			assertTrue(manifest.isDone(other));
+		}
+	}
+
+	private ProcessedManifest open() throws IOException {
+		return ProcessedManifest.open(outputDir.toString(), modelDir.toString());
+	}
+
+	private Path manifestPath() {
+		return outputDir.resolve(ProcessedManifest.MANIFEST_NAME);
+	}
+}
@@ -0,0 +1,135 @@
+package deepimagej.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of {@link WorkClaims} with several instances sharing a claim folder, as several processes would
+ */
+public class WorkClaimsTest {
+
+	private static final long LEASE = TimeUnit.HOURS.toMillis(1);
+
+	private Path claimDir;
+
+	private Path inputDir;
+
+	private File input;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		claimDir = Files.createTempDirectory("work_claims_test");
+		inputDir = Files.createTempDirectory("work_claims_input");
+		input = Files.createFile(inputDir.resolve("image.tif")).toFile();
+	}
+
+	@Test
+	public void testInputIsClaimedOnce() throws IOException {
+		try (WorkClaims first = open(); WorkClaims second = open()) {
+			assertTrue(first.tryClaim(input));
+			assertFalse(second.tryClaim(input));
+		}
+	}
+
+	@Test
+	public void testDoneInputIsNotClaimedAgain() throws IOException {
+		try (WorkClaims first = open(); WorkClaims second = open()) {
+			assertTrue(first.tryClaim(input));
+			first.markDone(input);
+			assertFalse(second.tryClaim(input));
+			assertFalse(first.tryClaim(input));
+		}
+	}
+
+	@Test
+	public void testClosingReleasesUnfinishedClaims() throws IOException {
+		WorkClaims first = open();
+		assertTrue(first.tryClaim(input));
+		first.close();
+		try (WorkClaims second = open()) {
+			assertTrue(second.tryClaim(input));
+		}
+	}
+
+	@Test
+	public void testReleasedInputCanBeClaimed() throws IOException {
+		try (WorkClaims first = open(); WorkClaims second = open()) {
+			assertTrue(first.tryClaim(input));
+			first.release(input);
+			assertEquals(0, countFiles(".claim"));
+			assertTrue(second.tryClaim(input));
+		}
+	}
+
+	@Test
+	public void testExpiredClaimIsReclaimed() throws IOException {
+		try (WorkClaims dead = open(); WorkClaims alive = open()) {
+			assertTrue(dead.tryClaim(input));
+			assertFalse(alive.tryClaim(input));
+			expireClaims();
+			assertTrue(alive.tryClaim(input));
+			assertEquals(1, countFiles(".claim"));
+			assertEquals(0, countFiles(".stale"));
+		}
+	}
+
+	@Test
+	public void testReclaimedClaimIsNotTouchedByThePreviousOwner() throws IOException {
+		WorkClaims dead = open();
+		try (WorkClaims alive = open(); WorkClaims other = open()) {
+			assertTrue(dead.tryClaim(input));
+			expireClaims();
+			assertTrue(alive.tryClaim(input));
+			// The previous owner comes back and releases what it thinks is still its claim
+			dead.close();
+			assertEquals(1, countFiles(".claim"));
+			assertFalse(other.tryClaim(input));
+		}
+	}
+
+	@Test
+	public void testFinishingAReclaimedInputKeepsTheNewClaim() throws IOException {
+		try (WorkClaims dead = open(); WorkClaims alive = open()) {
+			assertTrue(dead.tryClaim(input));
+			expireClaims();
+			assertTrue(alive.tryClaim(input));
+			dead.markDone(input);
+			assertEquals(1, countFiles(".claim"));
+			alive.markDone(input);
+			assertEquals(0, countFiles(".claim"));
+		}
+	}
+
+	private WorkClaims open() throws IOException {
+		return WorkClaims.open(claimDir.toString(), inputDir.toString(), LEASE);
+	}
+
+	private void expireClaims() throws IOException {
+		FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(claimDir, "*.claim")) {
+			for (Path ff : files)
+				Files.setLastModifiedTime(ff, old);
+		}
+	}
+
+	private int countFiles(String ext) throws IOException {
+		int n = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(claimDir, "*" + ext)) {
+			for (Path ff : files)
+				n ++;
+		}
+		return n;
+	}
+}